@@ -0,0 +1,39 @@
+package com.alexbbb.uploadservice;
+
+import java.io.File;
+
+/**
+ * File of a multipart body uploaded by the benchmarks.
+ *
+ * @author alexbbb (Aleksandar Gotev)
+ */
+final class BenchmarkFile implements MultipartFile {
+
+    private final File file;
+    private final String contentType;
+
+    BenchmarkFile(File file, String contentType) {
+        this.file = file;
+        this.contentType = contentType;
+    }
+
+    @Override
+    public File getFile() {
+        return file;
+    }
+
+    @Override
+    public String getParameterName() {
+        return "file";
+    }
+
+    @Override
+    public String getFileName() {
+        return file.getName();
+    }
+
+    @Override
+    public String getContentType() {
+        return contentType;
+    }
+}
@@ -0,0 +1,54 @@
+package com.alexbbb.uploadservice;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Creates the files uploaded by the benchmarks.
+ *
+ * @author alexbbb (Aleksandar Gotev)
+ */
+final class BenchmarkFiles {
+
+    private BenchmarkFiles() {
+    }
+
+    static File createDirectory() throws IOException {
+        final File directory = File.createTempFile("uploadservice-benchmark", "");
+        if (!directory.delete() || !directory.mkdir()) {
+            throw new IOException("Unable to create " + directory);
+        }
+        return directory;
+    }
+
+    static File createFile(File directory, String name, long length) throws IOException {
+        final File file = new File(directory, name);
+        final byte[] block = new byte[64 * 1024];
+        new Random(length).nextBytes(block);
+
+        final FileOutputStream stream = new FileOutputStream(file);
+        try {
+            long remaining = length;
+            while (remaining > 0) {
+                final int count = (int) Math.min(block.length, remaining);
+                stream.write(block, 0, count);
+                remaining -= count;
+            }
+        } finally {
+            stream.close();
+        }
+        return file;
+    }
+
+    static void delete(File directory) {
+        final File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+}
@@ -0,0 +1,40 @@
+package com.alexbbb.uploadservice;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+
+/**
+ * Upload which writes a multipart body on an in-memory sink and discards the progress, so
+ * that the benchmarks measure only the work of the upload threads.
+ *
+ * @author alexbbb (Aleksandar Gotev)
+ */
+class BenchmarkJob extends HttpUploadJob {
+
+    private final MultipartBody body;
+
+    BenchmarkJob(MultipartBody body, OutputStream sink) {
+        super(new UploadEngine(), "benchmark", "http://localhost/upload", "POST", null);
+        this.body = body;
+        this.requestStream = sink;
+    }
+
+    @Override
+    protected long getBodyLength() throws UnsupportedEncodingException {
+        return body == null ? -1 : body.getLength();
+    }
+
+    @Override
+    protected void writeBody() throws IOException {
+        body.writeTo(getBodyWriter());
+    }
+
+    @Override
+    protected void onProgress(long uploadedBytes, long totalBytes, int chunkSize) {
+    }
+
+    @Override
+    protected void onCompleted(int responseCode, String responseBody) {
+    }
+}
@@ -0,0 +1,32 @@
+package com.alexbbb.uploadservice;
+
+import java.io.OutputStream;
+
+/**
+ * In-memory sink which only counts the bytes written on it, used in place of the connection.
+ *
+ * @author alexbbb (Aleksandar Gotev)
+ */
+class CountingOutputStream extends OutputStream {
+
+    private long count;
+
+    @Override
+    public void write(int b) {
+        count++;
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int length) {
+        count += length;
+    }
+
+    /**
+     * @return bytes written since the previous call
+     */
+    long reset() {
+        final long written = count;
+        count = 0;
+        return written;
+    }
+}
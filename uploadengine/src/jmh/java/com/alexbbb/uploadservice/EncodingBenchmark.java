@@ -0,0 +1,45 @@
+package com.alexbbb.uploadservice;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.UnsupportedEncodingException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the encoding of the multipart headers of parameters and files, which is done
+ * once for each part when a {@link MultipartBody} is created.
+ *
+ * @author alexbbb (Aleksandar Gotev)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EncodingBenchmark {
+
+    private final NameValuePair parameter =
+            new NameValuePair("description", "A short description of the uploaded file");
+    private final MultipartFile file =
+            new BenchmarkFile(new File("/sdcard/DCIM/Camera/IMG_20180101_120000.jpg"), "image/jpeg");
+
+    @Benchmark
+    public byte[] nameValueBytes() throws UnsupportedEncodingException {
+        return MultipartBody.encodeParameter(parameter);
+    }
+
+    @Benchmark
+    public byte[] multipartFileHeader() throws UnsupportedEncodingException {
+        return MultipartBody.encodeFileHeader(file);
+    }
+}
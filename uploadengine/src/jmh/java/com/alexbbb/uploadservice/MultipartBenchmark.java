@@ -0,0 +1,97 @@
+package com.alexbbb.uploadservice;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the encoding of multipart bodies and their writing on an in-memory sink, which is
+ * the code run for every byte of a multipart upload.
+ *
+ * The workloads are:
+ * <ul>
+ *     <li>MANY_PARAMETERS: 1000 small parameters and no files</li>
+ *     <li>MANY_SMALL_FILES: 200 files of 4 KB</li>
+ *     <li>FEW_HUGE_FILES: 2 files of 64 MB</li>
+ * </ul>
+ *
+ * @author alexbbb (Aleksandar Gotev)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MultipartBenchmark {
+
+    @Param({"MANY_PARAMETERS", "MANY_SMALL_FILES", "FEW_HUGE_FILES"})
+    public String workload;
+
+    private File directory;
+    private MultipartBody body;
+    private BenchmarkJob job;
+    private final CountingOutputStream sink = new CountingOutputStream();
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = BenchmarkFiles.createDirectory();
+
+        final ArrayList<NameValuePair> parameters = new ArrayList<NameValuePair>();
+        final ArrayList<MultipartFile> files = new ArrayList<MultipartFile>();
+
+        if ("MANY_PARAMETERS".equals(workload)) {
+            for (int i = 0; i < 1000; i++) {
+                parameters.add(new NameValuePair("parameter" + i, "value of the parameter " + i));
+            }
+        } else if ("MANY_SMALL_FILES".equals(workload)) {
+            for (int i = 0; i < 200; i++) {
+                files.add(createFile("small" + i, 4 * 1024));
+            }
+        } else {
+            for (int i = 0; i < 2; i++) {
+                files.add(createFile("huge" + i, 64L * 1024 * 1024));
+            }
+        }
+
+        body = new MultipartBody(parameters, files);
+        job = new BenchmarkJob(body, sink);
+        job.totalBodyBytes = body.getLength();
+    }
+
+    private MultipartFile createFile(String name, long length) throws IOException {
+        return new BenchmarkFile(BenchmarkFiles.createFile(directory, name, length), null);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        BenchmarkFiles.delete(directory);
+    }
+
+    @Benchmark
+    public long getBodyLength() throws IOException {
+        return body.getLength();
+    }
+
+    @Benchmark
+    public void writeBody(BytesCounter counter) throws IOException {
+        job.uploadedBodyBytes = 0;
+        job.writeBody();
+        counter.bytes += sink.reset();
+    }
+}
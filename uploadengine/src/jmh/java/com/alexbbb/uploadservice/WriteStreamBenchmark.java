@@ -0,0 +1,58 @@
+package com.alexbbb.uploadservice;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the copy of a stream on the request body, including the rate limiting and chunk
+ * sizing done for every chunk, with streams from 4 KB to 16 MB.
+ *
+ * @author alexbbb (Aleksandar Gotev)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WriteStreamBenchmark {
+
+    @Param({"4096", "1048576", "16777216"})
+    public int length;
+
+    private BenchmarkJob job;
+    private ByteArrayInputStream stream;
+    private final CountingOutputStream sink = new CountingOutputStream();
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        final byte[] data = new byte[length];
+        new Random(length).nextBytes(data);
+        stream = new ByteArrayInputStream(data);
+
+        job = new BenchmarkJob(null, sink);
+    }
+
+    @Benchmark
+    public void writeStream(BytesCounter counter) throws IOException {
+        stream.reset();
+        job.uploadedBodyBytes = 0;
+        job.writeStream(stream);
+        counter.bytes += sink.reset();
+    }
+}
@@ -0,0 +1,99 @@
+package com.alexbbb.uploadservice;
+
+/**
+ * Chooses the size of the chunks written on the request stream, from the time each write
+ * has been blocked. The aim is that a write takes about {@link #DEFAULT_TARGET_WRITE_TIME_MS}:
+ * on slow connections chunks get small, so progress is fine grained and a cancel doesn't wait
+ * for a large write to complete; on fast connections chunks get large, so fewer system calls
+ * are needed per uploaded MB.
+ *
+ * The throughput is smoothed with an exponentially weighted moving average and the chunk size
+ * is a power of two which changes at most by a factor of two per write. It grows when the
+ * ideal size is at least twice the current one and shrinks when it's at most half of it,
+ * so it doesn't oscillate between two sizes.
+ *
+ * Not thread safe: each task uses its own instance from the upload thread.
+ *
+ * @author alexbbb (Aleksandar Gotev)
+ */
+final class AdaptiveChunkSizer {
+
+    static final int DEFAULT_MIN_CHUNK_SIZE = 4 * 1024;
+    static final int DEFAULT_MAX_CHUNK_SIZE = 256 * 1024;
+    static final long DEFAULT_TARGET_WRITE_TIME_MS = 50;
+
+    private static final int INITIAL_CHUNK_SIZE = 16 * 1024;
+    private static final double SMOOTHING_FACTOR = 0.25;
+
+    private final int minChunkSize;
+    private final int maxChunkSize;
+    private final long targetWriteNanos;
+
+    private int chunkSize;
+    private double bytesPerNano = 0;
+
+    /**
+     * Creates a new chunk sizer with the default target write time.
+     *
+     * @param minChunkSize minimum chunk size in bytes
+     * @param maxChunkSize maximum chunk size in bytes
+     */
+    AdaptiveChunkSizer(int minChunkSize, int maxChunkSize) {
+        this(minChunkSize, maxChunkSize, DEFAULT_TARGET_WRITE_TIME_MS * 1000000L);
+    }
+
+    /**
+     * Creates a new chunk sizer.
+     *
+     * @param minChunkSize minimum chunk size in bytes
+     * @param maxChunkSize maximum chunk size in bytes. If it's equal to the minimum, the chunk
+     *                     size is fixed
+     * @param targetWriteNanos how long each write should take
+     */
+    AdaptiveChunkSizer(int minChunkSize, int maxChunkSize, long targetWriteNanos) {
+        this.minChunkSize = minChunkSize;
+        this.maxChunkSize = Math.max(minChunkSize, maxChunkSize);
+        this.targetWriteNanos = targetWriteNanos;
+        this.chunkSize = clamp(INITIAL_CHUNK_SIZE);
+    }
+
+    /**
+     * Gets the size of the next chunk to write.
+     *
+     * @return chunk size in bytes
+     */
+    int getChunkSize() {
+        return chunkSize;
+    }
+
+    int getMaxChunkSize() {
+        return maxChunkSize;
+    }
+
+    /**
+     * Measures a write and updates the chunk size.
+     *
+     * @param bytes number of bytes written
+     * @param elapsedNanos time spent in the write
+     */
+    void onChunkWritten(int bytes, long elapsedNanos) {
+        if (minChunkSize == maxChunkSize || bytes <= 0) {
+            return;
+        }
+
+        final double rate = (double) bytes / Math.max(elapsedNanos, 1);
+        bytesPerNano = bytesPerNano == 0 ? rate : bytesPerNano + SMOOTHING_FACTOR * (rate - bytesPerNano);
+
+        final double idealChunkSize = bytesPerNano * targetWriteNanos;
+
+        if (idealChunkSize >= 2.0 * chunkSize) {
+            chunkSize = clamp(chunkSize * 2);
+        } else if (idealChunkSize <= chunkSize / 2.0) {
+            chunkSize = clamp(chunkSize / 2);
+        }
+    }
+
+    private int clamp(int size) {
+        return Math.max(minChunkSize, Math.min(size, maxChunkSize));
+    }
+}
@@ -0,0 +1,163 @@
+package com.alexbbb.uploadservice;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URLConnection;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Decides if a request body is worth compressing and wraps the request stream with the
+ * compressor.
+ *
+ * A body is compressed only if its content type is not in the list of the already compressed
+ * types and if its first block shrinks by at least {@link #MIN_SAVING_PERCENT} percent.
+ *
+ * @author alexbbb (Aleksandar Gotev)
+ */
+final class BodyCompression {
+
+    static final int SAMPLE_SIZE = 64 * 1024;
+    static final int MIN_SAVING_PERCENT = 10;
+
+    private static final int OUTPUT_BUFFER_SIZE = 8192;
+
+    private static final Set<String> COMPRESSED_CONTENT_TYPES = new HashSet<String>(Arrays.asList(
+            ContentType.APPLICATION_GTAR,
+            ContentType.APPLICATION_GZIP,
+            ContentType.APPLICATION_ZIP,
+            ContentType.AUDIO_MPEG,
+            ContentType.AUDIO_REAL_AUDIO,
+            ContentType.IMAGE_GIF,
+            ContentType.IMAGE_JPEG,
+            ContentType.IMAGE_PIPEG,
+            ContentType.IMAGE_PNG,
+            ContentType.VIDEO_AVI,
+            ContentType.VIDEO_LA_ASF,
+            ContentType.VIDEO_MOVIE,
+            ContentType.VIDEO_MPEG,
+            ContentType.VIDEO_MP4,
+            ContentType.VIDEO_MS_ASF,
+            ContentType.VIDEO_QUICKTIME
+    ));
+
+    private BodyCompression() { }
+
+    /**
+     * Checks if the content type is an already compressed format.
+     *
+     * @param contentType content type, with or without parameters. Can be null
+     * @return true if compressing it again would only waste CPU time
+     */
+    static boolean isCompressedContentType(String contentType) {
+        if (contentType == null) {
+            return false;
+        }
+
+        final int parametersStart = contentType.indexOf(';');
+        final String mimeType = parametersStart < 0 ? contentType : contentType.substring(0, parametersStart);
+        return COMPRESSED_CONTENT_TYPES.contains(mimeType.trim().toLowerCase(Locale.US));
+    }
+
+    /**
+     * Checks if a file is worth compressing, by its content type and by compressing its
+     * first block.
+     *
+     * @param file file to check
+     * @param contentType content type of the file, or null to guess it from the file name
+     * @return true if the file should be compressed
+     * @throws IOException if the file can't be read
+     */
+    static boolean isCompressible(File file, String contentType) throws IOException {
+        final String type = contentType != null ? contentType : URLConnection.guessContentTypeFromName(file.getName());
+        if (isCompressedContentType(type)) {
+            return false;
+        }
+
+        final InputStream stream = new FileInputStream(file);
+        try {
+            return isCompressible(stream);
+        } finally {
+            stream.close();
+        }
+    }
+
+    /**
+     * Compresses the first block of the stream and checks how much it shrinks.
+     *
+     * @param stream stream to sample. Up to {@link #SAMPLE_SIZE} bytes are read from it
+     * @return true if the sample shrinks by at least {@link #MIN_SAVING_PERCENT} percent
+     * @throws IOException if the stream can't be read
+     */
+    static boolean isCompressible(InputStream stream) throws IOException {
+        final byte[] sample = new byte[SAMPLE_SIZE];
+        int sampleLength = 0;
+        int bytesRead;
+
+        while (sampleLength < sample.length
+                && (bytesRead = stream.read(sample, sampleLength, sample.length - sampleLength)) > 0) {
+            sampleLength += bytesRead;
+        }
+
+        if (sampleLength == 0) {
+            return false;
+        }
+
+        final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(sample, 0, sampleLength);
+            deflater.finish();
+
+            final byte[] output = new byte[OUTPUT_BUFFER_SIZE];
+            long compressedLength = 0;
+            while (!deflater.finished()) {
+                compressedLength += deflater.deflate(output);
+            }
+
+            return compressedLength * 100 <= (long) sampleLength * (100 - MIN_SAVING_PERCENT);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Wraps the request stream with the compressor of the given encoding.
+     *
+     * @param stream request stream
+     * @param encoding {@link ContentEncoding#GZIP} or {@link ContentEncoding#DEFLATE}
+     * @return stream which compresses the data written on it. Call
+     * {@link DeflaterOutputStream#finish()} after the body has been written
+     * @throws IOException if the encoding is not supported
+     */
+    static DeflaterOutputStream compress(OutputStream stream, String encoding) throws IOException {
+        if (ContentEncoding.GZIP.equals(encoding)) {
+            return new GZIPOutputStream(stream, OUTPUT_BUFFER_SIZE);
+        }
+
+        if (ContentEncoding.DEFLATE.equals(encoding)) {
+            // HTTP deflate is the zlib format, which is the default of Deflater
+            final Deflater deflater = new Deflater();
+            return new DeflaterOutputStream(stream, deflater, OUTPUT_BUFFER_SIZE) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        // a deflater passed in the constructor is not released by close()
+                        deflater.end();
+                    }
+                }
+            };
+        }
+
+        throw new IOException("Unsupported content encoding: " + encoding);
+    }
+}
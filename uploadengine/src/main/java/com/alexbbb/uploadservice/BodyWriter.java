@@ -0,0 +1,29 @@
+package com.alexbbb.uploadservice;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Destination of a request body. The bytes written are counted in the progress of the upload
+ * and subject to its rate limits. When the upload is stopped, the writes are ignored.
+ *
+ * @author alexbbb (Aleksandar Gotev)
+ */
+public interface BodyWriter {
+
+    /**
+     * Writes some bytes of the body.
+     *
+     * @param bytes bytes to write
+     * @throws IOException if the connection fails
+     */
+    void write(byte[] bytes) throws IOException;
+
+    /**
+     * Writes the whole content of a file.
+     *
+     * @param file file to write
+     * @throws IOException if the file can't be read or the connection fails
+     */
+    void writeFile(File file) throws IOException;
+}
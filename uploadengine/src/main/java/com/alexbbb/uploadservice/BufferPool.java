@@ -0,0 +1,142 @@
+package com.alexbbb.uploadservice;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded pool of byte buffers shared by all the upload tasks, so that uploads in steady state
+ * don't allocate memory and don't cause garbage collections.
+ *
+ * Buffers are grouped in size classes, which are the powers of two between
+ * {@link #MIN_BUFFER_SIZE} and {@link #MAX_BUFFER_SIZE}. Each request is served with a buffer
+ * of the smallest class which can hold it. The pool keeps at most a fixed number of bytes;
+ * buffers released when the pool is full are left to the garbage collector.
+ *
+ * @author alexbbb (Aleksandar Gotev)
+ */
+final class BufferPool {
+
+    static final int MIN_BUFFER_SIZE = 4 * 1024;
+    static final int MAX_BUFFER_SIZE = 4 * 1024 * 1024;
+
+    private static final int MIN_CLASS_SHIFT = 12;
+
+    private final List<Queue<byte[]>> sizeClasses;
+    private final AtomicLong pooledBytes = new AtomicLong(0);
+    private volatile long maxPooledBytes;
+
+    /**
+     * Creates a new buffer pool.
+     *
+     * @param maxPooledBytes maximum number of bytes kept by the pool
+     */
+    BufferPool(long maxPooledBytes) {
+        this.maxPooledBytes = maxPooledBytes;
+
+        final int classes = getSizeClass(MAX_BUFFER_SIZE) + 1;
+        sizeClasses = new ArrayList<Queue<byte[]>>(classes);
+        for (int i = 0; i < classes; i++) {
+            sizeClasses.add(new ConcurrentLinkedQueue<byte[]>());
+        }
+    }
+
+    /**
+     * Gets a buffer from the pool, or allocates a new one if there isn't one available.
+     *
+     * @param minSize minimum size of the buffer
+     * @return buffer whose length is minSize rounded up to the next power of two
+     */
+    byte[] acquire(int minSize) {
+        final int sizeClass = getSizeClass(minSize);
+        final byte[] buffer = sizeClasses.get(sizeClass).poll();
+
+        if (buffer != null) {
+            pooledBytes.addAndGet(-buffer.length);
+            return buffer;
+        }
+
+        return new byte[getClassSize(sizeClass)];
+    }
+
+    /**
+     * Gives a buffer back to the pool. The caller must not use it anymore.
+     *
+     * @param buffer buffer obtained with {@link #acquire(int)}. Can be null
+     */
+    void release(byte[] buffer) {
+        if (buffer == null || buffer.length < MIN_BUFFER_SIZE || buffer.length > MAX_BUFFER_SIZE
+                || Integer.bitCount(buffer.length) != 1) {
+            return;
+        }
+
+        // reserve the space first, so concurrent releases can't exceed the limit
+        if (pooledBytes.addAndGet(buffer.length) > maxPooledBytes) {
+            pooledBytes.addAndGet(-buffer.length);
+            return;
+        }
+
+        sizeClasses.get(getSizeClass(buffer.length)).offer(buffer);
+    }
+
+    /**
+     * Drops the pooled buffers until the pool holds at most the given number of bytes.
+     * The largest buffers are dropped first.
+     *
+     * @param maxBytes number of bytes the pool can keep after the trim
+     */
+    void trim(long maxBytes) {
+        for (int i = sizeClasses.size() - 1; i >= 0 && pooledBytes.get() > maxBytes; i--) {
+            byte[] buffer;
+            while (pooledBytes.get() > maxBytes && (buffer = sizeClasses.get(i).poll()) != null) {
+                pooledBytes.addAndGet(-buffer.length);
+            }
+        }
+    }
+
+    /**
+     * Changes the maximum number of bytes kept by the pool.
+     *
+     * @param maxPooledBytes new maximum
+     */
+    void setMaxPooledBytes(long maxPooledBytes) {
+        this.maxPooledBytes = maxPooledBytes;
+        trim(maxPooledBytes);
+    }
+
+    long getMaxPooledBytes() {
+        return maxPooledBytes;
+    }
+
+    /**
+     * Gets the number of bytes currently kept by the pool.
+     *
+     * @return pooled bytes
+     */
+    long getPooledBytes() {
+        return pooledBytes.get();
+    }
+
+    /**
+     * Gets the size of the buffers which serve a request.
+     *
+     * @param size requested size
+     * @return size rounded up to the next power of two, between {@link #MIN_BUFFER_SIZE}
+     * and {@link #MAX_BUFFER_SIZE}
+     */
+    static int getBufferSize(int size) {
+        return getClassSize(getSizeClass(size));
+    }
+
+    private static int getSizeClass(int size) {
+        final int clamped = Math.max(MIN_BUFFER_SIZE, Math.min(size, MAX_BUFFER_SIZE));
+        // index of the smallest power of two greater or equal than the size
+        return (32 - Integer.numberOfLeadingZeros(clamped - 1)) - MIN_CLASS_SHIFT;
+    }
+
+    private static int getClassSize(int sizeClass) {
+        return 1 << (sizeClass + MIN_CLASS_SHIFT);
+    }
+}
@@ -0,0 +1,19 @@
+package com.alexbbb.uploadservice;
+
+/**
+ * Static class containing the content encodings which can be used to compress
+ * the body of an upload request.
+ *
+ * @author alexbbb (Aleksandar Gotev)
+ *
+ */
+public final class ContentEncoding {
+
+    /**
+     * Private constructor to avoid instatiation.
+     */
+    private ContentEncoding() { }
+
+    public static final String GZIP = "gzip";
+    public static final String DEFLATE = "deflate";
+}
@@ -27,6 +27,7 @@ public final class ContentType {
     public static final String APPLICATION_FUTURESPLASH = APPLICATION + "futuresplash";
     public static final String APPLICATION_HTA = APPLICATION + "hta";
     public static final String APPLICATION_INTERNET_PROPERTY_STREAM = APPLICATION + "internet-property-stream";
+    public static final String APPLICATION_JSON = APPLICATION + "json";
     public static final String APPLICATION_MAC_BINHEX40 = APPLICATION + "mac-binhex40";
     public static final String APPLICATION_MS_WORD = APPLICATION + "msword";
     public static final String APPLICATION_OCTET_STREAM = APPLICATION + "octet-stream";
@@ -121,6 +122,7 @@ public final class ContentType {
     public static final String IMAGE_IEF = IMAGE + "ief";
     public static final String IMAGE_JPEG = IMAGE + "jpeg";
     public static final String IMAGE_PIPEG = IMAGE + "pipeg";
+    public static final String IMAGE_PNG = IMAGE + "png";
     public static final String IMAGE_SVG = IMAGE + "svg+xml";
     public static final String IMAGE_TIFF = IMAGE + "tiff";
     public static final String IMAGE_CMU_RASTER = IMAGE + "x-cmu-raster";
@@ -155,6 +157,7 @@ public final class ContentType {
     private static final String VIDEO = "video/";
 
     public static final String VIDEO_MPEG = VIDEO + "mpeg";
+    public static final String VIDEO_MP4 = VIDEO + "mp4";
     public static final String VIDEO_QUICKTIME = VIDEO + "quicktime";
     public static final String VIDEO_LA_ASF = VIDEO + "x-la-asf";
     public static final String VIDEO_MS_ASF = VIDEO + "x-ms-asf";
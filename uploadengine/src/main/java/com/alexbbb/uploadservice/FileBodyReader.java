@@ -0,0 +1,119 @@
+package com.alexbbb.uploadservice;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads a range of a file through a {@link FileChannel}, in blocks as large as the buffer
+ * passed by the caller. Reads are positional, so the range doesn't have to be reached by
+ * skipping and several readers can share the same file.
+ *
+ * The data is read directly into the caller's array, which is the one written on the request
+ * stream, so there aren't intermediate copies.
+ *
+ * @author alexbbb (Aleksandar Gotev)
+ */
+final class FileBodyReader implements Closeable {
+
+    static final int DEFAULT_READ_SIZE = 64 * 1024;
+    static final int MIN_READ_SIZE = BufferPool.MIN_BUFFER_SIZE;
+    static final int MAX_READ_SIZE = BufferPool.MAX_BUFFER_SIZE;
+
+    private final File file;
+    private final RandomAccessFile randomAccessFile;
+    private final FileChannel channel;
+    private final long end;
+    private long position;
+
+    private ByteBuffer wrappedBuffer;
+
+    /**
+     * Opens the whole file.
+     *
+     * @param file file to read
+     * @throws IOException if the file can't be opened
+     */
+    FileBodyReader(File file) throws IOException {
+        this(file, 0, file.length());
+    }
+
+    /**
+     * Opens a range of the file.
+     *
+     * @param file file to read
+     * @param offset position of the first byte to read
+     * @param length number of bytes to read
+     * @throws IOException if the file can't be opened
+     */
+    FileBodyReader(File file, long offset, long length) throws IOException {
+        this.file = file;
+        this.randomAccessFile = new RandomAccessFile(file, "r");
+        this.channel = randomAccessFile.getChannel();
+        this.position = offset;
+        this.end = offset + length;
+    }
+
+    /**
+     * Reads the next block of the range.
+     *
+     * @param buffer array to fill. Up to buffer.length bytes are read
+     * @return number of bytes read, or -1 if the whole range has been read
+     * @throws IOException if the file can't be read or it's shorter than the range
+     */
+    int read(byte[] buffer) throws IOException {
+        return read(buffer, buffer.length);
+    }
+
+    /**
+     * Reads the next block of the range.
+     *
+     * @param buffer array to fill, from the beginning
+     * @param maxLength maximum number of bytes to read
+     * @return number of bytes read, or -1 if the whole range has been read
+     * @throws IOException if the file can't be read or it's shorter than the range
+     */
+    int read(byte[] buffer, int maxLength) throws IOException {
+        if (position >= end) {
+            return -1;
+        }
+
+        if (wrappedBuffer == null || wrappedBuffer.array() != buffer) {
+            wrappedBuffer = ByteBuffer.wrap(buffer);
+        }
+
+        wrappedBuffer.clear();
+        wrappedBuffer.limit((int) Math.min(Math.min(buffer.length, maxLength), end - position));
+
+        final int bytesRead = channel.read(wrappedBuffer, position);
+        if (bytesRead < 0) {
+            throw new IOException(file.getAbsolutePath() + " is shorter than expected. "
+                    + "It has been modified while it was being uploaded");
+        }
+
+        position += bytesRead;
+        return bytesRead;
+    }
+
+    /**
+     * Clamps a read size to the supported range and rounds it up to the size of the buffers
+     * of the {@link BufferPool}.
+     *
+     * @param readSize requested read size in bytes, or 0 for the default
+     * @return read size to use
+     */
+    static int getReadSize(int readSize) {
+        if (readSize <= 0) {
+            return DEFAULT_READ_SIZE;
+        }
+        return BufferPool.getBufferSize(readSize);
+    }
+
+    @Override
+    public void close() throws IOException {
+        randomAccessFile.close();
+    }
+}
@@ -0,0 +1,87 @@
+package com.alexbbb.uploadservice;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * Default {@link UploadHttpStack}, which sends the uploads with the {@link HttpURLConnection}
+ * of the platform. It doesn't need any additional dependency, but it doesn't support HTTP/2
+ * nor the PATCH method.
+ *
+ * @author alexbbb (Aleksandar Gotev)
+ */
+public class HttpURLConnectionStack implements UploadHttpStack {
+
+    @Override
+    public UploadHttpConnection open(String method, String url, int connectTimeout, int readTimeout)
+            throws IOException {
+        final HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
+
+        conn.setDoInput(true);
+        conn.setUseCaches(false);
+        conn.setRequestMethod(method);
+        conn.setConnectTimeout(connectTimeout);
+        conn.setReadTimeout(readTimeout);
+
+        return new Connection(conn);
+    }
+
+    private static final class Connection implements UploadHttpConnection {
+
+        private final HttpURLConnection conn;
+
+        Connection(HttpURLConnection conn) {
+            this.conn = conn;
+        }
+
+        @Override
+        public void setHeader(String name, String value) {
+            conn.setRequestProperty(name, value);
+        }
+
+        @Override
+        public void setBodyLength(long bodyLength, int chunkSize) {
+            conn.setDoOutput(true);
+
+            if (bodyLength < 0) {
+                conn.setChunkedStreamingMode(chunkSize);
+            } else {
+                conn.setFixedLengthStreamingMode(bodyLength);
+            }
+        }
+
+        @Override
+        public void connect() throws IOException {
+            conn.connect();
+        }
+
+        @Override
+        public OutputStream getOutputStream() throws IOException {
+            return conn.getOutputStream();
+        }
+
+        @Override
+        public int getResponseCode() throws IOException {
+            return conn.getResponseCode();
+        }
+
+        @Override
+        public String getResponseHeader(String name) {
+            return conn.getHeaderField(name);
+        }
+
+        @Override
+        public InputStream getResponseBody() throws IOException {
+            // getErrorStream if the response code is not 2xx
+            return conn.getResponseCode() / 100 == 2 ? conn.getInputStream() : conn.getErrorStream();
+        }
+
+        @Override
+        public void disconnect() {
+            conn.disconnect();
+        }
+    }
+}
@@ -0,0 +1,772 @@
+package com.alexbbb.uploadservice;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.SocketTimeoutException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Generic HTTP upload, independent of Android. It sends the request, writes the body with
+ * rate limiting and adaptive chunk sizes, reads the response and measures each attempt.
+ * Derived classes define the body and receive the progress and the response.
+ *
+ * An attempt is made by {@link #upload()}, surrounded by {@link #startAttempt(int)} and
+ * {@link #finishAttempt(int, Exception)}. {@link #execute()} runs the attempts on the
+ * calling thread, waiting between them according to the retry strategy.
+ *
+ * @author cankov
+ * @author alexbbb (Aleksandar Gotev)
+ */
+public abstract class HttpUploadJob {
+
+    private static final int DEFAULT_CHUNK_SIZE = 16 * 1024;
+    private static final long MAX_THROTTLE_SLEEP_MILLIS = 100;
+
+    private static final Logger LOGGER = Logger.getLogger(HttpUploadJob.class.getName());
+
+    protected final UploadEngine engine;
+    protected final String uploadId;
+    protected final String url;
+    protected final String method;
+    protected final List<NameValuePair> headers;
+    protected final AdaptiveChunkSizer chunkSizer;
+    protected final int readBufferSize;
+    protected final TokenBucket rateLimiter = new TokenBucket(0);
+
+    protected volatile UploadHttpConnection connection = null;
+    protected OutputStream requestStream = null;
+    protected InputStream responseStream = null;
+    protected volatile boolean shouldContinue = true;
+
+    protected long totalBodyBytes;
+    protected long uploadedBodyBytes;
+
+    private RetryController retryController = new RetryController(RetryStrategy.NEVER, 0);
+    private UploadHttpStack httpStack;
+    private int chunkSize;
+    private String contentEncoding;
+    private byte[] readBuffer;
+
+    // time of the last write on the request body, or 0 when the body is not being written
+    private volatile long lastWriteNanos = 0;
+    private volatile long stallTimeoutNanos = 0;
+
+    // metrics of the attempt in progress
+    private final long[] phaseNanos = new long[UploadMetrics.PHASES];
+    private int attempt;
+    private long attemptStartNanos;
+    private long phaseStartNanos;
+    private final AtomicLong attemptBytes = new AtomicLong(0);
+    private volatile int lastResponseCode;
+    private boolean attemptTraced;
+
+    private final BodyWriter bodyWriter = new BodyWriter() {
+        @Override
+        public void write(byte[] bytes) throws IOException {
+            if (!shouldContinue) {
+                return;
+            }
+
+            throttle(bytes.length);
+            requestStream.write(bytes, 0, bytes.length);
+            uploadedBodyBytes += bytes.length;
+            broadcastProgress(uploadedBodyBytes, totalBodyBytes);
+        }
+
+        @Override
+        public void writeFile(File file) throws IOException {
+            HttpUploadJob.this.writeFile(file);
+        }
+    };
+
+    /**
+     * Creates a new upload with the default chunk sizes.
+     *
+     * @param engine engine which runs the upload
+     * @param uploadId ID of the upload
+     * @param url server URL
+     * @param method HTTP method
+     * @param headers request headers, or null
+     */
+    protected HttpUploadJob(UploadEngine engine, String uploadId, String url, String method,
+                            List<? extends NameValuePair> headers) {
+        this(engine, uploadId, url, method, headers, AdaptiveChunkSizer.DEFAULT_MIN_CHUNK_SIZE,
+                AdaptiveChunkSizer.DEFAULT_MAX_CHUNK_SIZE);
+    }
+
+    /**
+     * Creates a new upload.
+     *
+     * @param engine engine which runs the upload
+     * @param uploadId ID of the upload
+     * @param url server URL
+     * @param method HTTP method
+     * @param headers request headers, or null
+     * @param minChunkSize minimum size of the chunks in which the body is written
+     * @param maxChunkSize maximum size of the chunks in which the body is written. Pass the
+     *                     same value as the minimum to fix the chunk size
+     */
+    protected HttpUploadJob(UploadEngine engine, String uploadId, String url, String method,
+                            List<? extends NameValuePair> headers, int minChunkSize, int maxChunkSize) {
+        this.engine = engine;
+        this.uploadId = uploadId;
+        this.url = url;
+        this.method = method;
+        this.headers = headers == null ? new ArrayList<NameValuePair>() : new ArrayList<NameValuePair>(headers);
+        this.chunkSizer = new AdaptiveChunkSizer(BufferPool.getBufferSize(minChunkSize),
+                BufferPool.getBufferSize(maxChunkSize));
+        this.readBufferSize = chunkSizer.getMaxChunkSize();
+    }
+
+    /**
+     * Sets which failed attempts are retried.
+     *
+     * @param strategy retry strategy
+     * @param maxRetries maximum number of retries
+     */
+    public final void setRetryStrategy(RetryStrategy strategy, int maxRetries) {
+        retryController = new RetryController(strategy, maxRetries);
+    }
+
+    protected final RetryController getRetryController() {
+        return retryController;
+    }
+
+    /**
+     * Sends the body with chunked transfer encoding. By default it's used only when the
+     * body length is not known in advance or the body is compressed.
+     *
+     * @param chunkSize size of the HTTP chunks in bytes, or 0 to send the body with a
+     *                  fixed length when possible
+     */
+    public final void setChunkSize(int chunkSize) {
+        this.chunkSize = Math.max(0, chunkSize);
+    }
+
+    /**
+     * Compresses the body, if it's worth it.
+     *
+     * @param contentEncoding one of the encodings of {@link ContentEncoding}, or null to
+     *                        send the body as it is
+     */
+    public final void setContentEncoding(String contentEncoding) {
+        this.contentEncoding = contentEncoding;
+    }
+
+    /**
+     * Changes the maximum rate of this upload, also while it's running.
+     *
+     * @param bytesPerSecond maximum rate in bytes per second, or 0 for no limit
+     */
+    public final void setMaxUploadRate(long bytesPerSecond) {
+        rateLimiter.setRate(bytesPerSecond);
+    }
+
+    /**
+     * Runs the upload on the calling thread. Failed attempts are retried according to the
+     * retry strategy, after sleeping for the retry delay. The response is delivered to
+     * {@link #onCompleted(int, String)}, also when it's the response of the last retry.
+     *
+     * @throws Exception failure of the last attempt
+     */
+    public final void execute() throws Exception {
+        int attempts = 0;
+        engine.getRetryBudget(url).onUploadStarted(System.currentTimeMillis());
+
+        try {
+            while (shouldContinue) {
+                attempts++;
+                startAttempt(attempts);
+
+                try {
+                    upload();
+                    finishAttempt(shouldContinue ? UploadMetrics.RESULT_COMPLETED : UploadMetrics.RESULT_STOPPED, null);
+                    return;
+
+                } catch (Exception uploadExc) {
+                    final Exception exc = getAttemptFailure(uploadExc);
+
+                    if (!shouldContinue) {
+                        finishAttempt(UploadMetrics.RESULT_STOPPED, exc);
+                        return;
+                    }
+
+                    if (!retryController.canRetry(attempts, exc)) {
+                        finishAttempt(UploadMetrics.RESULT_FAILED, exc);
+                        if (exc instanceof UploadStatusException
+                                && ((UploadStatusException) exc).getResponseBody() != null) {
+                            final UploadStatusException statusException = (UploadStatusException) exc;
+                            broadcastCompleted(statusException.getResponseCode(), statusException.getResponseBody());
+                            return;
+                        }
+                        throw exc;
+                    }
+
+                    final long delay = retryController.getNextDelay(exc, engine.getRetryBudget(url),
+                            System.currentTimeMillis());
+                    finishAttempt(UploadMetrics.RESULT_RETRY, exc);
+                    Thread.sleep(delay);
+                }
+            }
+        } finally {
+            releaseReadBuffer();
+        }
+    }
+
+    /**
+     * Stops the upload from any thread. If it's in progress, the connection is torn down
+     * immediately, so the worker doesn't have to wait for the current write to complete.
+     */
+    public void stop() {
+        shouldContinue = false;
+        abortConnections();
+    }
+
+    /**
+     * Makes an attempt of the upload.
+     *
+     * @throws IOException if the attempt fails. Responses with a retryable status code are
+     * reported with an {@link UploadStatusException}
+     */
+    protected void upload() throws IOException {
+
+        try {
+            totalBodyBytes = getBodyLength();
+            uploadedBodyBytes = 0;
+
+            final String encoding = contentEncoding != null && isBodyCompressible() ? contentEncoding : null;
+            final boolean chunked = encoding != null || chunkSize > 0 || totalBodyBytes < 0;
+
+            connection = getConnection();
+
+            setRequestHeaders();
+
+            if (encoding != null) {
+                connection.setHeader("Content-Encoding", encoding);
+            }
+
+            connection.setBodyLength(chunked ? -1 : totalBodyBytes,
+                    chunkSize > 0 ? chunkSize : DEFAULT_CHUNK_SIZE);
+
+            endPhase(UploadMetrics.PHASE_PREPARE);
+            connection.connect();
+            endPhase(UploadMetrics.PHASE_CONNECT);
+
+            requestStream = connection.getOutputStream();
+
+            // progress is counted before the data reaches the compressor,
+            // so it's always reported in bytes of the original body
+            final DeflaterOutputStream compressor = encoding == null ? null
+                    : BodyCompression.compress(requestStream, encoding);
+            if (compressor != null) {
+                requestStream = compressor;
+            }
+
+            startWriting();
+            final UploadTracer tracer = engine.getTracer();
+            final boolean traced = tracer.beginSection("HttpUploadJob.writeBody");
+            try {
+                writeBody();
+            } finally {
+                tracer.endSection(traced);
+                stopWriting();
+                closeInputStream();
+            }
+
+            if (!shouldContinue) {
+                return;
+            }
+
+            if (compressor != null) {
+                compressor.finish();
+            }
+            endPhase(UploadMetrics.PHASE_WRITE);
+
+            final int serverResponseCode = connection.getResponseCode();
+            endPhase(UploadMetrics.PHASE_WAIT);
+
+            responseStream = connection.getResponseBody();
+            final String serverResponseMessage = getResponseBodyAsString(responseStream);
+            endPhase(UploadMetrics.PHASE_READ);
+
+            if (retryController.isRetryable(serverResponseCode)) {
+                throw new UploadStatusException(serverResponseCode, serverResponseMessage,
+                        getRetryAfter(connection));
+            }
+
+            broadcastCompleted(serverResponseCode, serverResponseMessage);
+
+        } finally {
+            closeOutputStream();
+            closeInputStream();
+            closeConnection();
+        }
+    }
+
+    /**
+     * Opens the connection of an attempt. Override it to set additional headers.
+     *
+     * @return connection to the server URL, with the HTTP method of the upload
+     * @throws IOException if the connection can't be opened
+     */
+    protected UploadHttpConnection getConnection() throws IOException {
+        return openConnection(method, url);
+    }
+
+    /**
+     * Opens a connection with the HTTP stack of the upload and the timeouts of the engine.
+     *
+     * @param method HTTP method
+     * @param url request URL
+     * @return new connection
+     * @throws IOException if the connection can't be opened
+     */
+    protected final UploadHttpConnection openConnection(String method, String url) throws IOException {
+        return getHttpStack().open(method, url, engine.getConnectTimeout(), engine.getReadTimeout());
+    }
+
+    /**
+     * Sets the HTTP stack used by this upload, instead of the one of the engine.
+     *
+     * @param stack HTTP stack, or null to use the one of the engine
+     */
+    public final void setHttpStack(UploadHttpStack stack) {
+        httpStack = stack;
+    }
+
+    /**
+     * Gets the HTTP stack which opens the connections of this upload.
+     *
+     * @return the stack set on the upload, or the one of the engine
+     */
+    protected final UploadHttpStack getHttpStack() {
+        final UploadHttpStack stack = httpStack;
+        return stack == null ? engine.getHttpStack() : stack;
+    }
+
+    /**
+     * Implement in derived classes to provide the expected upload in the progress notifications.
+     * @return The expected size of the http request body, or -1 if it's not known in advance.
+     * In that case the body is sent with chunked transfer encoding.
+     * @throws UnsupportedEncodingException
+     */
+    protected abstract long getBodyLength() throws UnsupportedEncodingException;
+
+    /**
+     * Checks if the request body is worth compressing, when compression has been requested.
+     * Override it in derived classes which know the content of the body.
+     *
+     * @return true to compress the body
+     * @throws IOException if the body can't be inspected
+     */
+    protected boolean isBodyCompressible() throws IOException {
+        return false;
+    }
+
+    /**
+     * Implement in derived classes to write the body of the http request.
+     * @throws IOException
+     */
+    protected abstract void writeBody() throws IOException;
+
+    /**
+     * Receives the progress of the upload, after every chunk. It's called by the thread which
+     * writes the body, so it must return quickly.
+     *
+     * @param uploadedBytes bytes of the body written so far
+     * @param totalBytes length of the body, or -1 if it's not known
+     * @param chunkSize size of the chunks currently written
+     */
+    protected abstract void onProgress(long uploadedBytes, long totalBytes, int chunkSize);
+
+    /**
+     * Receives the response of the server, if it's not going to be retried.
+     *
+     * @param responseCode HTTP status code
+     * @param responseBody body of the response
+     */
+    protected abstract void onCompleted(int responseCode, String responseBody);
+
+    /**
+     * Reports the progress of the upload. It's cheap enough to be called after every chunk.
+     */
+    protected final void broadcastProgress(long uploadedBytes, long totalBytes) {
+        onDataWritten();
+        onProgress(uploadedBytes, totalBytes, chunkSizer.getChunkSize());
+    }
+
+    protected final void broadcastCompleted(int responseCode, String responseBody) {
+        lastResponseCode = responseCode;
+        onCompleted(responseCode, responseBody);
+    }
+
+    /**
+     * Starts measuring an attempt. Must be called by the thread which runs the attempt.
+     *
+     * @param attempt number of the attempt, starting from 1
+     */
+    protected final void startAttempt(int attempt) {
+        for (int i = 0; i < phaseNanos.length; i++) {
+            phaseNanos[i] = 0;
+        }
+        this.attempt = attempt;
+        attemptBytes.set(0);
+        lastResponseCode = 0;
+        stallTimeoutNanos = 0;
+        attemptStartNanos = System.nanoTime();
+        phaseStartNanos = attemptStartNanos;
+
+        final UploadTracer tracer = engine.getTracer();
+        attemptTraced = tracer.beginAttempt(uploadId, attempt);
+        tracer.event(uploadId, UploadTracer.EVENT_ATTEMPT_STARTED, attempt);
+    }
+
+    /**
+     * Ends a phase of the attempt: the time elapsed since the end of the previous phase is
+     * added to it. Must be called by the thread which runs the attempt.
+     *
+     * @param phase one of the PHASE constants of {@link UploadMetrics}
+     */
+    protected final void endPhase(int phase) {
+        final long now = System.nanoTime();
+        phaseNanos[phase] += now - phaseStartNanos;
+        phaseStartNanos = now;
+    }
+
+    /**
+     * Ends the measurement of the attempt and reports it to the engine. Call it before the
+     * next attempt can be started.
+     *
+     * @param result one of the RESULT constants of {@link UploadMetrics}
+     * @param exc failure of the attempt, or null
+     * @return metrics of the attempt
+     */
+    protected final UploadMetrics finishAttempt(int result, Exception exc) {
+        final long[] phaseMicros = new long[phaseNanos.length];
+        for (int i = 0; i < phaseNanos.length; i++) {
+            phaseMicros[i] = phaseNanos[i] / 1000;
+        }
+
+        final int responseCode = exc instanceof UploadStatusException
+                ? ((UploadStatusException) exc).getResponseCode() : lastResponseCode;
+
+        final UploadTracer tracer = engine.getTracer();
+        tracer.endAttempt(uploadId, attempt, attemptTraced);
+        tracer.event(uploadId, getResultEvent(result), responseCode);
+
+        final UploadMetrics metrics = new UploadMetrics(uploadId, attempt, phaseMicros,
+                (System.nanoTime() - attemptStartNanos) / 1000, attemptBytes.get(), result, responseCode);
+        engine.onAttemptFinished(metrics);
+        return metrics;
+    }
+
+    private static String getResultEvent(int result) {
+        switch (result) {
+            case UploadMetrics.RESULT_COMPLETED:
+                return UploadTracer.EVENT_COMPLETED;
+            case UploadMetrics.RESULT_RETRY:
+                return UploadTracer.EVENT_RETRY;
+            case UploadMetrics.RESULT_FAILED:
+                return UploadTracer.EVENT_FAILED;
+            default:
+                return UploadTracer.EVENT_STOPPED;
+        }
+    }
+
+    /**
+     * Tears down the connections of the upload in progress. Called from the thread which
+     * stops the upload. Override it if the upload uses connections other than {@link #connection}.
+     */
+    protected void abortConnections() {
+        final UploadHttpConnection currentConnection = connection;
+        if (currentConnection != null) {
+            try {
+                currentConnection.disconnect();
+            } catch (Exception exc) {
+            }
+        }
+    }
+
+    /**
+     * Aborts the attempt in progress if no data has been written on the request body for
+     * longer than the timeout, e.g. because the network went away without closing the
+     * connection. The attempt fails with a {@link SocketTimeoutException}, as returned by
+     * {@link #getAttemptFailure(Exception)}.
+     *
+     * @param nowNanos current time, from {@link System#nanoTime()}
+     * @param timeoutNanos maximum time without writes
+     * @return true if the attempt has been aborted
+     */
+    boolean checkStalled(long nowNanos, long timeoutNanos) {
+        final long lastWrite = lastWriteNanos;
+        if (lastWrite == 0 || nowNanos - lastWrite < timeoutNanos || !shouldContinue) {
+            return false;
+        }
+
+        LOGGER.warning("Upload " + uploadId + " stalled. Aborting the attempt");
+        engine.getTracer().event(uploadId, UploadTracer.EVENT_STALLED, UploadTracer.NO_VALUE);
+        stallTimeoutNanos = timeoutNanos;
+        abortConnections();
+        return true;
+    }
+
+    /**
+     * Gets the failure of an attempt. The connection of a stalled upload is torn down by the
+     * stall check, which makes the write fail with a generic error, so it's replaced by a
+     * {@link SocketTimeoutException}.
+     *
+     * @param exc exception thrown by {@link #upload()}
+     * @return failure to report
+     */
+    protected final Exception getAttemptFailure(Exception exc) {
+        final long timeoutNanos = stallTimeoutNanos;
+        if (timeoutNanos == 0) {
+            return exc;
+        }
+        return new SocketTimeoutException("No data written for more than " + timeoutNanos / 1000000 + "ms");
+    }
+
+    /**
+     * Marks the beginning of the request body, from which the upload is checked for stalls.
+     * Call {@link #stopWriting()} when the body has been written.
+     */
+    protected final void startWriting() {
+        lastWriteNanos = System.nanoTime();
+    }
+
+    /**
+     * Marks the end of the request body. The time spent waiting for the response is
+     * bounded by the read timeout of the connection instead.
+     */
+    protected final void stopWriting() {
+        lastWriteNanos = 0;
+    }
+
+    private void onDataWritten() {
+        if (lastWriteNanos != 0) {
+            lastWriteNanos = System.nanoTime();
+        }
+    }
+
+    /**
+     * Gets the time the server asked to wait before retrying, from the Retry-After header.
+     *
+     * @param conn connection which received the response
+     * @return time to wait in milliseconds, or -1 if the server didn't ask to wait
+     */
+    protected static long getRetryAfter(UploadHttpConnection conn) {
+        return RetryController.parseRetryAfter(conn.getResponseHeader("Retry-After"), System.currentTimeMillis());
+    }
+
+    /**
+     * Gets the value of a request header.
+     *
+     * @param name header name, case insensitive
+     * @return header value or null if the header is not set
+     */
+    protected String getHeader(String name) {
+        for (final NameValuePair header : headers) {
+            if (name.equalsIgnoreCase(header.getName())) {
+                return header.getValue();
+            }
+        }
+        return null;
+    }
+
+    private void closeInputStream() {
+        if (responseStream != null) {
+            try {
+                responseStream.close();
+            } catch (Exception exc) {
+            }
+        }
+    }
+
+    protected void closeOutputStream() {
+        if (requestStream != null) {
+            try {
+                requestStream.flush();
+                requestStream.close();
+            } catch (Exception exc) {
+            }
+        }
+    }
+
+    protected void closeConnection() {
+        if (connection != null) {
+            try {
+                connection.disconnect();
+            } catch (Exception exc) {
+            }
+        }
+    }
+
+    private void setRequestHeaders() {
+        for (final NameValuePair param : headers) {
+            connection.setHeader(param.getName(), param.getValue());
+        }
+    }
+
+    private String getResponseBodyAsString(final InputStream inputStream) {
+        StringBuilder outString = new StringBuilder();
+
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(inputStream));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                outString.append(line).append("\n");
+            }
+        } catch (Exception exc) {
+            try {
+                if (reader != null)
+                    reader.close();
+            } catch (Exception readerExc) {
+            }
+        }
+
+        return outString.toString();
+    }
+
+    /**
+     * Gets the writer of the body, which counts the progress of the bytes written
+     * through it.
+     */
+    protected final BodyWriter getBodyWriter() {
+        return bodyWriter;
+    }
+
+    protected void writeStream(InputStream stream) throws IOException {
+        final byte[] buffer = getReadBuffer();
+        int bytesRead;
+
+        while (shouldContinue && (bytesRead = stream.read(buffer, 0, getThrottledChunkSize())) > 0) {
+            writeChunk(buffer, bytesRead);
+        }
+    }
+
+    /**
+     * Writes a whole file on the request stream.
+     *
+     * @param file file to write
+     * @throws IOException if the file can't be read or the connection fails
+     */
+    protected void writeFile(File file) throws IOException {
+        writeFile(file, 0, file.length());
+    }
+
+    /**
+     * Writes a range of a file on the request stream. The file is read through a
+     * {@link FileChannel} in chunks sized by the {@link #chunkSizer}.
+     *
+     * @param file file to write
+     * @param offset position of the first byte to write
+     * @param length number of bytes to write
+     * @throws IOException if the file can't be read or the connection fails
+     */
+    protected void writeFile(File file, long offset, long length) throws IOException {
+        final byte[] buffer = getReadBuffer();
+        final FileBodyReader reader = new FileBodyReader(file, offset, length);
+
+        try {
+            int bytesRead;
+            while (shouldContinue && (bytesRead = reader.read(buffer, getThrottledChunkSize())) > 0) {
+                writeChunk(buffer, bytesRead);
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Writes a chunk on the request stream, measuring how long the write is blocked to adapt
+     * the size of the next chunks.
+     */
+    private void writeChunk(byte[] buffer, int length) throws IOException {
+        throttle(length);
+
+        final long writeStart = System.nanoTime();
+        requestStream.write(buffer, 0, length);
+        chunkSizer.onChunkWritten(length, System.nanoTime() - writeStart);
+
+        uploadedBodyBytes += length;
+        broadcastProgress(uploadedBodyBytes, totalBodyBytes);
+    }
+
+    /**
+     * Gets the size of the next chunk to write. When the rate is limited, chunks are kept
+     * small enough to spread the traffic evenly.
+     *
+     * @return chunk size in bytes
+     */
+    protected final int getThrottledChunkSize() {
+        final int burst = Math.min(rateLimiter.getMaxBurst(), engine.getGlobalRateLimiter().getMaxBurst());
+        return Math.min(chunkSizer.getChunkSize(), burst);
+    }
+
+    /**
+     * Waits until the bytes can be sent without exceeding the rate limit of this upload and
+     * the global one. The wait ends early if the upload is stopped.
+     * The bytes are counted in the metrics of the attempt.
+     *
+     * @param bytes number of bytes about to be written
+     */
+    protected final void throttle(int bytes) {
+        attemptBytes.addAndGet(bytes);
+
+        final long now = System.nanoTime();
+        final long waitNanos = Math.max(rateLimiter.reserve(bytes, now),
+                engine.getGlobalRateLimiter().reserve(bytes, now));
+        if (waitNanos <= 0) {
+            return;
+        }
+
+        final long deadline = now + waitNanos;
+        long remaining = waitNanos;
+
+        while (remaining > 0 && shouldContinue) {
+            try {
+                Thread.sleep(Math.min(remaining / 1000000 + 1, MAX_THROTTLE_SLEEP_MILLIS));
+            } catch (InterruptedException exc) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            remaining = deadline - System.nanoTime();
+        }
+
+        // waiting for the rate limit is not a stall
+        onDataWritten();
+    }
+
+    /**
+     * Gets the buffer used to copy the body on the connection. It's taken from the
+     * {@link BufferPool} of the engine once per upload, reused across files and retries,
+     * and given back by {@link #releaseReadBuffer()}.
+     */
+    private byte[] getReadBuffer() {
+        if (readBuffer == null) {
+            readBuffer = engine.getBufferPool().acquire(readBufferSize);
+        }
+        return readBuffer;
+    }
+
+    /**
+     * Gives the read buffer back to the pool. Call it when the upload ends.
+     */
+    protected final void releaseReadBuffer() {
+        if (readBuffer != null) {
+            engine.getBufferPool().release(readBuffer);
+            readBuffer = null;
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package com.alexbbb.uploadservice;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An HTTP Multipart form body, made of parameters followed by files.
+ * The parts are encoded once, when the body is created, because they're needed both to
+ * compute the body length and to write the body on each attempt.
+ *
+ * @author alexbbb (Aleksandar Gotev)
+ */
+public final class MultipartBody {
+
+    private static final String NEW_LINE = "\r\n";
+    private static final String TWO_HYPHENS = "--";
+
+    private final String boundary;
+    private final byte[] boundaryBytes;
+    private final byte[] trailerBytes;
+    private final byte[][] parameterParts;
+    private final List<? extends MultipartFile> files;
+    private final byte[][] fileHeaders;
+
+    /**
+     * Creates a new multipart body.
+     *
+     * @param parameters form parameters, or null
+     * @param files files to send, or null
+     * @throws UnsupportedEncodingException if the parts can't be encoded
+     */
+    public MultipartBody(List<? extends NameValuePair> parameters, List<? extends MultipartFile> files)
+            throws UnsupportedEncodingException {
+        this(parameters, files, "---------------------------" + System.currentTimeMillis());
+    }
+
+    MultipartBody(List<? extends NameValuePair> parameters, List<? extends MultipartFile> files,
+                  String boundary) throws UnsupportedEncodingException {
+        this.boundary = boundary;
+        this.boundaryBytes = (NEW_LINE + TWO_HYPHENS + boundary + NEW_LINE).getBytes("US-ASCII");
+        this.trailerBytes = (NEW_LINE + TWO_HYPHENS + boundary + TWO_HYPHENS + NEW_LINE).getBytes("US-ASCII");
+
+        final List<? extends NameValuePair> params = parameters == null
+                ? Collections.<NameValuePair>emptyList() : parameters;
+        this.parameterParts = new byte[params.size()][];
+        for (int i = 0; i < parameterParts.length; i++) {
+            parameterParts[i] = encodeParameter(params.get(i));
+        }
+
+        this.files = files == null ? Collections.<MultipartFile>emptyList() : files;
+        this.fileHeaders = new byte[this.files.size()][];
+        for (int i = 0; i < fileHeaders.length; i++) {
+            fileHeaders[i] = encodeFileHeader(this.files.get(i));
+        }
+    }
+
+    /**
+     * @return value of the Content-Type header of the request
+     */
+    public String getContentType() {
+        return "multipart/form-data; boundary=" + boundary;
+    }
+
+    /**
+     * Gets the length of the body. The files are measured on each call, so the length is
+     * up to date if they change between the attempts.
+     *
+     * @return length of the body in bytes
+     */
+    public long getLength() {
+        return getParametersLength() + getFilesLength() + trailerBytes.length;
+    }
+
+    private long getParametersLength() {
+        // each parameter is preceded by the boundary
+        long total = 0;
+        for (byte[] part : parameterParts) {
+            total += boundaryBytes.length + part.length;
+        }
+        return total;
+    }
+
+    private long getFilesLength() {
+        long total = 0;
+        for (int i = 0; i < fileHeaders.length; i++) {
+            total += boundaryBytes.length + fileHeaders[i].length + files.get(i).getFile().length();
+        }
+        return total;
+    }
+
+    /**
+     * The body is compressible if at least half of it is made of compressible data.
+     * Parameters are always considered compressible.
+     *
+     * @return true if the body is worth compressing
+     * @throws IOException if the files can't be inspected
+     */
+    public boolean isCompressible() throws IOException {
+        long compressibleBytes = getParametersLength();
+
+        for (MultipartFile file : files) {
+            if (BodyCompression.isCompressible(file.getFile(), file.getContentType())) {
+                compressibleBytes += file.getFile().length();
+            }
+        }
+
+        return compressibleBytes * 2 >= getLength();
+    }
+
+    /**
+     * Writes the body.
+     *
+     * @param writer destination of the body
+     * @throws IOException if the files can't be read or the connection fails
+     */
+    public void writeTo(BodyWriter writer) throws IOException {
+        for (byte[] part : parameterParts) {
+            writer.write(boundaryBytes);
+            writer.write(part);
+        }
+
+        for (int i = 0; i < fileHeaders.length; i++) {
+            writer.write(boundaryBytes);
+            writer.write(fileHeaders[i]);
+            writer.writeFile(files.get(i).getFile());
+        }
+
+        writer.write(trailerBytes);
+    }
+
+    /**
+     * Encodes the headers and the value of a parameter.
+     *
+     * @param parameter parameter to encode
+     * @return bytes of the form item
+     * @throws UnsupportedEncodingException
+     */
+    static byte[] encodeParameter(NameValuePair parameter) throws UnsupportedEncodingException {
+        final StringBuilder builder = new StringBuilder();
+
+        builder.append("Content-Disposition: form-data; name=\"")
+                .append(parameter.getName())
+                .append("\"")
+                .append(NEW_LINE)
+                .append(NEW_LINE)
+                .append(parameter.getValue());
+
+        return builder.toString().getBytes("UTF-8");
+    }
+
+    /**
+     * Encodes the headers of a file, which precede its content.
+     *
+     * @param file file to encode
+     * @return header bytes
+     * @throws UnsupportedEncodingException
+     */
+    static byte[] encodeFileHeader(MultipartFile file) throws UnsupportedEncodingException {
+        final StringBuilder builder = new StringBuilder();
+
+        builder.append("Content-Disposition: form-data; name=\"")
+               .append(file.getParameterName()).append("\"; filename=\"")
+               .append(file.getFileName()).append("\"").append(NEW_LINE);
+
+        final String contentType = file.getContentType() == null
+                ? ContentType.APPLICATION_OCTET_STREAM : file.getContentType();
+
+        builder.append("Content-Type: ").append(contentType).append(NEW_LINE).append(NEW_LINE);
+
+        return builder.toString().getBytes("US-ASCII");
+    }
+}
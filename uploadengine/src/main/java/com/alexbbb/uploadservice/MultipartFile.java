@@ -0,0 +1,31 @@
+package com.alexbbb.uploadservice;
+
+import java.io.File;
+
+/**
+ * A file sent as a part of a {@link MultipartBody}.
+ *
+ * @author alexbbb (Aleksandar Gotev)
+ */
+public interface MultipartFile {
+
+    /**
+     * @return file to send
+     */
+    File getFile();
+
+    /**
+     * @return name of the form parameter of the file
+     */
+    String getParameterName();
+
+    /**
+     * @return file name sent to the server
+     */
+    String getFileName();
+
+    /**
+     * @return content type of the file, or null to send it as application/octet-stream
+     */
+    String getContentType();
+}
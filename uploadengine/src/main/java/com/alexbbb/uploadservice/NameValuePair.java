@@ -0,0 +1,44 @@
+package com.alexbbb.uploadservice;
+
+/**
+ * A name and a value, like a request header or a multipart parameter.
+ *
+ * @author alexbbb (Aleksandar Gotev)
+ */
+public class NameValuePair {
+
+    private final String name;
+    private final String value;
+
+    public NameValuePair(final String name, final String value) {
+        this.name = name;
+        this.value = value;
+    }
+
+    public final String getName() {
+        return name;
+    }
+
+    public final String getValue() {
+        return value;
+    }
+
+    @Override
+    public boolean equals(Object object) {
+        final boolean areEqual;
+
+        if (object instanceof NameValuePair) {
+            final NameValuePair other = (NameValuePair) object;
+            areEqual = this.name.equals(other.name) && this.value.equals(other.value);
+        } else {
+            areEqual = false;
+        }
+
+        return areEqual;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * name.hashCode() + value.hashCode();
+    }
+}
@@ -0,0 +1,322 @@
+package com.alexbbb.uploadservice;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Uploads a file split in parts, which are sent concurrently over separate connections,
+ * similarly to S3 multipart uploads. Each part is sent with the Content-Range and
+ * Upload-Part-Number headers. When all the parts have been received, the caller asks the
+ * server to assemble them with a request whose body is {@link #getCompletionBody()}.
+ *
+ * The ETags returned by the server are kept across attempts, so the parts which have been
+ * received are not sent again. The parts run on the part executor of the engine, so the
+ * threads are not created again on every attempt.
+ *
+ * @author alexbbb (Aleksandar Gotev)
+ */
+class ParallelPartUploader {
+
+    static final String HEADER_PART_NUMBER = "Upload-Part-Number";
+
+    /**
+     * Connects the parts to the upload which owns them. It's called concurrently by the
+     * threads which send the parts.
+     */
+    interface PartListener {
+
+        /**
+         * @return false if the upload has been stopped
+         */
+        boolean shouldContinue();
+
+        /**
+         * Opens the connection of a part, with the headers of the upload.
+         *
+         * @return new connection
+         * @throws IOException if the connection can't be opened
+         */
+        UploadHttpConnection openPart() throws IOException;
+
+        /**
+         * @return maximum number of bytes to read and write at once
+         */
+        int getChunkSize();
+
+        /**
+         * Waits until the bytes can be sent without exceeding the rate limits.
+         *
+         * @param bytes number of bytes about to be written
+         */
+        void throttle(int bytes);
+
+        /**
+         * Receives the progress of a part.
+         *
+         * @param bytes bytes written. They're negative when a part failed and its bytes
+         *              are going to be sent again
+         */
+        void onProgress(long bytes);
+    }
+
+    private final UploadEngine engine;
+    private final File file;
+    private final long partSize;
+    private final int parallelParts;
+    private final int bufferSize;
+
+    private final Set<UploadHttpConnection> partConnections =
+            Collections.newSetFromMap(new ConcurrentHashMap<UploadHttpConnection, Boolean>());
+
+    private long length;
+    private String[] partETags;
+    private long completedPartsBytes;
+
+    /**
+     * Creates a new uploader.
+     *
+     * @param engine engine which provides the buffers and runs the parts
+     * @param file file to upload
+     * @param partSize size of each part in bytes, except the last one
+     * @param parallelParts maximum number of parts sent at the same time
+     * @param bufferSize size of the buffer used by each part to read the file
+     */
+    ParallelPartUploader(UploadEngine engine, File file, long partSize, int parallelParts, int bufferSize) {
+        this.engine = engine;
+        this.file = file;
+        this.partSize = partSize;
+        this.parallelParts = Math.max(1, parallelParts);
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * Prepares an attempt. If the length of the file changed, the parts received by the
+     * previous attempts are sent again.
+     *
+     * @param length length of the file in bytes
+     * @return bytes of the parts already received by the server
+     */
+    synchronized long prepare(long length) {
+        final int partsCount = (int) Math.max(1, (length + partSize - 1) / partSize);
+        if (partETags == null || partETags.length != partsCount || this.length != length) {
+            partETags = new String[partsCount];
+            completedPartsBytes = 0;
+        }
+
+        this.length = length;
+        return completedPartsBytes;
+    }
+
+    /**
+     * Sends the parts which have not been received yet, at most parallelParts at the same time,
+     * and waits for them.
+     *
+     * @param listener listener of the upload
+     * @throws IOException first failure of a part. It's not thrown if the upload has been stopped
+     */
+    void uploadMissingParts(final PartListener listener) throws IOException {
+        final Queue<Integer> missingParts = new ConcurrentLinkedQueue<Integer>();
+        synchronized (this) {
+            for (int i = 0; i < partETags.length; i++) {
+                if (partETags[i] == null) {
+                    missingParts.add(i);
+                }
+            }
+        }
+
+        if (missingParts.isEmpty()) {
+            return;
+        }
+
+        final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        final FileChannel channel = randomAccessFile.getChannel();
+        final AtomicReference<IOException> failure = new AtomicReference<IOException>();
+        final int workers = Math.min(parallelParts, missingParts.size());
+
+        try {
+            final List<Future<?>> futures = new ArrayList<Future<?>>(workers);
+            for (int i = 0; i < workers; i++) {
+                futures.add(engine.getPartExecutor().submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        Integer part;
+                        while (listener.shouldContinue() && (part = missingParts.poll()) != null) {
+                            try {
+                                uploadPart(listener, channel, part);
+                            } catch (IOException exc) {
+                                failure.compareAndSet(null, exc);
+                            }
+                        }
+                    }
+                }));
+            }
+
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException exc) {
+                    failure.compareAndSet(null, new IOException(exc.getCause()));
+                } catch (InterruptedException exc) {
+                    Thread.currentThread().interrupt();
+                    abort();
+                    throw new IOException("Interrupted while waiting for the parts to be uploaded");
+                }
+            }
+        } finally {
+            channel.close();
+            randomAccessFile.close();
+        }
+
+        if (failure.get() != null && listener.shouldContinue()) {
+            throw failure.get();
+        }
+    }
+
+    /**
+     * Tears down the connections of the parts in progress. It can be called from any thread.
+     */
+    void abort() {
+        for (UploadHttpConnection partConnection : partConnections) {
+            try {
+                partConnection.disconnect();
+            } catch (Exception exc) {
+            }
+        }
+    }
+
+    private void uploadPart(PartListener listener, FileChannel channel, int partIndex) throws IOException {
+        final long start = partIndex * partSize;
+        final long end = Math.min(start + partSize, length);
+
+        final UploadHttpConnection partConnection = listener.openPart();
+        partConnections.add(partConnection);
+
+        long sentBytes = 0;
+        byte[] buffer = null;
+
+        try {
+            partConnection.setHeader("Content-Type", ContentType.APPLICATION_OCTET_STREAM);
+            partConnection.setHeader("Content-Range", "bytes " + start + "-" + (end - 1) + "/" + length);
+            partConnection.setHeader(HEADER_PART_NUMBER, Integer.toString(partIndex + 1));
+            partConnection.setBodyLength(end - start, 0);
+
+            final OutputStream partStream = partConnection.getOutputStream();
+
+            // positional reads don't move the channel position, so the parts don't block each other
+            buffer = engine.getBufferPool().acquire(bufferSize);
+            final ByteBuffer byteBuffer = ByteBuffer.wrap(buffer);
+            long position = start;
+
+            while (position < end && listener.shouldContinue()) {
+                byteBuffer.clear();
+                byteBuffer.limit((int) Math.min(Math.min(buffer.length, listener.getChunkSize()), end - position));
+
+                final int bytesRead = channel.read(byteBuffer, position);
+                if (bytesRead < 0) {
+                    throw new IOException("Unexpected end of file while reading part " + (partIndex + 1));
+                }
+
+                listener.throttle(bytesRead);
+                partStream.write(buffer, 0, bytesRead);
+                position += bytesRead;
+                sentBytes += bytesRead;
+                listener.onProgress(bytesRead);
+            }
+
+            partStream.close();
+
+            if (!listener.shouldContinue()) {
+                return;
+            }
+
+            final int responseCode = partConnection.getResponseCode();
+            if (responseCode / 100 != 2) {
+                throw new UploadStatusException(responseCode, null, HttpUploadJob.getRetryAfter(partConnection));
+            }
+
+            final String eTag = partConnection.getResponseHeader("ETag");
+            drain(partConnection.getResponseBody());
+            partCompleted(partIndex, eTag == null ? "" : eTag, end - start);
+            sentBytes = 0;
+
+        } finally {
+            partConnections.remove(partConnection);
+            partConnection.disconnect();
+            engine.getBufferPool().release(buffer);
+
+            if (sentBytes > 0) {
+                // the part will be sent again from the beginning
+                listener.onProgress(-sentBytes);
+            }
+        }
+    }
+
+    private synchronized void partCompleted(int partIndex, String eTag, long partLength) {
+        partETags[partIndex] = eTag;
+        completedPartsBytes += partLength;
+    }
+
+    /**
+     * Gets the body of the request which asks the server to assemble the parts. It's a JSON
+     * object with the size of the file and the parts, each one with its number and ETag.
+     *
+     * @return JSON body
+     */
+    synchronized String getCompletionBody() {
+        final StringBuilder builder = new StringBuilder();
+        builder.append("{\"size\":").append(length).append(",\"parts\":[");
+
+        for (int i = 0; i < partETags.length; i++) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append("{\"partNumber\":").append(i + 1).append(",\"etag\":\"");
+            appendJsonEscaped(builder, partETags[i]);
+            builder.append("\"}");
+        }
+
+        return builder.append("]}").toString();
+    }
+
+    private static void appendJsonEscaped(StringBuilder builder, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                builder.append('\\').append(c);
+            } else if (c < 0x20) {
+                builder.append(String.format("\\u%04x", (int) c));
+            } else {
+                builder.append(c);
+            }
+        }
+    }
+
+    private static void drain(InputStream stream) throws IOException {
+        if (stream == null) {
+            return;
+        }
+        final byte[] buffer = new byte[1024];
+        try {
+            while (stream.read(buffer) > 0) {
+                // discard
+            }
+        } finally {
+            stream.close();
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.alexbbb.uploadservice;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Coalesces the progress of all the active uploads, so that a single broadcast per tick is
+ * sent for all of them, instead of one per upload.
+ *
+ * Upload threads call {@link #update(String, long, long, int)} after every chunk. It only
+ * stores the values, without allocating memory after the first call for an upload.
+ * On each tick, {@link #tick(Listener)} reports the uploads which made progress since the
+ * previous tick, together with their throughput and estimated remaining time, which are
+ * measured on the ticks.
+ *
+ * @author alexbbb (Aleksandar Gotev)
+ */
+final class ProgressAggregator {
+
+    /**
+     * Receives the progress of the uploads which changed since the previous tick.
+     * The arrays have the same length and the same index refers to the same upload.
+     */
+    interface Listener {
+        void onProgressBatch(String[] uploadIds, long[] uploadedBytes, long[] totalBytes, int[] chunkSizes,
+                             long[] bytesPerSecond, long[] remainingMillis);
+    }
+
+    private static final class Progress {
+        volatile long uploadedBytes;
+        volatile long totalBytes;
+        volatile int chunkSize;
+        volatile boolean changed;
+        // used only by the ticks and by sampleIdle
+        final ThroughputMeter meter = new ThroughputMeter();
+    }
+
+    private final Map<String, Progress> uploads = new ConcurrentHashMap<String, Progress>();
+
+    /**
+     * Stores the progress of an upload. Called from the upload threads.
+     *
+     * @param uploadId ID of the upload
+     * @param uploadedBytes bytes uploaded so far
+     * @param totalBytes total bytes of the upload, or -1 if unknown
+     * @param chunkSize size of the chunks currently written
+     */
+    void update(String uploadId, long uploadedBytes, long totalBytes, int chunkSize) {
+        Progress progress = uploads.get(uploadId);
+        if (progress == null) {
+            progress = new Progress();
+            uploads.put(uploadId, progress);
+        }
+
+        progress.uploadedBytes = uploadedBytes;
+        progress.totalBytes = totalBytes;
+        progress.chunkSize = chunkSize;
+        // written last, so the tick which sees it also sees the values
+        progress.changed = true;
+    }
+
+    /**
+     * Stops tracking an upload.
+     *
+     * @param uploadId ID of the upload
+     */
+    void remove(String uploadId) {
+        uploads.remove(uploadId);
+    }
+
+    /**
+     * Adds a sample without new bytes to the throughput of the uploads which made no progress
+     * since the previous tick, so that it decays during a stall instead of keeping the value
+     * measured before it. It has to be called from the thread which runs the ticks.
+     *
+     * @param nowNanos current time, from {@link System#nanoTime()}
+     */
+    void sampleIdle(long nowNanos) {
+        for (Progress progress : uploads.values()) {
+            if (!progress.changed) {
+                progress.meter.sample(progress.uploadedBytes, nowNanos);
+            }
+        }
+    }
+
+    /**
+     * Reports the uploads which made progress since the previous tick, if any.
+     *
+     * @param listener listener which receives the batch
+     * @return number of uploads reported
+     */
+    int tick(Listener listener) {
+        return tick(listener, System.nanoTime());
+    }
+
+    /**
+     * Reports the uploads which made progress since the previous tick, if any.
+     *
+     * @param listener listener which receives the batch
+     * @param nowNanos current time, from {@link System#nanoTime()}
+     * @return number of uploads reported
+     */
+    int tick(Listener listener, long nowNanos) {
+        final List<String> changedIds = new ArrayList<String>(uploads.size());
+        final List<Progress> changed = new ArrayList<Progress>(uploads.size());
+
+        for (Map.Entry<String, Progress> entry : uploads.entrySet()) {
+            final Progress progress = entry.getValue();
+            if (progress.changed) {
+                progress.changed = false;
+                changedIds.add(entry.getKey());
+                changed.add(progress);
+            }
+        }
+
+        final int count = changed.size();
+        if (count == 0) {
+            return 0;
+        }
+
+        final String[] uploadIds = changedIds.toArray(new String[count]);
+        final long[] uploadedBytes = new long[count];
+        final long[] totalBytes = new long[count];
+        final int[] chunkSizes = new int[count];
+        final long[] bytesPerSecond = new long[count];
+        final long[] remainingMillis = new long[count];
+
+        for (int i = 0; i < count; i++) {
+            final Progress progress = changed.get(i);
+            uploadedBytes[i] = progress.uploadedBytes;
+            totalBytes[i] = progress.totalBytes;
+            chunkSizes[i] = progress.chunkSize;
+
+            progress.meter.sample(uploadedBytes[i], nowNanos);
+            bytesPerSecond[i] = progress.meter.getBytesPerSecond();
+            remainingMillis[i] = progress.meter.getRemainingMillis(uploadedBytes[i], totalBytes[i]);
+        }
+
+        listener.onProgressBatch(uploadIds, uploadedBytes, totalBytes, chunkSizes, bytesPerSecond,
+                remainingMillis);
+        return count;
+    }
+}
@@ -0,0 +1,94 @@
+package com.alexbbb.uploadservice;
+
+/**
+ * Limits the retries of the uploads to the same host, so that when the server is failing,
+ * the retries don't multiply the load on it.
+ *
+ * Each upload deposits a fraction of a retry in the budget when it starts, and each retry
+ * withdraws a whole one. The budget also refills slowly over time, so a single upload can
+ * always be retried eventually. When the budget is exhausted, retries are not refused but
+ * delayed until the budget allows them, spreading them over time.
+ *
+ * @author alexbbb (Aleksandar Gotev)
+ */
+final class RetryBudget {
+
+    /**
+     * Retries allowed for each started upload.
+     */
+    static final double DEFAULT_RETRY_RATIO = 0.2;
+
+    /**
+     * Retries allowed per second, regardless of the uploads started.
+     */
+    static final double DEFAULT_MIN_RETRIES_PER_SECOND = 0.2;
+
+    /**
+     * Maximum number of retries which can be saved up.
+     */
+    static final double DEFAULT_MAX_BALANCE = 10;
+
+    private final double retryRatio;
+    private final double retriesPerMilli;
+    private final double maxBalance;
+
+    private double balance;
+    private long lastRefillTime = -1;
+
+    RetryBudget() {
+        this(DEFAULT_RETRY_RATIO, DEFAULT_MIN_RETRIES_PER_SECOND, DEFAULT_MAX_BALANCE);
+    }
+
+    RetryBudget(double retryRatio, double minRetriesPerSecond, double maxBalance) {
+        if (retryRatio < 0 || minRetriesPerSecond <= 0 || maxBalance < 1) {
+            throw new IllegalArgumentException("Invalid retry budget");
+        }
+
+        this.retryRatio = retryRatio;
+        this.retriesPerMilli = minRetriesPerSecond / 1000;
+        this.maxBalance = maxBalance;
+        this.balance = maxBalance;
+    }
+
+    /**
+     * Records the start of an upload.
+     *
+     * @param nowMillis current time in milliseconds
+     */
+    synchronized void onUploadStarted(long nowMillis) {
+        refill(nowMillis);
+        balance = Math.min(maxBalance, balance + retryRatio);
+    }
+
+    /**
+     * Reserves a retry.
+     *
+     * @param nowMillis current time in milliseconds
+     * @return time to wait before the retry is allowed, in milliseconds. 0 if it's allowed now
+     */
+    synchronized long reserveRetry(long nowMillis) {
+        refill(nowMillis);
+        balance -= 1;
+
+        if (balance >= 0) {
+            return 0;
+        }
+
+        // the retries reserved on credit are paid back by the refill
+        return (long) Math.ceil(-balance / retriesPerMilli);
+    }
+
+    synchronized double getBalance(long nowMillis) {
+        refill(nowMillis);
+        return balance;
+    }
+
+    private void refill(long nowMillis) {
+        if (lastRefillTime >= 0 && nowMillis > lastRefillTime) {
+            balance = Math.min(maxBalance, balance + (nowMillis - lastRefillTime) * retriesPerMilli);
+        }
+        if (nowMillis > lastRefillTime) {
+            lastRefillTime = nowMillis;
+        }
+    }
+}
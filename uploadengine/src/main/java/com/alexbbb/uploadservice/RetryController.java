@@ -0,0 +1,113 @@
+package com.alexbbb.uploadservice;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+
+/**
+ * Applies a {@link RetryStrategy} to the attempts of an upload: it counts the retries and
+ * computes the delay before each one of them, taking into account the Retry-After header
+ * and the {@link RetryBudget} of the host.
+ * Used by a single upload at a time.
+ *
+ * @author alexbbb (Aleksandar Gotev)
+ */
+final class RetryController {
+
+    /**
+     * Longest Retry-After which is honored, to avoid keeping an upload waiting forever.
+     */
+    static final long MAX_RETRY_AFTER = 60 * 60 * 1000;
+
+    private final RetryStrategy strategy;
+    private final int maxRetries;
+    private final Random random;
+    private long previousDelay = 0;
+
+    RetryController(RetryStrategy strategy, int maxRetries) {
+        this(strategy, maxRetries, new Random());
+    }
+
+    RetryController(RetryStrategy strategy, int maxRetries, Random random) {
+        this.strategy = strategy;
+        this.maxRetries = Math.max(0, maxRetries);
+        this.random = random;
+    }
+
+    boolean isRetryable(int statusCode) {
+        return strategy.isRetryable(statusCode);
+    }
+
+    boolean isRetryable(Exception exc) {
+        return strategy.isRetryable(exc);
+    }
+
+    /**
+     * Checks if a failed attempt can be retried.
+     *
+     * @param attempts number of attempts made so far, including the failed one
+     * @param exc failure of the attempt
+     * @return true if the failure is retryable and the retries are not exhausted
+     */
+    boolean canRetry(int attempts, Exception exc) {
+        return attempts <= maxRetries && strategy.isRetryable(exc);
+    }
+
+    /**
+     * Computes the delay before the next attempt: the delay of the retry strategy, extended
+     * if the server asked to wait longer or if the retry budget of the host is exhausted.
+     *
+     * @param exc failure of the attempt
+     * @param retryBudget retry budget of the host
+     * @param nowMillis current time in milliseconds
+     * @return delay in milliseconds
+     */
+    long getNextDelay(Exception exc, RetryBudget retryBudget, long nowMillis) {
+        long delay = strategy.getNextDelay(previousDelay, random);
+
+        if (strategy.isHonorRetryAfter() && exc instanceof UploadStatusException) {
+            delay = Math.max(delay, ((UploadStatusException) exc).getRetryAfterMillis());
+        }
+
+        delay = Math.max(delay, retryBudget.reserveRetry(nowMillis));
+        previousDelay = delay;
+        return delay;
+    }
+
+    /**
+     * Parses the value of a Retry-After header, which can be a number of seconds or an HTTP date.
+     *
+     * @param value header value, or null
+     * @param nowMillis current time in milliseconds
+     * @return time to wait in milliseconds, capped to {@link #MAX_RETRY_AFTER}, or -1 if the
+     * header is missing or not valid
+     */
+    static long parseRetryAfter(String value, long nowMillis) {
+        if (value == null) {
+            return -1;
+        }
+
+        final String trimmed = value.trim();
+        long delay;
+
+        try {
+            delay = Long.parseLong(trimmed) * 1000;
+        } catch (NumberFormatException notSeconds) {
+            final SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+            format.setTimeZone(TimeZone.getTimeZone("GMT"));
+            try {
+                delay = Math.max(0, format.parse(trimmed).getTime() - nowMillis);
+            } catch (ParseException notDate) {
+                return -1;
+            }
+        }
+
+        if (delay < 0) {
+            return -1;
+        }
+
+        return Math.min(delay, MAX_RETRY_AFTER);
+    }
+}
@@ -0,0 +1,83 @@
+package com.alexbbb.uploadservice;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Uploads which failed and are waiting to be retried. While they wait, they don't occupy a
+ * worker thread nor keep the device awake: the service sets an alarm for the earliest
+ * due time and queues them again when it fires.
+ *
+ * There are only a few uploads waiting at any time, so the due times are scanned linearly.
+ *
+ * @author alexbbb (Aleksandar Gotev)
+ */
+final class RetryQueue {
+
+    private final Map<String, Long> dueTimes = new LinkedHashMap<String, Long>();
+
+    /**
+     * Adds an upload which has to be retried.
+     *
+     * @param uploadId ID of the upload
+     * @param dueTime time at which the upload has to be retried, in the alarm time base
+     */
+    synchronized void add(String uploadId, long dueTime) {
+        dueTimes.put(uploadId, dueTime);
+    }
+
+    /**
+     * Removes an upload which is waiting to be retried.
+     *
+     * @param uploadId ID of the upload
+     * @return true if the upload was waiting and has been removed, false otherwise
+     */
+    synchronized boolean remove(String uploadId) {
+        return dueTimes.remove(uploadId) != null;
+    }
+
+    /**
+     * Removes the uploads which have to be retried.
+     *
+     * @param now current time, in the alarm time base
+     * @return IDs of the uploads whose due time has passed, in the order in which they were added
+     */
+    synchronized List<String> pollDue(long now) {
+        final List<String> due = new ArrayList<String>();
+
+        final Iterator<Map.Entry<String, Long>> iterator = dueTimes.entrySet().iterator();
+        while (iterator.hasNext()) {
+            final Map.Entry<String, Long> entry = iterator.next();
+            if (entry.getValue() <= now) {
+                due.add(entry.getKey());
+                iterator.remove();
+            }
+        }
+
+        return due;
+    }
+
+    /**
+     * @return the earliest due time, or -1 if no upload is waiting
+     */
+    synchronized long getNextDueTime() {
+        long next = -1;
+        for (long dueTime : dueTimes.values()) {
+            if (next < 0 || dueTime < next) {
+                next = dueTime;
+            }
+        }
+        return next;
+    }
+
+    synchronized int size() {
+        return dueTimes.size();
+    }
+
+    synchronized void clear() {
+        dueTimes.clear();
+    }
+}
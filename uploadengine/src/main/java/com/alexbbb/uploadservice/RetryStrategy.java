@@ -0,0 +1,68 @@
+package com.alexbbb.uploadservice;
+
+import java.util.Random;
+
+/**
+ * Decides which failed attempts of an upload are retried and how long to wait before each
+ * retry.
+ *
+ * @author alexbbb (Aleksandar Gotev)
+ */
+public interface RetryStrategy {
+
+    /**
+     * Never retries, so every server response is delivered as it is.
+     */
+    RetryStrategy NEVER = new RetryStrategy() {
+        @Override
+        public boolean isRetryable(int statusCode) {
+            return false;
+        }
+
+        @Override
+        public boolean isRetryable(Exception exc) {
+            return false;
+        }
+
+        @Override
+        public long getNextDelay(long previousDelay, Random random) {
+            return 0;
+        }
+
+        @Override
+        public boolean isHonorRetryAfter() {
+            return false;
+        }
+    };
+
+    /**
+     * Checks if a server response has to be retried.
+     *
+     * @param statusCode HTTP status code of the response
+     * @return true if the upload has to be retried
+     */
+    boolean isRetryable(int statusCode);
+
+    /**
+     * Checks if a failed attempt has to be retried.
+     *
+     * @param exc failure of the attempt
+     * @return true if the upload has to be retried
+     */
+    boolean isRetryable(Exception exc);
+
+    /**
+     * Computes the delay before the next retry.
+     *
+     * @param previousDelay delay before the previous retry, or 0 for the first one
+     * @param random source of randomness
+     * @return delay in milliseconds
+     */
+    long getNextDelay(long previousDelay, Random random);
+
+    /**
+     * @return true to wait at least the time requested by the server with the Retry-After
+     * header
+     */
+    boolean isHonorRetryAfter();
+}
@@ -0,0 +1,77 @@
+package com.alexbbb.uploadservice;
+
+/**
+ * Measures the throughput of an upload with an exponentially weighted moving average of the
+ * rate observed between samples. The weight of each sample depends on the time it covers,
+ * so irregular sampling intervals don't skew the average.
+ *
+ * Not thread safe.
+ *
+ * @author alexbbb (Aleksandar Gotev)
+ */
+final class ThroughputMeter {
+
+    /**
+     * Time constant of the average: samples older than a few time constants don't count anymore.
+     */
+    static final long TIME_CONSTANT_NANOS = 2000000000L;
+
+    private static final double NANOS_PER_SECOND = 1e9;
+
+    private long lastBytes = -1;
+    private long lastTime;
+    private double bytesPerSecond = -1;
+
+    /**
+     * Adds a sample.
+     *
+     * @param uploadedBytes bytes uploaded so far
+     * @param nowNanos current time, from {@link System#nanoTime()}
+     */
+    void sample(long uploadedBytes, long nowNanos) {
+        if (lastBytes < 0 || uploadedBytes < lastBytes) {
+            // first sample, or the upload started again from the beginning
+            lastBytes = uploadedBytes;
+            lastTime = nowNanos;
+            return;
+        }
+
+        final long elapsed = nowNanos - lastTime;
+        if (elapsed <= 0) {
+            return;
+        }
+
+        final double rate = (uploadedBytes - lastBytes) * NANOS_PER_SECOND / elapsed;
+        if (bytesPerSecond < 0) {
+            bytesPerSecond = rate;
+        } else {
+            final double weight = 1 - Math.exp(-(double) elapsed / TIME_CONSTANT_NANOS);
+            bytesPerSecond += weight * (rate - bytesPerSecond);
+        }
+
+        lastBytes = uploadedBytes;
+        lastTime = nowNanos;
+    }
+
+    /**
+     * @return average throughput in bytes per second, or -1 if not measured yet
+     */
+    long getBytesPerSecond() {
+        return bytesPerSecond < 0 ? -1 : Math.round(bytesPerSecond);
+    }
+
+    /**
+     * Estimates the time needed to complete the upload at the measured throughput.
+     *
+     * @param uploadedBytes bytes uploaded so far
+     * @param totalBytes total bytes, or -1 if unknown
+     * @return remaining time in milliseconds, or -1 if it can't be estimated
+     */
+    long getRemainingMillis(long uploadedBytes, long totalBytes) {
+        if (totalBytes < 0 || bytesPerSecond <= 0) {
+            return -1;
+        }
+
+        return (long) (Math.max(0, totalBytes - uploadedBytes) * 1000 / bytesPerSecond);
+    }
+}
@@ -0,0 +1,105 @@
+package com.alexbbb.uploadservice;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free token bucket which limits the rate at which bytes are sent.
+ *
+ * Instead of counting tokens, the bucket keeps the time at which all the bytes reserved so
+ * far will have been paid for at the configured rate. A reservation moves that time forward
+ * with a single compare-and-set, so the uploads sharing a bucket never block each other, and
+ * the caller waits until its bytes fit in the allowed burst. The rate can be changed at any
+ * time: it applies to the following reservations.
+ *
+ * @author alexbbb (Aleksandar Gotev)
+ */
+final class TokenBucket {
+
+    /**
+     * Smallest burst allowed, so that a chunk of a few KB is never split across waits.
+     */
+    static final long MIN_BURST_BYTES = 16 * 1024;
+
+    /**
+     * Burst allowed, expressed as the time needed to send it at the configured rate.
+     */
+    static final long BURST_NANOS = 100000000L;
+
+    private static final long NANOS_PER_SECOND = 1000000000L;
+
+    private volatile long bytesPerSecond;
+    private final AtomicLong paidUntilNanos = new AtomicLong(Long.MIN_VALUE);
+
+    /**
+     * @param bytesPerSecond maximum rate in bytes per second, or 0 for no limit
+     */
+    TokenBucket(long bytesPerSecond) {
+        setRate(bytesPerSecond);
+    }
+
+    /**
+     * Changes the rate.
+     *
+     * @param bytesPerSecond maximum rate in bytes per second, or 0 for no limit
+     */
+    void setRate(long bytesPerSecond) {
+        this.bytesPerSecond = Math.max(0, bytesPerSecond);
+    }
+
+    long getRate() {
+        return bytesPerSecond;
+    }
+
+    /**
+     * @return true if the bucket limits the rate
+     */
+    boolean isLimited() {
+        return bytesPerSecond > 0;
+    }
+
+    /**
+     * Gets the largest amount of bytes which should be sent at once, so that the traffic is
+     * spread evenly instead of being sent in bursts followed by long waits.
+     *
+     * @return maximum bytes to send at once, or {@link Integer#MAX_VALUE} if not limited
+     */
+    int getMaxBurst() {
+        final long rate = bytesPerSecond;
+        if (rate <= 0) {
+            return Integer.MAX_VALUE;
+        }
+        return (int) Math.min(Integer.MAX_VALUE, getBurstBytes(rate));
+    }
+
+    /**
+     * Reserves bytes to send.
+     *
+     * @param bytes number of bytes to send
+     * @param nowNanos current time, from {@link System#nanoTime()}
+     * @return nanoseconds to wait before sending the bytes, 0 if they can be sent now
+     */
+    long reserve(long bytes, long nowNanos) {
+        final long rate = bytesPerSecond;
+        if (rate <= 0 || bytes <= 0) {
+            return 0;
+        }
+
+        final long cost = bytes * NANOS_PER_SECOND / rate;
+        final long burstNanos = getBurstBytes(rate) * NANOS_PER_SECOND / rate;
+
+        while (true) {
+            final long paidUntil = paidUntilNanos.get();
+            // an idle bucket doesn't accumulate credit beyond the burst
+            final long start = paidUntil == Long.MIN_VALUE || paidUntil - nowNanos < 0 ? nowNanos : paidUntil;
+            final long newPaidUntil = start + cost;
+
+            if (paidUntilNanos.compareAndSet(paidUntil, newPaidUntil)) {
+                return Math.max(0, newPaidUntil - burstNanos - nowNanos);
+            }
+        }
+    }
+
+    private static long getBurstBytes(long rate) {
+        return Math.max(MIN_BURST_BYTES, rate * BURST_NANOS / NANOS_PER_SECOND);
+    }
+}
@@ -0,0 +1,190 @@
+package com.alexbbb.uploadservice;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.List;
+
+/**
+ * Implements the requests of the tus.io resumable upload protocol, version 1.0.0 (core and
+ * creation extension). The upload data is written by the caller on the connection returned
+ * by {@link #openPatch(String, long, long)}, so that it can report progress and abort it.
+ *
+ * PATCH is sent as a POST with the X-HTTP-Method-Override header, because
+ * {@link HttpURLConnectionStack} doesn't support the PATCH method.
+ * Unexpected status codes are thrown as {@link UploadStatusException}s, so they're retried
+ * according to the retry policy like the responses of the other uploads.
+ *
+ * @author alexbbb (Aleksandar Gotev)
+ */
+class TusClient {
+
+    static final String TUS_VERSION = "1.0.0";
+    static final String HEADER_TUS_RESUMABLE = "Tus-Resumable";
+    static final String HEADER_UPLOAD_LENGTH = "Upload-Length";
+    static final String HEADER_UPLOAD_OFFSET = "Upload-Offset";
+    static final String HEADER_UPLOAD_METADATA = "Upload-Metadata";
+    static final String HEADER_METHOD_OVERRIDE = "X-HTTP-Method-Override";
+    static final String CONTENT_TYPE_OFFSET_OCTET_STREAM = "application/offset+octet-stream";
+
+    private final UploadHttpStack httpStack;
+    private final String endpointUrl;
+    private final List<? extends NameValuePair> headers;
+    private int connectTimeout = 0;
+    private int readTimeout = 0;
+
+    /**
+     * Creates a new tus client.
+     *
+     * @param httpStack HTTP stack which opens the connections
+     * @param endpointUrl URL of the tus creation endpoint
+     * @param headers additional headers to send with every request. Can be null
+     */
+    TusClient(UploadHttpStack httpStack, String endpointUrl, List<? extends NameValuePair> headers) {
+        this.httpStack = httpStack;
+        this.endpointUrl = endpointUrl;
+        this.headers = headers;
+    }
+
+    /**
+     * Sets the timeouts of the connections opened afterwards.
+     *
+     * @param connectTimeout connect timeout in milliseconds, 0 for no timeout
+     * @param readTimeout read timeout in milliseconds, 0 for no timeout
+     */
+    void setTimeouts(int connectTimeout, int readTimeout) {
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+    }
+
+    /**
+     * Creates a new upload on the server.
+     *
+     * @param length total length of the upload in bytes
+     * @param metadata value of the Upload-Metadata header, or null to not send it
+     * @return absolute URL of the new upload
+     * @throws UploadStatusException if the server answers with a status code other than 201
+     * @throws IOException if the server doesn't create the upload
+     */
+    String createUpload(long length, String metadata) throws IOException {
+        final UploadHttpConnection conn = openConnection(endpointUrl, "POST");
+        try {
+            conn.setHeader(HEADER_UPLOAD_LENGTH, Long.toString(length));
+            if (metadata != null && metadata.length() > 0) {
+                conn.setHeader(HEADER_UPLOAD_METADATA, metadata);
+            }
+            conn.setBodyLength(0, 0);
+            conn.getOutputStream().close();
+
+            final int responseCode = conn.getResponseCode();
+            final String location = conn.getResponseHeader("Location");
+
+            if (responseCode != 201) {
+                throw new UploadStatusException(responseCode, null, HttpUploadJob.getRetryAfter(conn));
+            }
+
+            if (location == null) {
+                throw new IOException("tus server response is missing the Location header");
+            }
+
+            return new URL(new URL(endpointUrl), location).toString();
+        } finally {
+            conn.disconnect();
+        }
+    }
+
+    /**
+     * Asks the server how many bytes of an upload it has received.
+     *
+     * @param uploadUrl URL of the upload
+     * @return the offset from which the upload has to continue, or -1 if the upload doesn't
+     * exist anymore on the server (404 or 410) and has to be created again
+     * @throws UploadStatusException if the server answers with another non 2xx status code
+     * @throws IOException if the server can't be reached or returns an unexpected response
+     */
+    long getOffset(String uploadUrl) throws IOException {
+        final UploadHttpConnection conn = openConnection(uploadUrl, "HEAD");
+        try {
+            final int responseCode = conn.getResponseCode();
+
+            if (responseCode == 404 || responseCode == 410) {
+                return -1;
+            }
+
+            if (responseCode / 100 != 2) {
+                throw new UploadStatusException(responseCode, null, HttpUploadJob.getRetryAfter(conn));
+            }
+
+            return parseOffset(conn);
+        } finally {
+            conn.disconnect();
+        }
+    }
+
+    /**
+     * Opens the connection to send a chunk of the upload. The caller has to write exactly
+     * length bytes on its output stream and then call {@link #finishPatch(UploadHttpConnection, long)}.
+     *
+     * @param uploadUrl URL of the upload
+     * @param offset offset of the first byte of the chunk
+     * @param length length of the chunk
+     * @return connection ready to be written
+     * @throws IOException if the connection can't be opened
+     */
+    UploadHttpConnection openPatch(String uploadUrl, long offset, long length) throws IOException {
+        final UploadHttpConnection conn = openConnection(uploadUrl, "POST");
+        conn.setHeader(HEADER_METHOD_OVERRIDE, "PATCH");
+        conn.setHeader("Content-Type", CONTENT_TYPE_OFFSET_OCTET_STREAM);
+        conn.setHeader(HEADER_UPLOAD_OFFSET, Long.toString(offset));
+        conn.setBodyLength(length, 0);
+        return conn;
+    }
+
+    /**
+     * Reads the response of a chunk and verifies the offset reported by the server.
+     *
+     * @param conn connection returned by {@link #openPatch(String, long, long)}
+     * @param expectedOffset offset the server should have reached after the chunk
+     * @return the new offset
+     * @throws UploadStatusException if the server answers with a status code other than 204 or 200
+     * @throws IOException if the server didn't accept the chunk
+     */
+    long finishPatch(UploadHttpConnection conn, long expectedOffset) throws IOException {
+        final int responseCode = conn.getResponseCode();
+        if (responseCode != 204 && responseCode != 200) {
+            throw new UploadStatusException(responseCode, null, HttpUploadJob.getRetryAfter(conn));
+        }
+
+        final long offset = parseOffset(conn);
+        if (offset != expectedOffset) {
+            throw new IOException("tus server reported offset " + offset + " instead of " + expectedOffset);
+        }
+
+        return offset;
+    }
+
+    private UploadHttpConnection openConnection(String url, String method) throws IOException {
+        final UploadHttpConnection conn = httpStack.open(method, url, connectTimeout, readTimeout);
+
+        if (headers != null) {
+            for (final NameValuePair header : headers) {
+                conn.setHeader(header.getName(), header.getValue());
+            }
+        }
+
+        conn.setHeader(HEADER_TUS_RESUMABLE, TUS_VERSION);
+        return conn;
+    }
+
+    private static long parseOffset(UploadHttpConnection conn) throws IOException {
+        final String offset = conn.getResponseHeader(HEADER_UPLOAD_OFFSET);
+        if (offset == null) {
+            throw new IOException("tus server response is missing the " + HEADER_UPLOAD_OFFSET + " header");
+        }
+
+        try {
+            return Long.parseLong(offset.trim());
+        } catch (NumberFormatException exc) {
+            throw new IOException("Invalid " + HEADER_UPLOAD_OFFSET + " header: " + offset);
+        }
+    }
+}
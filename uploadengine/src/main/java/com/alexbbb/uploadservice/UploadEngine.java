@@ -0,0 +1,252 @@
+package com.alexbbb.uploadservice;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Holds the state shared by all the {@link HttpUploadJob}s which run on it, such as the buffer
+ * pool, the global rate limit and the retry budgets of the hosts. It doesn't depend on Android,
+ * so uploads can be run and profiled on any JVM. On Android, the UploadService runs all its
+ * uploads on a single engine.
+ *
+ * @author alexbbb (Aleksandar Gotev)
+ */
+public final class UploadEngine {
+
+    public static final int DEFAULT_CONNECT_TIMEOUT = 15000;
+    public static final int DEFAULT_READ_TIMEOUT = 60000;
+    public static final long DEFAULT_BUFFER_POOL_SIZE = 1024 * 1024;
+
+    private static final Logger LOGGER = Logger.getLogger(UploadEngine.class.getName());
+
+    private final BufferPool bufferPool;
+    private final TokenBucket globalRateLimiter = new TokenBucket(0);
+    private final Map<String, RetryBudget> retryBudgets = new HashMap<String, RetryBudget>();
+    private final LatencyHistogram[] phaseHistograms = new LatencyHistogram[UploadMetrics.PHASES];
+    private volatile int connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+    private volatile int readTimeout = DEFAULT_READ_TIMEOUT;
+    private volatile UploadTracer tracer = UploadTracer.NONE;
+    private volatile UploadHttpStack httpStack = new HttpURLConnectionStack();
+    private volatile UploadMetricsListener metricsListener;
+    private ExecutorService partExecutor;
+
+    public UploadEngine() {
+        this(DEFAULT_BUFFER_POOL_SIZE);
+    }
+
+    /**
+     * Creates a new engine.
+     *
+     * @param maxPooledBytes maximum number of bytes kept by the pool of the buffers used to
+     *                       read the files, when they're not used by an upload
+     */
+    public UploadEngine(long maxPooledBytes) {
+        bufferPool = new BufferPool(Math.max(0, maxPooledBytes));
+
+        for (int i = 0; i < phaseHistograms.length; i++) {
+            phaseHistograms[i] = new LatencyHistogram();
+        }
+    }
+
+    BufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    /**
+     * Sets the maximum number of bytes kept by the pool of the buffers used to read the files,
+     * when they're not used by an upload.
+     *
+     * @param maxBytes maximum pooled bytes. Pass 0 to disable pooling
+     */
+    public void setBufferPoolSize(long maxBytes) {
+        bufferPool.setMaxPooledBytes(Math.max(0, maxBytes));
+    }
+
+    /**
+     * Sets the maximum rate at which all the uploads of the engine together send data.
+     * It takes effect immediately, also for the running uploads.
+     *
+     * @param bytesPerSecond maximum rate in bytes per second, or 0 to remove the limit
+     */
+    public void setMaxUploadRate(long bytesPerSecond) {
+        globalRateLimiter.setRate(bytesPerSecond);
+    }
+
+    TokenBucket getGlobalRateLimiter() {
+        return globalRateLimiter;
+    }
+
+    /**
+     * Sets the maximum time to wait for the connection to the server to be established.
+     * It applies to the connections opened afterwards.
+     *
+     * @param timeoutMillis timeout in milliseconds, or 0 to wait indefinitely
+     */
+    public void setConnectTimeout(int timeoutMillis) {
+        connectTimeout = Math.max(0, timeoutMillis);
+    }
+
+    public int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    /**
+     * Sets the maximum time to wait for the server response once the request body has been
+     * sent. It applies to the connections opened afterwards.
+     *
+     * @param timeoutMillis timeout in milliseconds, or 0 to wait indefinitely
+     */
+    public void setReadTimeout(int timeoutMillis) {
+        readTimeout = Math.max(0, timeoutMillis);
+    }
+
+    public int getReadTimeout() {
+        return readTimeout;
+    }
+
+    /**
+     * Sets the HTTP stack used by the uploads which don't set their own.
+     * It applies to the connections opened afterwards.
+     *
+     * @param stack HTTP stack, or null to restore the default one, based on HttpURLConnection
+     */
+    public void setHttpStack(UploadHttpStack stack) {
+        httpStack = stack == null ? new HttpURLConnectionStack() : stack;
+    }
+
+    public UploadHttpStack getHttpStack() {
+        return httpStack;
+    }
+
+    /**
+     * Gets the executor which sends the parts of the parallel uploads. Its threads are shared
+     * by all the uploads and they're stopped after a minute without parts to send.
+     *
+     * @return part executor
+     */
+    synchronized ExecutorService getPartExecutor() {
+        if (partExecutor == null) {
+            partExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger(0);
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    final Thread thread = new Thread(runnable, "UploadPart-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return partExecutor;
+    }
+
+    /**
+     * Gets the retry budget shared by all the uploads to the host of a URL.
+     *
+     * @param serverUrl URL of the upload
+     * @return retry budget of the host
+     */
+    RetryBudget getRetryBudget(String serverUrl) {
+        final String host = getHostKey(serverUrl);
+
+        synchronized (retryBudgets) {
+            RetryBudget budget = retryBudgets.get(host);
+            if (budget == null) {
+                budget = new RetryBudget();
+                retryBudgets.put(host, budget);
+            }
+            return budget;
+        }
+    }
+
+    /**
+     * Gets the key used to group uploads, which is the lowercase host and port of the URL.
+     *
+     * @param url server URL
+     * @return host key
+     */
+    static String getHostKey(String url) {
+        try {
+            final URL parsed = new URL(url);
+            final String host = parsed.getHost().toLowerCase(Locale.US);
+            final int port = parsed.getPort() == -1 ? parsed.getDefaultPort() : parsed.getPort();
+            return host + ":" + port;
+        } catch (MalformedURLException exc) {
+            return url;
+        }
+    }
+
+    /**
+     * Sets the tracer which receives the sections and the events of the uploads.
+     *
+     * @param tracer tracer, or null to discard them
+     */
+    public void setTracer(UploadTracer tracer) {
+        this.tracer = tracer == null ? UploadTracer.NONE : tracer;
+    }
+
+    UploadTracer getTracer() {
+        return tracer;
+    }
+
+    /**
+     * Sets the listener which receives the timings and the outcome of each upload attempt.
+     *
+     * @param listener metrics listener, or null to remove it
+     */
+    public void setMetricsListener(UploadMetricsListener listener) {
+        metricsListener = listener;
+    }
+
+    /**
+     * Gets a percentile of the time spent in a phase by the attempts which completed since
+     * the engine has been created or since the last {@link #resetMetrics()}.
+     * Failed and stopped attempts are not taken into account, so they don't skew the phases
+     * they didn't reach.
+     *
+     * @param phase one of the PHASE constants of {@link UploadMetrics}
+     * @param percentile percentile between 0 and 100, e.g. 50 for the median
+     * @return duration in microseconds, within 12.5%, or -1 if no attempt completed yet
+     */
+    public long getPhasePercentileMicros(int phase, double percentile) {
+        return phaseHistograms[phase].getPercentile(percentile);
+    }
+
+    /**
+     * Discards the durations used to compute the percentiles.
+     */
+    public void resetMetrics() {
+        for (LatencyHistogram histogram : phaseHistograms) {
+            histogram.reset();
+        }
+    }
+
+    /**
+     * Called by each job when an attempt ends.
+     */
+    void onAttemptFinished(UploadMetrics metrics) {
+        if (metrics.getResult() == UploadMetrics.RESULT_COMPLETED) {
+            for (int i = 0; i < phaseHistograms.length; i++) {
+                phaseHistograms[i].record(metrics.getDurationMicros(i));
+            }
+        }
+
+        final UploadMetricsListener listener = metricsListener;
+        if (listener != null) {
+            try {
+                listener.onAttemptFinished(metrics);
+            } catch (RuntimeException exc) {
+                LOGGER.log(Level.WARNING, "Error in the upload metrics listener", exc);
+            }
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.alexbbb.uploadservice;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Bounded log of the upload events, kept in memory so that it can be dumped when something
+ * has to be explained after the fact. When it's full, the oldest events are overwritten.
+ * The entries are preallocated, so logging an event doesn't allocate memory.
+ *
+ * @author alexbbb (Aleksandar Gotev)
+ */
+final class UploadEventLog {
+
+    /**
+     * Value of the events which don't carry one.
+     */
+    static final long NO_VALUE = Long.MIN_VALUE;
+
+    private long[] times;
+    private String[] uploadIds;
+    private String[] events;
+    private long[] values;
+    private int next;
+    private int size;
+
+    /**
+     * @param capacity maximum number of events kept. 0 disables the log
+     */
+    UploadEventLog(int capacity) {
+        allocate(capacity);
+    }
+
+    /**
+     * Changes the maximum number of events kept. The events logged so far are discarded.
+     *
+     * @param capacity maximum number of events kept. 0 disables the log
+     */
+    synchronized void setCapacity(int capacity) {
+        allocate(capacity);
+    }
+
+    synchronized int getCapacity() {
+        return times.length;
+    }
+
+    private void allocate(int capacity) {
+        final int length = Math.max(0, capacity);
+        times = new long[length];
+        uploadIds = new String[length];
+        events = new String[length];
+        values = new long[length];
+        next = 0;
+        size = 0;
+    }
+
+    /**
+     * Logs an event.
+     *
+     * @param timeMillis time of the event
+     * @param uploadId ID of the upload, or null if the event doesn't concern a single upload
+     * @param event name of the event
+     * @param value value associated with the event, or {@link #NO_VALUE}
+     */
+    synchronized void log(long timeMillis, String uploadId, String event, long value) {
+        if (times.length == 0) {
+            return;
+        }
+
+        times[next] = timeMillis;
+        uploadIds[next] = uploadId;
+        events[next] = event;
+        values[next] = value;
+
+        next = (next + 1) % times.length;
+        size = Math.min(size + 1, times.length);
+    }
+
+    /**
+     * @return the events, from the oldest to the newest, one per line
+     */
+    synchronized List<String> getEntries() {
+        final List<String> entries = new ArrayList<String>(size);
+        final int first = (next - size + times.length) % Math.max(1, times.length);
+
+        for (int i = 0; i < size; i++) {
+            final int index = (first + i) % times.length;
+            final StringBuilder builder = new StringBuilder();
+            builder.append(times[index]).append(' ')
+                   .append(uploadIds[index] == null ? "-" : uploadIds[index]).append(' ')
+                   .append(events[index]);
+            if (values[index] != NO_VALUE) {
+                builder.append(' ').append(values[index]);
+            }
+            entries.add(builder.toString());
+        }
+
+        return entries;
+    }
+
+    void dump(PrintWriter writer) {
+        for (String entry : getEntries()) {
+            writer.println(entry);
+        }
+    }
+}
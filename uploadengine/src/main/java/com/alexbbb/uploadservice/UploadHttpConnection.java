@@ -0,0 +1,79 @@
+package com.alexbbb.uploadservice;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * HTTP request opened by an {@link UploadHttpStack}. It's used in this order: the headers and
+ * the body length are set, the connection is connected, the body is written on the output
+ * stream and then the response is read. Requests without a body skip the output stream.
+ *
+ * @author alexbbb (Aleksandar Gotev)
+ */
+public interface UploadHttpConnection {
+
+    /**
+     * Sets a request header, replacing any previous value with the same name.
+     *
+     * @param name header name
+     * @param value header value
+     */
+    void setHeader(String name, String value);
+
+    /**
+     * Declares that the request has a body and how it's sent.
+     *
+     * @param bodyLength length of the body in bytes, or -1 to send it with chunked transfer
+     *                   encoding, when the length is not known in advance
+     * @param chunkSize size of the chunks, when the body is chunked
+     */
+    void setBodyLength(long bodyLength, int chunkSize);
+
+    /**
+     * Establishes the connection to the server.
+     *
+     * @throws IOException if the server can't be reached
+     */
+    void connect() throws IOException;
+
+    /**
+     * Gets the stream on which the request body is written. The request ends when it's closed.
+     * Connects to the server, if it's not already connected.
+     *
+     * @return request body stream
+     * @throws IOException if the stream can't be opened
+     */
+    OutputStream getOutputStream() throws IOException;
+
+    /**
+     * Waits for the response and gets its status code. Sends the request, if it has no body
+     * and it's not already sent.
+     *
+     * @return HTTP status code
+     * @throws IOException if the response can't be read
+     */
+    int getResponseCode() throws IOException;
+
+    /**
+     * Gets a header of the response.
+     *
+     * @param name header name, case insensitive
+     * @return header value, or null if the response doesn't have it
+     */
+    String getResponseHeader(String name);
+
+    /**
+     * Gets the stream from which the response body is read, also for error responses.
+     *
+     * @return response body stream, or null if the response has no body
+     * @throws IOException if the stream can't be opened
+     */
+    InputStream getResponseBody() throws IOException;
+
+    /**
+     * Closes the connection and releases its resources. It can be called from any thread,
+     * also while the body is being written, to abort the request.
+     */
+    void disconnect();
+}
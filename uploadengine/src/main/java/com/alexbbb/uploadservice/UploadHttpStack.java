@@ -0,0 +1,32 @@
+package com.alexbbb.uploadservice;
+
+import java.io.IOException;
+
+/**
+ * Opens the HTTP connections on which the uploads are sent. The default stack is
+ * {@link HttpURLConnectionStack}. Implement it to send the uploads with another HTTP client,
+ * e.g. one supporting HTTP/2 or with its own connection pool.
+ *
+ * Set it for all the uploads with {@link UploadEngine#setHttpStack(UploadHttpStack)}, or for a
+ * single upload with {@link HttpUploadJob#setHttpStack(UploadHttpStack)}. Implementations are
+ * used by many uploads at the same time, so they have to be thread safe.
+ *
+ * @author alexbbb (Aleksandar Gotev)
+ */
+public interface UploadHttpStack {
+
+    /**
+     * Creates a new connection. The request is not sent until the connection is connected.
+     *
+     * @param method HTTP method
+     * @param url absolute URL of the request
+     * @param connectTimeout maximum time to wait for the connection to be established,
+     *                       in milliseconds, or 0 to wait indefinitely
+     * @param readTimeout maximum time to wait for data from the server, in milliseconds,
+     *                    or 0 to wait indefinitely
+     * @return new connection
+     * @throws IOException if the connection can't be created
+     */
+    UploadHttpConnection open(String method, String url, int connectTimeout, int readTimeout)
+            throws IOException;
+}
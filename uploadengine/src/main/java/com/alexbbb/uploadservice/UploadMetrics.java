@@ -0,0 +1,144 @@
+package com.alexbbb.uploadservice;
+
+/**
+ * Timings and outcome of a single attempt of an upload, reported to the
+ * {@link UploadMetricsListener} set with {@link UploadEngine#setMetricsListener(UploadMetricsListener)}.
+ *
+ * The attempt is split in phases, so that slow uploads can be attributed to the disk, the
+ * network or the server. The phases of uploads which send several requests, like tus and
+ * parallel uploads, are the sum of the time spent in each phase by all the requests.
+ *
+ * @author alexbbb (Aleksandar Gotev)
+ */
+public final class UploadMetrics {
+
+    /**
+     * Preparation of the request, e.g. computing the body length and setting the headers.
+     */
+    public static final int PHASE_PREPARE = 0;
+
+    /**
+     * Connection to the server, including DNS resolution and TLS handshake.
+     */
+    public static final int PHASE_CONNECT = 1;
+
+    /**
+     * Writing of the request body, including the reads from the disk.
+     */
+    public static final int PHASE_WRITE = 2;
+
+    /**
+     * Wait for the first byte of the response, i.e. the processing time of the server.
+     */
+    public static final int PHASE_WAIT = 3;
+
+    /**
+     * Reading of the response body.
+     */
+    public static final int PHASE_READ = 4;
+
+    /**
+     * Number of phases.
+     */
+    public static final int PHASES = 5;
+
+    /**
+     * The server received the upload and answered with a final status code.
+     */
+    public static final int RESULT_COMPLETED = 1;
+
+    /**
+     * The attempt failed and the upload will be retried.
+     */
+    public static final int RESULT_RETRY = 2;
+
+    /**
+     * The attempt failed and the upload won't be retried.
+     */
+    public static final int RESULT_FAILED = 3;
+
+    /**
+     * The upload has been cancelled, paused or has to wait for its constraints.
+     */
+    public static final int RESULT_STOPPED = 4;
+
+    private final String uploadId;
+    private final int attempt;
+    private final long[] phaseMicros;
+    private final long totalMicros;
+    private final long bytesWritten;
+    private final int result;
+    private final int responseCode;
+
+    UploadMetrics(String uploadId, int attempt, long[] phaseMicros, long totalMicros,
+                  long bytesWritten, int result, int responseCode) {
+        this.uploadId = uploadId;
+        this.attempt = attempt;
+        this.phaseMicros = phaseMicros;
+        this.totalMicros = totalMicros;
+        this.bytesWritten = bytesWritten;
+        this.result = result;
+        this.responseCode = responseCode;
+    }
+
+    public String getUploadId() {
+        return uploadId;
+    }
+
+    /**
+     * @return number of the attempt, starting from 1
+     */
+    public int getAttempt() {
+        return attempt;
+    }
+
+    /**
+     * @param phase one of the PHASE constants
+     * @return time spent in the phase, in microseconds
+     */
+    public long getDurationMicros(int phase) {
+        return phaseMicros[phase];
+    }
+
+    /**
+     * @return duration of the whole attempt, in microseconds
+     */
+    public long getTotalMicros() {
+        return totalMicros;
+    }
+
+    /**
+     * @return bytes of the request body sent during the attempt, before compression
+     */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * @return one of the RESULT constants
+     */
+    public int getResult() {
+        return result;
+    }
+
+    /**
+     * @return status code of the last response received from the server, or 0 if none
+     */
+    public int getResponseCode() {
+        return responseCode;
+    }
+
+    @Override
+    public String toString() {
+        return "UploadMetrics{uploadId=" + uploadId + ", attempt=" + attempt
+                + ", prepare=" + phaseMicros[PHASE_PREPARE] + "us"
+                + ", connect=" + phaseMicros[PHASE_CONNECT] + "us"
+                + ", write=" + phaseMicros[PHASE_WRITE] + "us"
+                + ", wait=" + phaseMicros[PHASE_WAIT] + "us"
+                + ", read=" + phaseMicros[PHASE_READ] + "us"
+                + ", total=" + totalMicros + "us"
+                + ", bytesWritten=" + bytesWritten
+                + ", result=" + result
+                + ", responseCode=" + responseCode + "}";
+    }
+}
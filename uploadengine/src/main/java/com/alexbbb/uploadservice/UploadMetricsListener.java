@@ -0,0 +1,18 @@
+package com.alexbbb.uploadservice;
+
+/**
+ * Receives the metrics of each upload attempt. Set it with
+ * {@link UploadEngine#setMetricsListener(UploadMetricsListener)}.
+ *
+ * @author alexbbb (Aleksandar Gotev)
+ */
+public interface UploadMetricsListener {
+
+    /**
+     * Called when an attempt of an upload ends, whatever the outcome.
+     * It's called on the upload thread, so it must return quickly.
+     *
+     * @param metrics metrics of the attempt
+     */
+    void onAttemptFinished(UploadMetrics metrics);
+}
@@ -0,0 +1,42 @@
+package com.alexbbb.uploadservice;
+
+import java.io.IOException;
+
+/**
+ * Thrown when the server answers an upload request with a status code which may be retried.
+ *
+ * @author alexbbb (Aleksandar Gotev)
+ */
+class UploadStatusException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int responseCode;
+    private final String responseBody;
+    private final long retryAfterMillis;
+
+    /**
+     * @param responseCode HTTP status code of the response
+     * @param responseBody body of the response, delivered to the app if the upload is not
+     *                     retried, or null to report the failure as an error
+     * @param retryAfterMillis time requested by the server before retrying, or -1
+     */
+    UploadStatusException(int responseCode, String responseBody, long retryAfterMillis) {
+        super("Server responded with status code " + responseCode);
+        this.responseCode = responseCode;
+        this.responseBody = responseBody;
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    int getResponseCode() {
+        return responseCode;
+    }
+
+    String getResponseBody() {
+        return responseBody;
+    }
+
+    long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+}
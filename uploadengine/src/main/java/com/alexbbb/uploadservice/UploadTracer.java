@@ -0,0 +1,81 @@
+package com.alexbbb.uploadservice;
+
+/**
+ * Receives the trace sections and the events of the uploads run by an {@link UploadEngine}.
+ *
+ * Sections must be closed with the value returned when they have been opened, because
+ * tracing may be enabled or disabled in the meantime.
+ *
+ * @author alexbbb (Aleksandar Gotev)
+ */
+public interface UploadTracer {
+
+    String EVENT_ATTEMPT_STARTED = "attempt";
+    String EVENT_COMPLETED = "completed";
+    String EVENT_FAILED = "failed";
+    String EVENT_RETRY = "retry";
+    String EVENT_STOPPED = "stopped";
+    String EVENT_STALLED = "stalled";
+
+    /**
+     * Value of the events which don't have one.
+     */
+    long NO_VALUE = UploadEventLog.NO_VALUE;
+
+    /**
+     * Discards everything.
+     */
+    UploadTracer NONE = new UploadTracer() {
+        @Override
+        public boolean beginSection(String name) {
+            return false;
+        }
+
+        @Override
+        public void endSection(boolean began) {
+        }
+
+        @Override
+        public boolean beginAttempt(String uploadId, int attempt) {
+            return false;
+        }
+
+        @Override
+        public void endAttempt(String uploadId, int attempt, boolean began) {
+        }
+
+        @Override
+        public void event(String uploadId, String event, long value) {
+        }
+    };
+
+    /**
+     * Opens a section on the current thread.
+     *
+     * @param name name of the section
+     * @return true if the section has been opened
+     */
+    boolean beginSection(String name);
+
+    void endSection(boolean began);
+
+    /**
+     * Opens the slice of an attempt, which can be closed from another thread.
+     *
+     * @param uploadId ID of the upload
+     * @param attempt number of the attempt, starting from 1
+     * @return true if the slice has been opened
+     */
+    boolean beginAttempt(String uploadId, int attempt);
+
+    void endAttempt(String uploadId, int attempt, boolean began);
+
+    /**
+     * Records an event.
+     *
+     * @param uploadId ID of the upload, or null if the event is not about a single upload
+     * @param event name of the event
+     * @param value value of the event, or {@link #NO_VALUE}
+     */
+    void event(String uploadId, String event, long value);
+}
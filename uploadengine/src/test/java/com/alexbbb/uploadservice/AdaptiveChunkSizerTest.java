@@ -0,0 +1,53 @@
+package com.alexbbb.uploadservice;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class AdaptiveChunkSizerTest {
+
+    private static final long TARGET_NANOS = 50000000L;
+
+    /**
+     * Simulates writes on a link with the given speed, until the chunk size is stable.
+     */
+    private static int converge(AdaptiveChunkSizer sizer, long bytesPerSecond) {
+        for (int i = 0; i < 100; i++) {
+            int chunk = sizer.getChunkSize();
+            sizer.onChunkWritten(chunk, chunk * 1000000000L / bytesPerSecond);
+        }
+        return sizer.getChunkSize();
+    }
+
+    @Test
+    public void usesSmallChunksOnSlowLinks() {
+        AdaptiveChunkSizer sizer = new AdaptiveChunkSizer(4096, 262144, TARGET_NANOS);
+        // 3G uplink: 40 KB/s means 2 KB every 50 ms
+        assertEquals(4096, converge(sizer, 40 * 1024));
+    }
+
+    @Test
+    public void usesLargeChunksOnFastLinks() {
+        AdaptiveChunkSizer sizer = new AdaptiveChunkSizer(4096, 262144, TARGET_NANOS);
+        assertEquals(262144, converge(sizer, 50 * 1024 * 1024));
+    }
+
+    @Test
+    public void settlesWithinTwiceTheTargetWriteTime() {
+        AdaptiveChunkSizer sizer = new AdaptiveChunkSizer(4096, 4194304, TARGET_NANOS);
+        long speed = 1024 * 1024;
+        int chunk = converge(sizer, speed);
+
+        long writeNanos = chunk * 1000000000L / speed;
+        assertTrue(writeNanos > TARGET_NANOS / 2 && writeNanos < TARGET_NANOS * 2);
+
+        // stable: the same measurements don't change it anymore
+        assertEquals(chunk, converge(sizer, speed));
+    }
+
+    @Test
+    public void fixedBoundsDontAdapt() {
+        AdaptiveChunkSizer sizer = new AdaptiveChunkSizer(65536, 65536, TARGET_NANOS);
+        assertEquals(65536, converge(sizer, 1024));
+    }
+}
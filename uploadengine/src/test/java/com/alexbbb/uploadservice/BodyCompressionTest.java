@@ -0,0 +1,70 @@
+package com.alexbbb.uploadservice;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import static org.junit.Assert.*;
+
+public class BodyCompressionTest {
+
+    private static byte[] csv(int rows) throws Exception {
+        StringBuilder builder = new StringBuilder("timestamp,level,message\n");
+        for (int i = 0; i < rows; i++) {
+            builder.append(1450000000 + i).append(",INFO,upload chunk ").append(i % 10).append(" sent\n");
+        }
+        return builder.toString().getBytes("US-ASCII");
+    }
+
+    private static byte[] readAll(InputStream stream) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int read;
+        while ((read = stream.read(buffer)) > 0) {
+            bytes.write(buffer, 0, read);
+        }
+        return bytes.toByteArray();
+    }
+
+    @Test
+    public void skipsAlreadyCompressedTypes() {
+        assertTrue(BodyCompression.isCompressedContentType(ContentType.IMAGE_JPEG));
+        assertTrue(BodyCompression.isCompressedContentType("Application/Zip; name=logs.zip"));
+        assertFalse(BodyCompression.isCompressedContentType(ContentType.APPLICATION_JSON));
+        assertFalse(BodyCompression.isCompressedContentType(null));
+    }
+
+    @Test
+    public void samplesCompressibility() throws Exception {
+        assertTrue(BodyCompression.isCompressible(new ByteArrayInputStream(csv(5000))));
+
+        byte[] random = new byte[BodyCompression.SAMPLE_SIZE];
+        new Random(42).nextBytes(random);
+        assertFalse(BodyCompression.isCompressible(new ByteArrayInputStream(random)));
+        assertFalse(BodyCompression.isCompressible(new ByteArrayInputStream(new byte[0])));
+    }
+
+    @Test
+    public void compressedBodyCanBeDecoded() throws Exception {
+        byte[] body = csv(2000);
+
+        ByteArrayOutputStream gzip = new ByteArrayOutputStream();
+        DeflaterOutputStream compressor = BodyCompression.compress(gzip, ContentEncoding.GZIP);
+        compressor.write(body);
+        compressor.finish();
+        assertTrue(gzip.size() * 5 < body.length);
+        assertArrayEquals(body, readAll(new GZIPInputStream(new ByteArrayInputStream(gzip.toByteArray()))));
+
+        ByteArrayOutputStream deflate = new ByteArrayOutputStream();
+        compressor = BodyCompression.compress(deflate, ContentEncoding.DEFLATE);
+        compressor.write(body);
+        compressor.close();
+        assertArrayEquals(body, readAll(new InflaterInputStream(new ByteArrayInputStream(deflate.toByteArray()))));
+    }
+}
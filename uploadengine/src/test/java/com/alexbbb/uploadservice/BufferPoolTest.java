@@ -0,0 +1,60 @@
+package com.alexbbb.uploadservice;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class BufferPoolTest {
+
+    @Test
+    public void roundsUpToSizeClasses() {
+        assertEquals(4096, BufferPool.getBufferSize(1));
+        assertEquals(65536, BufferPool.getBufferSize(65536));
+        assertEquals(131072, BufferPool.getBufferSize(65537));
+        assertEquals(BufferPool.MAX_BUFFER_SIZE, BufferPool.getBufferSize(Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void reusesReleasedBuffers() {
+        BufferPool pool = new BufferPool(1024 * 1024);
+
+        byte[] buffer = pool.acquire(60000);
+        assertEquals(65536, buffer.length);
+        pool.release(buffer);
+        assertEquals(65536, pool.getPooledBytes());
+
+        assertSame(buffer, pool.acquire(65536));
+        assertEquals(0, pool.getPooledBytes());
+        assertNotSame(buffer, pool.acquire(65536));
+    }
+
+    @Test
+    public void keepsAtMostMaxBytes() {
+        BufferPool pool = new BufferPool(100 * 1024);
+
+        byte[] first = pool.acquire(65536);
+        byte[] second = pool.acquire(65536);
+        pool.release(first);
+        pool.release(second);
+        pool.release(new byte[1000]);
+
+        assertEquals(65536, pool.getPooledBytes());
+    }
+
+    @Test
+    public void trimsLargestBuffersFirst() {
+        BufferPool pool = new BufferPool(1024 * 1024);
+        byte[] small = pool.acquire(4096);
+        byte[] large = pool.acquire(262144);
+        pool.release(small);
+        pool.release(large);
+
+        pool.trim(10000);
+        assertEquals(4096, pool.getPooledBytes());
+        assertSame(small, pool.acquire(4096));
+
+        pool.release(small);
+        pool.trim(0);
+        assertEquals(0, pool.getPooledBytes());
+    }
+}
@@ -0,0 +1,66 @@
+package com.alexbbb.uploadservice;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class FileBodyReaderTest {
+
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("body", ".bin");
+        FileOutputStream stream = new FileOutputStream(file);
+        for (int i = 0; i < 10000; i++) {
+            stream.write(i % 251);
+        }
+        stream.close();
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    private static byte[] readAll(FileBodyReader reader, int bufferSize) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[bufferSize];
+        int read;
+        while ((read = reader.read(buffer)) > 0) {
+            bytes.write(buffer, 0, read);
+        }
+        reader.close();
+        return bytes.toByteArray();
+    }
+
+    @Test
+    public void readsOnlyTheRange() throws Exception {
+        byte[] range = readAll(new FileBodyReader(file, 4000, 3000), 1024);
+
+        assertEquals(3000, range.length);
+        for (int i = 0; i < range.length; i++) {
+            assertEquals((4000 + i) % 251, range[i] & 0xff);
+        }
+        assertEquals(10000, readAll(new FileBodyReader(file), 4096).length);
+    }
+
+    @Test(expected = IOException.class)
+    public void failsIfTheFileIsShorterThanExpected() throws Exception {
+        readAll(new FileBodyReader(file, 9000, 2000), 4096);
+    }
+
+    @Test
+    public void clampsReadSize() {
+        assertEquals(FileBodyReader.DEFAULT_READ_SIZE, FileBodyReader.getReadSize(0));
+        assertEquals(FileBodyReader.MIN_READ_SIZE, FileBodyReader.getReadSize(100));
+        assertEquals(FileBodyReader.MAX_READ_SIZE, FileBodyReader.getReadSize(Integer.MAX_VALUE));
+    }
+}
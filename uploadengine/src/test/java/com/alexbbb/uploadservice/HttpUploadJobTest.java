@@ -0,0 +1,234 @@
+package com.alexbbb.uploadservice;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class HttpUploadJobTest {
+
+    private HttpServer server;
+    private String endpoint;
+    private final AtomicInteger failuresLeft = new AtomicInteger(0);
+    private volatile byte[] received;
+    private volatile String receivedHeader;
+
+    /**
+     * Stores the body, after answering 503 to the requests which have to fail.
+     */
+    private final HttpHandler handler = new HttpHandler() {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            InputStream in = exchange.getRequestBody();
+            byte[] buffer = new byte[1024];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                body.write(buffer, 0, read);
+            }
+
+            int code = failuresLeft.getAndDecrement() > 0 ? 503 : 200;
+            if (code == 200) {
+                received = body.toByteArray();
+                receivedHeader = exchange.getRequestHeaders().getFirst("X-Test");
+            }
+
+            byte[] response = (code == 200 ? "stored" : "busy").getBytes("UTF-8");
+            exchange.sendResponseHeaders(code, response.length);
+            OutputStream out = exchange.getResponseBody();
+            out.write(response);
+            out.close();
+        }
+    };
+
+    /**
+     * Uploads a byte array and records what it's told.
+     */
+    private static class TestJob extends HttpUploadJob {
+
+        private final byte[] data;
+        final List<Long> progress = new ArrayList<Long>();
+        int responseCode;
+        String responseBody;
+
+        TestJob(UploadEngine engine, String url, byte[] data) {
+            super(engine, "test", url, "POST", Arrays.asList(new NameValuePair("X-Test", "yes")));
+            this.data = data;
+        }
+
+        @Override
+        protected long getBodyLength() throws UnsupportedEncodingException {
+            return data.length;
+        }
+
+        @Override
+        protected void writeBody() throws IOException {
+            getBodyWriter().write(data);
+        }
+
+        @Override
+        protected void onProgress(long uploadedBytes, long totalBytes, int chunkSize) {
+            progress.add(uploadedBytes);
+        }
+
+        @Override
+        protected void onCompleted(int responseCode, String responseBody) {
+            this.responseCode = responseCode;
+            this.responseBody = responseBody;
+        }
+    }
+
+    /**
+     * Opens the connections with the default stack, recording their methods and URLs.
+     */
+    private static class RecordingStack implements UploadHttpStack {
+
+        final List<String> requests = new ArrayList<String>();
+
+        @Override
+        public UploadHttpConnection open(String method, String url, int connectTimeout, int readTimeout)
+                throws IOException {
+            requests.add(method + " " + url);
+            return new HttpURLConnectionStack().open(method, url, connectTimeout, readTimeout);
+        }
+    }
+
+    private final RetryStrategy retryUnavailable = new RetryStrategy() {
+        @Override
+        public boolean isRetryable(int statusCode) {
+            return statusCode == 503;
+        }
+
+        @Override
+        public boolean isRetryable(Exception exc) {
+            return exc instanceof UploadStatusException
+                    && isRetryable(((UploadStatusException) exc).getResponseCode());
+        }
+
+        @Override
+        public long getNextDelay(long previousDelay, Random random) {
+            return 1;
+        }
+
+        @Override
+        public boolean isHonorRetryAfter() {
+            return false;
+        }
+    };
+
+    @Before
+    public void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/upload", handler);
+        server.start();
+        endpoint = "http://127.0.0.1:" + server.getAddress().getPort() + "/upload";
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void uploadsTheBody() throws Exception {
+        byte[] data = new byte[100000];
+        new Random(1).nextBytes(data);
+
+        TestJob job = new TestJob(new UploadEngine(), endpoint, data);
+        job.execute();
+
+        assertEquals(200, job.responseCode);
+        assertEquals("stored\n", job.responseBody);
+        assertArrayEquals(data, received);
+        assertEquals("yes", receivedHeader);
+        assertEquals(Long.valueOf(data.length), job.progress.get(job.progress.size() - 1));
+    }
+
+    @Test
+    public void retriesAndReportsEachAttempt() throws Exception {
+        failuresLeft.set(2);
+        final List<UploadMetrics> attempts = new ArrayList<UploadMetrics>();
+
+        UploadEngine engine = new UploadEngine();
+        engine.setMetricsListener(new UploadMetricsListener() {
+            @Override
+            public void onAttemptFinished(UploadMetrics metrics) {
+                attempts.add(metrics);
+            }
+        });
+
+        TestJob job = new TestJob(engine, endpoint, "data".getBytes("UTF-8"));
+        job.setRetryStrategy(retryUnavailable, 3);
+        job.execute();
+
+        assertEquals(200, job.responseCode);
+        assertEquals(3, attempts.size());
+        assertEquals(UploadMetrics.RESULT_RETRY, attempts.get(0).getResult());
+        assertEquals(503, attempts.get(0).getResponseCode());
+        assertEquals(UploadMetrics.RESULT_COMPLETED, attempts.get(2).getResult());
+        assertEquals(3, attempts.get(2).getAttempt());
+        assertEquals(4, attempts.get(2).getBytesWritten());
+        assertTrue(engine.getPhasePercentileMicros(UploadMetrics.PHASE_WAIT, 50) >= 0);
+    }
+
+    @Test
+    public void deliversTheLastResponseWhenRetriesAreExhausted() throws Exception {
+        failuresLeft.set(5);
+
+        TestJob job = new TestJob(new UploadEngine(), endpoint, "data".getBytes("UTF-8"));
+        job.setRetryStrategy(retryUnavailable, 1);
+        job.execute();
+
+        assertEquals(503, job.responseCode);
+        assertEquals("busy\n", job.responseBody);
+    }
+
+    @Test
+    public void opensTheConnectionsWithTheStackOfTheEngine() throws Exception {
+        RecordingStack stack = new RecordingStack();
+        UploadEngine engine = new UploadEngine();
+        engine.setHttpStack(stack);
+
+        TestJob job = new TestJob(engine, endpoint, "data".getBytes("UTF-8"));
+        job.execute();
+
+        assertEquals(200, job.responseCode);
+        assertEquals(Arrays.asList("POST " + endpoint), stack.requests);
+    }
+
+    @Test
+    public void theStackOfTheJobReplacesTheOneOfTheEngine() throws Exception {
+        failuresLeft.set(1);
+        RecordingStack engineStack = new RecordingStack();
+        RecordingStack jobStack = new RecordingStack();
+        UploadEngine engine = new UploadEngine();
+        engine.setHttpStack(engineStack);
+
+        TestJob job = new TestJob(engine, endpoint, "data".getBytes("UTF-8"));
+        job.setHttpStack(jobStack);
+        job.setRetryStrategy(retryUnavailable, 1);
+        job.execute();
+
+        assertEquals(200, job.responseCode);
+        assertArrayEquals("data".getBytes("UTF-8"), received);
+        assertEquals(2, jobStack.requests.size());
+        assertTrue(engineStack.requests.isEmpty());
+    }
+}
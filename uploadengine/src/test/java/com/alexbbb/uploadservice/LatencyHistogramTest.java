@@ -0,0 +1,57 @@
+package com.alexbbb.uploadservice;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void emptyHasNoPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getCount());
+        assertEquals(-1, histogram.getPercentile(50));
+    }
+
+    @Test
+    public void bucketsCoverEveryValue() {
+        long[] values = {0, 1, 7, 8, 15, 16, 17, 1000, 123456789, Long.MAX_VALUE};
+        for (long value : values) {
+            final int bucket = LatencyHistogram.getBucket(value);
+            final long upperBound = LatencyHistogram.getUpperBound(bucket);
+            assertTrue(value + " <= " + upperBound, value <= upperBound);
+            assertTrue(value + " within 12.5% of " + upperBound, upperBound - value <= value / 8);
+            if (bucket > 0) {
+                assertTrue(LatencyHistogram.getUpperBound(bucket - 1) < value);
+            }
+        }
+    }
+
+    @Test
+    public void percentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i);
+        }
+
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1, histogram.getPercentile(0));
+        assertWithin(500, histogram.getPercentile(50));
+        assertWithin(990, histogram.getPercentile(99));
+        assertWithin(1000, histogram.getPercentile(100));
+
+        histogram.reset();
+        assertEquals(-1, histogram.getPercentile(50));
+    }
+
+    @Test
+    public void negativeValuesAreRecordedAsZero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        assertEquals(0, histogram.getPercentile(100));
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        assertTrue(expected + " ~ " + actual, actual >= expected && actual - expected <= expected / 8);
+    }
+}
@@ -0,0 +1,115 @@
+package com.alexbbb.uploadservice;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class MultipartBodyTest {
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("multipart", ".txt");
+        FileOutputStream stream = new FileOutputStream(file);
+        stream.write("file content".getBytes("US-ASCII"));
+        stream.close();
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    private MultipartFile multipartFile(final String contentType) {
+        return new MultipartFile() {
+            @Override
+            public File getFile() {
+                return file;
+            }
+
+            @Override
+            public String getParameterName() {
+                return "upload";
+            }
+
+            @Override
+            public String getFileName() {
+                return "name.txt";
+            }
+
+            @Override
+            public String getContentType() {
+                return contentType;
+            }
+        };
+    }
+
+    private static byte[] write(MultipartBody body) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        body.writeTo(new BodyWriter() {
+            @Override
+            public void write(byte[] bytes) {
+                out.write(bytes, 0, bytes.length);
+            }
+
+            @Override
+            public void writeFile(File file) throws IOException {
+                InputStream in = new FileInputStream(file);
+                byte[] buffer = new byte[1024];
+                int read;
+                while ((read = in.read(buffer)) > 0) {
+                    out.write(buffer, 0, read);
+                }
+                in.close();
+            }
+        });
+        return out.toByteArray();
+    }
+
+    @Test
+    public void writesParametersAndFiles() throws IOException {
+        MultipartBody body = new MultipartBody(Arrays.asList(new NameValuePair("key", "val\u00fce")),
+                Collections.singletonList(multipartFile("text/plain")), "BOUNDARY");
+
+        String expected = "\r\n--BOUNDARY\r\n"
+                + "Content-Disposition: form-data; name=\"key\"\r\n\r\nval\u00fce"
+                + "\r\n--BOUNDARY\r\n"
+                + "Content-Disposition: form-data; name=\"upload\"; filename=\"name.txt\"\r\n"
+                + "Content-Type: text/plain\r\n\r\n"
+                + "file content"
+                + "\r\n--BOUNDARY--\r\n";
+
+        byte[] written = write(body);
+        assertEquals(expected, new String(written, "UTF-8"));
+        assertEquals(written.length, body.getLength());
+        assertEquals("multipart/form-data; boundary=BOUNDARY", body.getContentType());
+    }
+
+    @Test
+    public void filesWithoutContentTypeAreBinary() throws IOException {
+        MultipartBody body = new MultipartBody(null, Collections.singletonList(multipartFile(null)), "B");
+
+        assertTrue(new String(write(body), "US-ASCII").contains("Content-Type: application/octet-stream\r\n"));
+        assertEquals(write(body).length, body.getLength());
+    }
+
+    @Test
+    public void emptyBodyHasOnlyTheTrailer() throws IOException {
+        MultipartBody body = new MultipartBody(null, null, "B");
+
+        assertEquals("\r\n--B--\r\n", new String(write(body), "US-ASCII"));
+        assertEquals(9, body.getLength());
+    }
+}
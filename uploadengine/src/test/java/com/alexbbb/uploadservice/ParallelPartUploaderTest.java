@@ -0,0 +1,227 @@
+package com.alexbbb.uploadservice;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.Assert.*;
+
+public class ParallelPartUploaderTest {
+
+    private static final int PART_SIZE = 1000;
+    private static final int FILE_SIZE = 2500;
+
+    private HttpServer server;
+    private String endpoint;
+    private File file;
+    private byte[] data;
+    private volatile int failingPart = 0;
+
+    // part number -> body and headers of the parts received by the server
+    private final Map<Integer, byte[]> receivedParts = Collections.synchronizedMap(new TreeMap<Integer, byte[]>());
+    private final List<String> ranges = Collections.synchronizedList(new ArrayList<String>());
+    private final List<String> requests = Collections.synchronizedList(new ArrayList<String>());
+
+    /**
+     * Stores the parts and answers with their ETag, after failing the part which has to fail.
+     */
+    private final HttpHandler handler = new HttpHandler() {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            InputStream in = exchange.getRequestBody();
+            byte[] buffer = new byte[1024];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                body.write(buffer, 0, read);
+            }
+
+            int part = Integer.parseInt(exchange.getRequestHeaders().getFirst(ParallelPartUploader.HEADER_PART_NUMBER));
+            requests.add(part + " " + exchange.getRequestHeaders().getFirst("X-Test") + " "
+                    + exchange.getRequestHeaders().getFirst("Content-Type"));
+
+            exchange.getResponseHeaders().add("Connection", "close");
+            if (part == failingPart) {
+                failingPart = 0;
+                exchange.sendResponseHeaders(503, -1);
+                exchange.close();
+                return;
+            }
+
+            ranges.add(exchange.getRequestHeaders().getFirst("Content-Range"));
+            receivedParts.put(part, body.toByteArray());
+            exchange.getResponseHeaders().add("ETag", "\"etag-" + part + "\"");
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+        }
+    };
+
+    /**
+     * Opens the parts with the default stack and records the progress.
+     */
+    private class TestListener implements ParallelPartUploader.PartListener {
+
+        final List<Long> progress = Collections.synchronizedList(new ArrayList<Long>());
+
+        @Override
+        public boolean shouldContinue() {
+            return true;
+        }
+
+        @Override
+        public UploadHttpConnection openPart() throws IOException {
+            UploadHttpConnection conn = new HttpURLConnectionStack().open("PUT", endpoint, 0, 0);
+            conn.setHeader("X-Test", "yes");
+            return conn;
+        }
+
+        @Override
+        public int getChunkSize() {
+            return 300;
+        }
+
+        @Override
+        public void throttle(int bytes) {
+        }
+
+        @Override
+        public void onProgress(long bytes) {
+            progress.add(bytes);
+        }
+
+        long getUploadedBytes() {
+            long total = 0;
+            synchronized (progress) {
+                for (long bytes : progress) {
+                    total += bytes;
+                }
+            }
+            return total;
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/parts", handler);
+        server.start();
+        endpoint = "http://127.0.0.1:" + server.getAddress().getPort() + "/parts";
+
+        data = new byte[FILE_SIZE];
+        new Random(1).nextBytes(data);
+        file = File.createTempFile("parts", ".bin");
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(data);
+        out.close();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+        file.delete();
+    }
+
+    private ParallelPartUploader newUploader() {
+        return new ParallelPartUploader(new UploadEngine(), file, PART_SIZE, 2, 1024);
+    }
+
+    @Test
+    public void sendsEachPartWithItsRange() throws Exception {
+        ParallelPartUploader uploader = newUploader();
+        TestListener listener = new TestListener();
+
+        assertEquals(0, uploader.prepare(FILE_SIZE));
+        uploader.uploadMissingParts(listener);
+
+        assertEquals(Arrays.asList(1, 2, 3), new ArrayList<Integer>(receivedParts.keySet()));
+        assertArrayEquals(Arrays.copyOfRange(data, 0, 1000), receivedParts.get(1));
+        assertArrayEquals(Arrays.copyOfRange(data, 1000, 2000), receivedParts.get(2));
+        assertArrayEquals(Arrays.copyOfRange(data, 2000, 2500), receivedParts.get(3));
+
+        List<String> sortedRanges = new ArrayList<String>(ranges);
+        Collections.sort(sortedRanges);
+        assertEquals(Arrays.asList("bytes 0-999/2500", "bytes 1000-1999/2500", "bytes 2000-2499/2500"),
+                sortedRanges);
+
+        for (String request : requests) {
+            assertTrue(request, request.endsWith(" yes " + ContentType.APPLICATION_OCTET_STREAM));
+        }
+        assertEquals(FILE_SIZE, listener.getUploadedBytes());
+    }
+
+    @Test
+    public void rollsBackTheProgressOfAFailedPart() throws Exception {
+        failingPart = 2;
+        ParallelPartUploader uploader = newUploader();
+        TestListener listener = new TestListener();
+        uploader.prepare(FILE_SIZE);
+
+        try {
+            uploader.uploadMissingParts(listener);
+            fail("the failed part has not been reported");
+        } catch (UploadStatusException exc) {
+            assertEquals(503, exc.getResponseCode());
+        }
+
+        // the whole part has been written before the server refused it
+        assertTrue(listener.progress.contains(-1000L));
+        assertEquals(1500, listener.getUploadedBytes());
+    }
+
+    @Test
+    public void keepsTheETagsAcrossAttempts() throws Exception {
+        failingPart = 2;
+        ParallelPartUploader uploader = newUploader();
+        uploader.prepare(FILE_SIZE);
+
+        try {
+            uploader.uploadMissingParts(new TestListener());
+            fail("the failed part has not been reported");
+        } catch (UploadStatusException exc) {
+            assertEquals(503, exc.getResponseCode());
+        }
+
+        requests.clear();
+        TestListener retry = new TestListener();
+        assertEquals(1500, uploader.prepare(FILE_SIZE));
+        uploader.uploadMissingParts(retry);
+
+        // only the failed part is sent again
+        assertEquals(1, requests.size());
+        assertTrue(requests.get(0).startsWith("2 "));
+        assertEquals(1000, retry.getUploadedBytes());
+        assertArrayEquals(Arrays.copyOfRange(data, 1000, 2000), receivedParts.get(2));
+
+        assertEquals("{\"size\":2500,\"parts\":["
+                + "{\"partNumber\":1,\"etag\":\"\\\"etag-1\\\"\"},"
+                + "{\"partNumber\":2,\"etag\":\"\\\"etag-2\\\"\"},"
+                + "{\"partNumber\":3,\"etag\":\"\\\"etag-3\\\"\"}]}", uploader.getCompletionBody());
+    }
+
+    @Test
+    public void sendsEveryPartAgainWhenTheFileChanges() throws Exception {
+        ParallelPartUploader uploader = newUploader();
+        uploader.prepare(FILE_SIZE);
+        uploader.uploadMissingParts(new TestListener());
+
+        assertEquals(0, uploader.prepare(FILE_SIZE + 1));
+    }
+}
@@ -0,0 +1,103 @@
+package com.alexbbb.uploadservice;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ProgressAggregatorTest {
+
+    private final List<String> batches = new ArrayList<String>();
+    private final List<Long> rates = new ArrayList<Long>();
+
+    private final ProgressAggregator.Listener listener = new ProgressAggregator.Listener() {
+        @Override
+        public void onProgressBatch(String[] uploadIds, long[] uploadedBytes, long[] totalBytes, int[] chunkSizes,
+                                    long[] bytesPerSecond, long[] remainingMillis) {
+            List<String> items = new ArrayList<String>();
+            for (int i = 0; i < uploadIds.length; i++) {
+                items.add(uploadIds[i] + "=" + uploadedBytes[i] + "/" + totalBytes[i] + "@" + chunkSizes[i]);
+            }
+            String[] sorted = items.toArray(new String[items.size()]);
+            Arrays.sort(sorted);
+            batches.add(Arrays.toString(sorted));
+            for (long rate : bytesPerSecond) {
+                rates.add(rate);
+            }
+        }
+    };
+
+    @Test
+    public void coalescesUpdatesOfAllUploadsInOneBatch() {
+        ProgressAggregator aggregator = new ProgressAggregator();
+
+        for (int i = 1; i <= 100; i++) {
+            aggregator.update("a", i * 10, 1000, 4096);
+            aggregator.update("b", i, 100, 8192);
+        }
+
+        assertEquals(2, aggregator.tick(listener));
+        assertEquals("[[a=1000/1000@4096, b=100/100@8192]]", batches.toString());
+    }
+
+    @Test
+    public void reportsOnlyChangedUploads() {
+        ProgressAggregator aggregator = new ProgressAggregator();
+        aggregator.update("a", 10, 1000, 4096);
+        aggregator.update("b", 10, 100, 4096);
+        aggregator.tick(listener);
+
+        aggregator.update("b", 20, 100, 4096);
+        assertEquals(1, aggregator.tick(listener));
+        assertEquals("[b=20/100@4096]", batches.get(1));
+
+        assertEquals(0, aggregator.tick(listener));
+        assertEquals(2, batches.size());
+    }
+
+    @Test
+    public void idleSamplesDecayTheThroughputOfAStalledUpload() {
+        final long second = 1000000000L;
+        ProgressAggregator aggregator = new ProgressAggregator();
+        aggregator.update("a", 0, 100000, 4096);
+        aggregator.tick(listener, 0);
+        aggregator.update("a", 1000, 100000, 4096);
+        aggregator.tick(listener, second);
+        assertEquals(1000, (long) rates.get(1));
+
+        // no progress for ten seconds, then a single chunk
+        for (int i = 2; i <= 11; i++) {
+            aggregator.sampleIdle(i * second);
+        }
+        aggregator.update("a", 1100, 100000, 4096);
+        aggregator.tick(listener, 12 * second);
+
+        assertTrue("throughput " + rates.get(2), rates.get(2) < 100);
+    }
+
+    @Test
+    public void idleSamplesSkipUploadsWaitingForTheTick() {
+        final long second = 1000000000L;
+        ProgressAggregator aggregator = new ProgressAggregator();
+        aggregator.update("a", 0, 100000, 4096);
+        aggregator.tick(listener, 0);
+        aggregator.update("a", 1000, 100000, 4096);
+
+        aggregator.sampleIdle(second / 2);
+        aggregator.tick(listener, second);
+
+        assertEquals(1000, (long) rates.get(1));
+    }
+
+    @Test
+    public void forgetsRemovedUploads() {
+        ProgressAggregator aggregator = new ProgressAggregator();
+        aggregator.update("a", 10, 1000, 4096);
+        aggregator.remove("a");
+
+        assertEquals(0, aggregator.tick(listener));
+    }
+}
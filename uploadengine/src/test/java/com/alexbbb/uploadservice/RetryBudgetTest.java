@@ -0,0 +1,42 @@
+package com.alexbbb.uploadservice;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class RetryBudgetTest {
+
+    @Test
+    public void delaysRetriesWhenExhausted() {
+        RetryBudget budget = new RetryBudget(0.5, 1, 2);
+
+        assertEquals(0, budget.reserveRetry(0));
+        assertEquals(0, budget.reserveRetry(0));
+
+        // one retry per second is paid back by the refill
+        assertEquals(1000, budget.reserveRetry(0));
+        assertEquals(2000, budget.reserveRetry(0));
+    }
+
+    @Test
+    public void refillsOverTime() {
+        RetryBudget budget = new RetryBudget(0.5, 1, 2);
+        budget.reserveRetry(0);
+        budget.reserveRetry(0);
+
+        assertEquals(0, budget.reserveRetry(1000));
+        assertEquals(2, budget.getBalance(60000), 0.001);
+    }
+
+    @Test
+    public void startedUploadsDepositRetries() {
+        RetryBudget budget = new RetryBudget(0.5, 1, 2);
+        budget.reserveRetry(0);
+        budget.reserveRetry(0);
+
+        budget.onUploadStarted(0);
+        budget.onUploadStarted(0);
+        assertEquals(1, budget.getBalance(0), 0.001);
+        assertEquals(0, budget.reserveRetry(0));
+    }
+}
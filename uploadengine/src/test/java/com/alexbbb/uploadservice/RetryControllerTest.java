@@ -0,0 +1,94 @@
+package com.alexbbb.uploadservice;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class RetryControllerTest {
+
+    /**
+     * Retries every IOException and status 503, waiting twice the previous delay.
+     */
+    private final RetryStrategy doubling = new RetryStrategy() {
+        @Override
+        public boolean isRetryable(int statusCode) {
+            return statusCode == 503;
+        }
+
+        @Override
+        public boolean isRetryable(Exception exc) {
+            return exc instanceof IOException
+                    && (!(exc instanceof UploadStatusException)
+                        || isRetryable(((UploadStatusException) exc).getResponseCode()));
+        }
+
+        @Override
+        public long getNextDelay(long previousDelay, Random random) {
+            return previousDelay == 0 ? 100 : previousDelay * 2;
+        }
+
+        @Override
+        public boolean isHonorRetryAfter() {
+            return true;
+        }
+    };
+
+    @Test
+    public void retriesUntilTheLimit() {
+        RetryController controller = new RetryController(doubling, 2);
+        IOException exc = new IOException("connection reset");
+
+        assertTrue(controller.canRetry(1, exc));
+        assertTrue(controller.canRetry(2, exc));
+        assertFalse(controller.canRetry(3, exc));
+        assertFalse(controller.canRetry(1, new UploadStatusException(400, "", -1)));
+    }
+
+    @Test
+    public void delaysGrowFromThePreviousOne() {
+        RetryController controller = new RetryController(doubling, 5);
+        RetryBudget budget = new RetryBudget();
+        IOException exc = new IOException();
+
+        assertEquals(100, controller.getNextDelay(exc, budget, 0));
+        assertEquals(200, controller.getNextDelay(exc, budget, 0));
+        assertEquals(400, controller.getNextDelay(exc, budget, 0));
+    }
+
+    @Test
+    public void honorsRetryAfter() {
+        RetryController controller = new RetryController(doubling, 5);
+
+        assertEquals(5000, controller.getNextDelay(new UploadStatusException(503, "", 5000),
+                new RetryBudget(), 0));
+        // the next delay grows from the one actually waited
+        assertEquals(10000, controller.getNextDelay(new IOException(), new RetryBudget(), 0));
+    }
+
+    @Test
+    public void waitsForTheRetryBudget() {
+        RetryController controller = new RetryController(doubling, 5);
+        RetryBudget budget = new RetryBudget(0.5, 1, 1);
+
+        assertEquals(100, controller.getNextDelay(new IOException(), budget, 0));
+        assertEquals(1000, controller.getNextDelay(new IOException(), budget, 0));
+    }
+
+    @Test
+    public void neverRetries() {
+        RetryController controller = new RetryController(RetryStrategy.NEVER, 5);
+
+        assertFalse(controller.canRetry(1, new IOException()));
+        assertFalse(controller.isRetryable(503));
+    }
+
+    @Test
+    public void parsesRetryAfterSeconds() {
+        assertEquals(120000, RetryController.parseRetryAfter(" 120 ", 0));
+        assertEquals(-1, RetryController.parseRetryAfter("-5", 0));
+        assertEquals(RetryController.MAX_RETRY_AFTER, RetryController.parseRetryAfter("86400", 0));
+    }
+}
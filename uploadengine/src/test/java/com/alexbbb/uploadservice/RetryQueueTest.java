@@ -0,0 +1,36 @@
+package com.alexbbb.uploadservice;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class RetryQueueTest {
+
+    @Test
+    public void pollsOnlyDueUploads() {
+        RetryQueue queue = new RetryQueue();
+        queue.add("a", 300);
+        queue.add("b", 100);
+        queue.add("c", 200);
+
+        assertEquals(100, queue.getNextDueTime());
+        assertEquals(Collections.<String>emptyList(), queue.pollDue(50));
+        assertEquals(Arrays.asList("b", "c"), queue.pollDue(200));
+        assertEquals(1, queue.size());
+        assertEquals(300, queue.getNextDueTime());
+    }
+
+    @Test
+    public void removesWaitingUploads() {
+        RetryQueue queue = new RetryQueue();
+        queue.add("a", 100);
+
+        assertTrue(queue.remove("a"));
+        assertFalse(queue.remove("a"));
+        assertEquals(-1, queue.getNextDueTime());
+        assertTrue(queue.pollDue(1000).isEmpty());
+    }
+}
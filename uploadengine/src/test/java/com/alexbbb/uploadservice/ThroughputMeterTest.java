@@ -0,0 +1,63 @@
+package com.alexbbb.uploadservice;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ThroughputMeterTest {
+
+    private static final long SECOND = 1000000000L;
+
+    @Test
+    public void unknownUntilTwoSamples() {
+        ThroughputMeter meter = new ThroughputMeter();
+        assertEquals(-1, meter.getBytesPerSecond());
+
+        meter.sample(0, 0);
+        assertEquals(-1, meter.getBytesPerSecond());
+        assertEquals(-1, meter.getRemainingMillis(0, 1000));
+    }
+
+    @Test
+    public void steadyRateAndRemainingTime() {
+        ThroughputMeter meter = new ThroughputMeter();
+        for (int i = 0; i <= 10; i++) {
+            meter.sample(i * 100000L, i * SECOND / 2);
+        }
+
+        assertEquals(200000, meter.getBytesPerSecond());
+        assertEquals(5000, meter.getRemainingMillis(1000000, 2000000));
+        assertEquals(-1, meter.getRemainingMillis(1000000, -1));
+    }
+
+    @Test
+    public void followsRateChanges() {
+        ThroughputMeter meter = new ThroughputMeter();
+        long bytes = 0;
+        for (int i = 0; i <= 10; i++) {
+            meter.sample(bytes, i * SECOND);
+            bytes += 100000;
+        }
+        for (int i = 11; i <= 30; i++) {
+            meter.sample(bytes, i * SECOND);
+            bytes += 10000;
+        }
+
+        final long rate = meter.getBytesPerSecond();
+        assertTrue("rate " + rate, rate >= 10000 && rate < 11000);
+    }
+
+    @Test
+    public void restartDoesNotProduceNegativeRate() {
+        ThroughputMeter meter = new ThroughputMeter();
+        meter.sample(0, 0);
+        meter.sample(500000, SECOND);
+
+        // the upload is retried from the beginning
+        meter.sample(0, 2 * SECOND);
+        assertEquals(500000, meter.getBytesPerSecond());
+
+        meter.sample(500000, 3 * SECOND);
+        assertEquals(500000, meter.getBytesPerSecond());
+    }
+}
@@ -0,0 +1,71 @@
+package com.alexbbb.uploadservice;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+public class TokenBucketTest {
+
+    private static final long SECOND = 1000000000L;
+
+    @Test
+    public void unlimitedNeverWaits() {
+        TokenBucket bucket = new TokenBucket(0);
+        assertFalse(bucket.isLimited());
+        assertEquals(0, bucket.reserve(Integer.MAX_VALUE, 0));
+        assertEquals(Integer.MAX_VALUE, bucket.getMaxBurst());
+    }
+
+    @Test
+    public void allowsBurstThenPacesAtRate() {
+        // 1 MB/s: the burst is 100 ms, i.e. 100000 bytes
+        TokenBucket bucket = new TokenBucket(1000000);
+        assertEquals(100000, bucket.getMaxBurst());
+
+        assertEquals(0, bucket.reserve(100000, 0));
+        assertEquals(SECOND / 10, bucket.reserve(100000, 0));
+        assertEquals(SECOND * 2 / 10, bucket.reserve(100000, 0));
+
+        // after being idle, only the burst is available again
+        assertEquals(0, bucket.reserve(100000, 10 * SECOND));
+        assertEquals(SECOND / 10, bucket.reserve(100000, 10 * SECOND));
+    }
+
+    @Test
+    public void rateChangesApplyToNextReservations() {
+        TokenBucket bucket = new TokenBucket(1000000);
+        bucket.reserve(100000, 0);
+
+        bucket.setRate(0);
+        assertEquals(0, bucket.reserve(1000000, 0));
+
+        bucket.setRate(2000000);
+        assertTrue(bucket.reserve(400000, 0) > 0);
+    }
+
+    @Test
+    public void concurrentReservationsAreAllAccounted() throws Exception {
+        final TokenBucket bucket = new TokenBucket(1000000);
+        final int threads = 8;
+        final int reservations = 1000;
+        final CountDownLatch done = new CountDownLatch(threads);
+
+        for (int i = 0; i < threads; i++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < reservations; j++) {
+                        bucket.reserve(1000, 0);
+                    }
+                    done.countDown();
+                }
+            }).start();
+        }
+        done.await();
+
+        // 8 MB reserved at 1 MB/s: the next byte waits 8 s minus the 100 ms burst
+        assertEquals(8 * SECOND - SECOND / 10 + 1000, bucket.reserve(1, 0));
+    }
+}
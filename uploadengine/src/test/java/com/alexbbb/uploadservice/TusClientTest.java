@@ -0,0 +1,226 @@
+package com.alexbbb.uploadservice;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class TusClientTest {
+
+    private HttpServer server;
+    private String endpoint;
+    private final Map<String, ByteArrayOutputStream> uploads = new HashMap<String, ByteArrayOutputStream>();
+    private final Map<String, Long> lengths = new HashMap<String, Long>();
+    private volatile boolean dropNextPatch = false;
+    private volatile int failNextRequest = 0;
+
+    /**
+     * Minimal tus server: creation, HEAD and PATCH (through method override).
+     */
+    private final HttpHandler tusHandler = new HttpHandler() {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            String path = exchange.getRequestURI().getPath();
+            String method = exchange.getRequestHeaders().getFirst(TusClient.HEADER_METHOD_OVERRIDE);
+            if (method == null) {
+                method = exchange.getRequestMethod();
+            }
+
+            if (!TusClient.TUS_VERSION.equals(exchange.getRequestHeaders().getFirst(TusClient.HEADER_TUS_RESUMABLE))) {
+                reply(exchange, 412, null);
+                return;
+            }
+
+            if (failNextRequest != 0) {
+                final int code = failNextRequest;
+                failNextRequest = 0;
+                exchange.getResponseHeaders().add("Retry-After", "2");
+                reply(exchange, code, null);
+                return;
+            }
+
+            if ("POST".equals(method) && "/files".equals(path)) {
+                String id = "/files/" + (uploads.size() + 1);
+                uploads.put(id, new ByteArrayOutputStream());
+                lengths.put(id, Long.parseLong(exchange.getRequestHeaders().getFirst(TusClient.HEADER_UPLOAD_LENGTH)));
+                exchange.getResponseHeaders().add("Location", id);
+                reply(exchange, 201, null);
+                return;
+            }
+
+            ByteArrayOutputStream upload = uploads.get(path);
+            if (upload == null) {
+                reply(exchange, 404, null);
+                return;
+            }
+
+            if ("HEAD".equals(method)) {
+                reply(exchange, 200, (long) upload.size());
+                return;
+            }
+
+            if ("PATCH".equals(method)) {
+                long offset = Long.parseLong(exchange.getRequestHeaders().getFirst(TusClient.HEADER_UPLOAD_OFFSET));
+                if (offset != upload.size()) {
+                    reply(exchange, 409, null);
+                    return;
+                }
+                if (dropNextPatch) {
+                    // e.g. the server restarts, closing the connection without a response
+                    dropNextPatch = false;
+                    exchange.close();
+                    return;
+                }
+                InputStream body = exchange.getRequestBody();
+                byte[] buffer = new byte[1024];
+                int read;
+                while ((read = body.read(buffer)) > 0) {
+                    upload.write(buffer, 0, read);
+                }
+                reply(exchange, 204, (long) upload.size());
+                return;
+            }
+
+            reply(exchange, 405, null);
+        }
+
+        private void reply(HttpExchange exchange, int code, Long offset) throws IOException {
+            exchange.getResponseHeaders().add(TusClient.HEADER_TUS_RESUMABLE, TusClient.TUS_VERSION);
+            // HttpURLConnection doesn't retry a fixed length request sent on a kept alive
+            // connection which the server has closed meanwhile, so every request uses its own
+            exchange.getResponseHeaders().add("Connection", "close");
+            if (offset != null) {
+                exchange.getResponseHeaders().add(TusClient.HEADER_UPLOAD_OFFSET, offset.toString());
+            }
+            exchange.sendResponseHeaders(code, -1);
+            exchange.close();
+        }
+    };
+
+    @Before
+    public void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/files", tusHandler);
+        server.start();
+        endpoint = "http://127.0.0.1:" + server.getAddress().getPort() + "/files";
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    private long patch(TusClient client, String uploadUrl, long offset, byte[] data) throws IOException {
+        UploadHttpConnection conn = client.openPatch(uploadUrl, offset, data.length);
+        try {
+            OutputStream stream = conn.getOutputStream();
+            stream.write(data);
+            stream.close();
+            return client.finishPatch(conn, offset + data.length);
+        } finally {
+            conn.disconnect();
+        }
+    }
+
+    @Test
+    public void resumesFromServerOffset() throws Exception {
+        byte[] firstHalf = "hello tus ".getBytes("US-ASCII");
+        byte[] secondHalf = "resumable world".getBytes("US-ASCII");
+
+        TusClient client = new TusClient(new HttpURLConnectionStack(), endpoint, null);
+        String uploadUrl = client.createUpload(firstHalf.length + secondHalf.length, "filename dGVzdA==");
+        assertEquals(endpoint + "/1", uploadUrl);
+        assertEquals(0, client.getOffset(uploadUrl));
+        assertEquals(firstHalf.length, patch(client, uploadUrl, 0, firstHalf));
+
+        // e.g. after a process restart, a new client asks the server where to continue
+        TusClient resumed = new TusClient(new HttpURLConnectionStack(), endpoint, null);
+        long offset = resumed.getOffset(uploadUrl);
+        assertEquals(firstHalf.length, offset);
+        patch(resumed, uploadUrl, offset, secondHalf);
+
+        assertEquals("hello tus resumable world", uploads.get("/files/1").toString("US-ASCII"));
+        assertEquals(Long.valueOf(25), lengths.get("/files/1"));
+    }
+
+    @Test
+    public void droppedPatchFailsWithoutLosingTheOffset() throws Exception {
+        TusClient client = new TusClient(new HttpURLConnectionStack(), endpoint, null);
+        String uploadUrl = client.createUpload(10, null);
+        assertEquals(5, patch(client, uploadUrl, 0, "hello".getBytes("US-ASCII")));
+
+        dropNextPatch = true;
+        try {
+            patch(client, uploadUrl, 5, "world".getBytes("US-ASCII"));
+            fail("the dropped chunk has been accepted");
+        } catch (IOException exc) {
+            // a connection failure is retried, while a wrong offset reported by the server
+            // would mean that the upload is broken
+            assertFalse(exc instanceof FileNotFoundException);
+            assertFalse(String.valueOf(exc.getMessage()).contains("reported offset"));
+        }
+
+        // the retry continues from the offset the server still has
+        long offset = client.getOffset(uploadUrl);
+        assertEquals(5, offset);
+        assertEquals(10, patch(client, uploadUrl, offset, "world".getBytes("US-ASCII")));
+        assertEquals("helloworld", uploads.get("/files/1").toString("US-ASCII"));
+    }
+
+    @Test
+    public void reportsMissingUpload() throws Exception {
+        assertEquals(-1, new TusClient(new HttpURLConnectionStack(), endpoint, null).getOffset(endpoint + "/42"));
+    }
+
+    @Test
+    public void rejectsChunkAtWrongOffset() throws Exception {
+        TusClient client = new TusClient(new HttpURLConnectionStack(), endpoint, null);
+        String uploadUrl = client.createUpload(10, null);
+        try {
+            patch(client, uploadUrl, 5, new byte[5]);
+            fail("the rejected chunk has not been reported");
+        } catch (UploadStatusException exc) {
+            assertEquals(409, exc.getResponseCode());
+        }
+    }
+
+    @Test
+    public void reportsTheStatusOfAFailedCreation() throws Exception {
+        failNextRequest = 503;
+        try {
+            new TusClient(new HttpURLConnectionStack(), endpoint, null).createUpload(10, null);
+            fail("the failed creation has not been reported");
+        } catch (UploadStatusException exc) {
+            assertEquals(503, exc.getResponseCode());
+            assertEquals(2000, exc.getRetryAfterMillis());
+        }
+    }
+
+    @Test
+    public void reportsTheStatusOfAFailedHead() throws Exception {
+        TusClient client = new TusClient(new HttpURLConnectionStack(), endpoint, null);
+        String uploadUrl = client.createUpload(10, null);
+
+        failNextRequest = 403;
+        try {
+            client.getOffset(uploadUrl);
+            fail("the failed HEAD has not been reported");
+        } catch (UploadStatusException exc) {
+            assertEquals(403, exc.getResponseCode());
+        }
+    }
+}
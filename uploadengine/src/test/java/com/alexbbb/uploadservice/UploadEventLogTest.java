@@ -0,0 +1,52 @@
+package com.alexbbb.uploadservice;
+
+import org.junit.Test;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class UploadEventLogTest {
+
+    @Test
+    public void keepsTheMostRecentEvents() {
+        UploadEventLog log = new UploadEventLog(3);
+        log.log(1, "a", "queued", UploadEventLog.NO_VALUE);
+        log.log(2, "a", "attempt", 1);
+        log.log(3, "a", "retry", 503);
+        log.log(4, null, "notification", 2);
+
+        assertEquals(Arrays.asList("2 a attempt 1", "3 a retry 503", "4 - notification 2"), log.getEntries());
+    }
+
+    @Test
+    public void dumpsOldestFirst() {
+        UploadEventLog log = new UploadEventLog(10);
+        log.log(1, "a", "queued", UploadEventLog.NO_VALUE);
+        log.log(2, "b", "queued", UploadEventLog.NO_VALUE);
+
+        StringWriter output = new StringWriter();
+        PrintWriter writer = new PrintWriter(output);
+        log.dump(writer);
+        writer.flush();
+
+        String separator = System.getProperty("line.separator");
+        assertEquals("1 a queued" + separator + "2 b queued" + separator, output.toString());
+    }
+
+    @Test
+    public void capacityChangeDiscardsEvents() {
+        UploadEventLog log = new UploadEventLog(2);
+        log.log(1, "a", "queued", UploadEventLog.NO_VALUE);
+
+        log.setCapacity(0);
+        log.log(2, "a", "attempt", 1);
+        assertTrue(log.getEntries().isEmpty());
+
+        log.setCapacity(5);
+        log.log(3, "a", "attempt", 2);
+        assertEquals(Arrays.asList("3 a attempt 2"), log.getEntries());
+    }
+}
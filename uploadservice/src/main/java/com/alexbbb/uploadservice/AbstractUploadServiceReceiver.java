@@ -40,14 +40,27 @@ public abstract class AbstractUploadServiceReceiver extends BroadcastReceiver {
                         onCompleted(uploadId, responseCode, responseMsg);
                         break;
 
-                    case UploadService.STATUS_IN_PROGRESS:
-                        final int progress = intent.getIntExtra(UploadService.PROGRESS, 0);
-                        onProgress(uploadId, progress);
+                    case UploadService.STATUS_CANCELLED:
+                        onCancelled(uploadId);
+                        break;
 
-                        final long uploadedBytes = intent.getLongExtra(UploadService.PROGRESS_UPLOADED_BYTES, 0);
-                        final long totalBytes = intent.getLongExtra(UploadService.PROGRESS_TOTAL_BYTES, 1);
-                        onProgress(uploadId, uploadedBytes, totalBytes);
+                    case UploadService.STATUS_PAUSED:
+                        onPaused(uploadId);
+                        break;
 
+                    case UploadService.STATUS_PROGRESS_BATCH:
+                        final String[] uploadIds = intent.getStringArrayExtra(UploadService.UPLOAD_IDS);
+                        final long[] uploadedBytes = intent.getLongArrayExtra(UploadService.PROGRESS_UPLOADED_BYTES);
+                        final long[] totalBytes = intent.getLongArrayExtra(UploadService.PROGRESS_TOTAL_BYTES);
+                        final int[] chunkSizes = intent.getIntArrayExtra(UploadService.PROGRESS_CHUNK_SIZE);
+                        final long[] bytesPerSecond = intent.getLongArrayExtra(UploadService.PROGRESS_BYTES_PER_SECOND);
+                        final long[] remainingMillis = intent.getLongArrayExtra(UploadService.PROGRESS_REMAINING_TIME);
+
+                        if (uploadIds != null && uploadedBytes != null && totalBytes != null) {
+                            onProgressBatch(uploadIds, uploadedBytes, totalBytes);
+                            dispatchProgress(uploadIds, uploadedBytes, totalBytes, chunkSizes,
+                                    bytesPerSecond, remainingMillis);
+                        }
                         break;
 
                     default:
@@ -58,6 +71,24 @@ public abstract class AbstractUploadServiceReceiver extends BroadcastReceiver {
 
     }
 
+    private void dispatchProgress(final String[] uploadIds, final long[] uploadedBytes,
+                                  final long[] totalBytes, final int[] chunkSizes,
+                                  final long[] bytesPerSecond, final long[] remainingMillis) {
+        for (int i = 0; i < uploadIds.length; i++) {
+            final int progress = totalBytes[i] > 0 ? (int) (uploadedBytes[i] * 100 / totalBytes[i]) : -1;
+            onProgress(uploadIds[i], progress);
+            onProgress(uploadIds[i], uploadedBytes[i], totalBytes[i]);
+
+            if (chunkSizes != null && chunkSizes[i] > 0) {
+                onChunkSize(uploadIds[i], chunkSizes[i]);
+            }
+
+            if (bytesPerSecond != null && remainingMillis != null) {
+                onThroughput(uploadIds[i], bytesPerSecond[i], remainingMillis[i]);
+            }
+        }
+    }
+
     /**
      * Register this upload receiver.
      * It's recommended to register the receiver in Activity's onResume method.
@@ -84,7 +115,7 @@ public abstract class AbstractUploadServiceReceiver extends BroadcastReceiver {
      * Called when the upload progress changes.
      *
      * @param uploadId unique ID of the upload request
-     * @param progress value from 0 to 100
+     * @param progress value from 0 to 100, or -1 if the total size of the upload is unknown
      */
     public void onProgress(final String uploadId, final int progress) {
     }
@@ -94,11 +125,48 @@ public abstract class AbstractUploadServiceReceiver extends BroadcastReceiver {
      *
      * @param uploadId unique ID of the upload request
      * @param uploadedBytes the count of the bytes uploaded so far
-     * @param totalBytes the total expected bytes to upload
+     * @param totalBytes the total expected bytes to upload, or -1 if it's unknown
      */
     public void onProgress(final String uploadId, final long uploadedBytes, final long totalBytes) {
     }
 
+    /**
+     * Called once per progress tick, with the progress of all the uploads which made progress
+     * since the previous tick. The arrays have the same length and the same index refers to
+     * the same upload. It's called before the per upload progress methods, which are
+     * called for each upload of the batch.
+     *
+     * @param uploadIds unique IDs of the upload requests
+     * @param uploadedBytes the count of the bytes uploaded so far by each upload
+     * @param totalBytes the total expected bytes of each upload, or -1 if it's unknown
+     */
+    public void onProgressBatch(final String[] uploadIds, final long[] uploadedBytes,
+                                final long[] totalBytes) {
+    }
+
+    /**
+     * Called with each progress update, with the size of the blocks the upload is writing on
+     * the connection. The size adapts to the measured upload speed within the bounds set with
+     * {@link HttpUploadRequest#setAdaptiveChunkSize(int, int)}.
+     *
+     * @param uploadId unique ID of the upload request
+     * @param chunkSize size in bytes of the blocks currently written
+     */
+    public void onChunkSize(final String uploadId, final int chunkSize) {
+    }
+
+    /**
+     * Called with each progress update, with the average upload speed measured over the last
+     * few seconds and the estimated time to complete the upload.
+     *
+     * @param uploadId unique ID of the upload request
+     * @param bytesPerSecond average upload speed in bytes per second, or -1 if not measured yet
+     * @param remainingMillis estimated remaining time in milliseconds, or -1 if it can't be
+     *                        estimated, e.g. because the total size of the upload is unknown
+     */
+    public void onThroughput(final String uploadId, final long bytesPerSecond, final long remainingMillis) {
+    }
+
     /**
      * Called when an error happens during the upload.
      *
@@ -118,4 +186,20 @@ public abstract class AbstractUploadServiceReceiver extends BroadcastReceiver {
     public void onCompleted(final String uploadId, final int serverResponseCode,
                             final String serverResponseMessage) {
     }
+
+    /**
+     * Called when the upload has been cancelled with {@link UploadService#cancelUpload(String)}.
+     *
+     * @param uploadId unique ID of the upload request
+     */
+    public void onCancelled(final String uploadId) {
+    }
+
+    /**
+     * Called when the upload has been paused with {@link UploadService#pauseUpload(String)}.
+     *
+     * @param uploadId unique ID of the upload request
+     */
+    public void onPaused(final String uploadId) {
+    }
 }
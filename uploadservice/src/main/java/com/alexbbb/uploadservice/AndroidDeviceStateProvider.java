@@ -0,0 +1,94 @@
+package com.alexbbb.uploadservice;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.BatteryManager;
+
+/**
+ * Monitors the connectivity and the battery through their system broadcasts.
+ * The battery broadcast is sent on every change of the level, so the listener is notified
+ * only when the resulting state actually changes.
+ *
+ * @author alexbbb (Aleksandar Gotev)
+ */
+final class AndroidDeviceStateProvider extends BroadcastReceiver implements DeviceStateProvider {
+
+    private final Context context;
+    private Listener listener;
+    private Intent batteryStatus;
+    private DeviceState lastState;
+
+    AndroidDeviceStateProvider(Context context) {
+        this.context = context;
+    }
+
+    @Override
+    public void start(Listener listener) {
+        this.listener = listener;
+
+        final IntentFilter filter = new IntentFilter();
+        filter.addAction(ConnectivityManager.CONNECTIVITY_ACTION);
+        filter.addAction(Intent.ACTION_BATTERY_CHANGED);
+
+        // the battery broadcast is sticky, so its last value is returned immediately
+        batteryStatus = context.registerReceiver(this, filter);
+        lastState = getDeviceState();
+    }
+
+    @Override
+    public void stop() {
+        context.unregisterReceiver(this);
+        listener = null;
+    }
+
+    @Override
+    public DeviceState getDeviceState() {
+        final ConnectivityManager connectivityManager =
+                (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        final NetworkInfo network = connectivityManager == null ? null
+                                                                : connectivityManager.getActiveNetworkInfo();
+
+        final boolean connected = network != null && network.isConnected();
+        final boolean unmetered = connected && !connectivityManager.isActiveNetworkMetered();
+        final boolean roaming = connected && network.isRoaming();
+
+        boolean charging = false;
+        int batteryLevel = -1;
+
+        if (batteryStatus != null) {
+            final int status = batteryStatus.getIntExtra(BatteryManager.EXTRA_STATUS, -1);
+            charging = status == BatteryManager.BATTERY_STATUS_CHARGING
+                    || status == BatteryManager.BATTERY_STATUS_FULL
+                    || batteryStatus.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+
+            final int level = batteryStatus.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+            final int scale = batteryStatus.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+            if (level >= 0 && scale > 0) {
+                batteryLevel = level * 100 / scale;
+            }
+        }
+
+        return new DeviceState(connected, unmetered, roaming, charging, batteryLevel);
+    }
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        if (Intent.ACTION_BATTERY_CHANGED.equals(intent.getAction())) {
+            batteryStatus = intent;
+        }
+
+        final DeviceState state = getDeviceState();
+        if (state.equals(lastState)) {
+            return;
+        }
+
+        lastState = state;
+        if (listener != null) {
+            listener.onDeviceStateChanged(state);
+        }
+    }
+}
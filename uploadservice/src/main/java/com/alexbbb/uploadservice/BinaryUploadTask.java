@@ -24,8 +24,13 @@ class BinaryUploadTask extends HttpUploadTask {
         return file.length();
     }
 
+    @Override
+    protected boolean isBodyCompressible() throws IOException {
+        return BodyCompression.isCompressible(file.file, getHeader("Content-Type"));
+    }
+
     @Override
     protected void writeBody() throws IOException {
-        writeStream(file.getStream());
+        writeFile(file.file);
     }
 }
@@ -0,0 +1,65 @@
+package com.alexbbb.uploadservice;
+
+/**
+ * Snapshot of the network and power state of the device, against which the
+ * {@link UploadConstraints} of the uploads are checked.
+ *
+ * @author alexbbb (Aleksandar Gotev)
+ */
+final class DeviceState {
+
+    /**
+     * State used when nothing is known about the device: it satisfies any constraint.
+     */
+    static final DeviceState UNCONSTRAINED = new DeviceState(true, true, false, true, 100);
+
+    final boolean connected;
+    final boolean unmetered;
+    final boolean roaming;
+    final boolean charging;
+    final int batteryLevel;
+
+    /**
+     * @param connected true if there is a network connection
+     * @param unmetered true if the active network is not metered
+     * @param roaming true if the active network is roaming
+     * @param charging true if the device is plugged in
+     * @param batteryLevel battery level in percent, or -1 if unknown
+     */
+    DeviceState(boolean connected, boolean unmetered, boolean roaming, boolean charging, int batteryLevel) {
+        this.connected = connected;
+        this.unmetered = unmetered;
+        this.roaming = roaming;
+        this.charging = charging;
+        this.batteryLevel = batteryLevel;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof DeviceState)) {
+            return false;
+        }
+
+        final DeviceState state = (DeviceState) other;
+        return connected == state.connected && unmetered == state.unmetered && roaming == state.roaming
+                && charging == state.charging && batteryLevel == state.batteryLevel;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = connected ? 1 : 0;
+        result = 31 * result + (unmetered ? 1 : 0);
+        result = 31 * result + (roaming ? 1 : 0);
+        result = 31 * result + (charging ? 1 : 0);
+        return 31 * result + batteryLevel;
+    }
+
+    @Override
+    public String toString() {
+        return "DeviceState{connected=" + connected + ", unmetered=" + unmetered + ", roaming=" + roaming
+                + ", charging=" + charging + ", batteryLevel=" + batteryLevel + "}";
+    }
+}
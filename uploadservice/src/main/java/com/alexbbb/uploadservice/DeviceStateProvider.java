@@ -0,0 +1,38 @@
+package com.alexbbb.uploadservice;
+
+/**
+ * Source of the network and power state of the device. The service uses
+ * {@link AndroidDeviceStateProvider}, while tests can drive the scheduling with a fake.
+ *
+ * @author alexbbb (Aleksandar Gotev)
+ */
+interface DeviceStateProvider {
+
+    interface Listener {
+        /**
+         * Called on the main thread when the state of the device changes.
+         *
+         * @param state new state
+         */
+        void onDeviceStateChanged(DeviceState state);
+    }
+
+    /**
+     * Starts monitoring the device.
+     *
+     * @param listener listener notified when the state changes
+     */
+    void start(Listener listener);
+
+    /**
+     * Stops monitoring the device.
+     */
+    void stop();
+
+    /**
+     * Gets the current state of the device.
+     *
+     * @return current state
+     */
+    DeviceState getDeviceState();
+}
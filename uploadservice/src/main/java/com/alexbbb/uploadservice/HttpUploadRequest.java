@@ -21,6 +21,19 @@ public abstract class HttpUploadRequest {
     private final Context context;
     private String customUserAgent;
     private int maxRetries;
+    private RetryPolicy retryPolicy;
+    private boolean requiresUnmeteredNetwork;
+    private boolean requiresCharging;
+    private int minBatteryLevel;
+    private boolean roamingAllowed = true;
+    private long maxUploadRate;
+    private String httpStack;
+    private int priority;
+    private int chunkSize;
+    private String contentEncoding;
+    private int readBufferSize;
+    private int minChunkSize = AdaptiveChunkSizer.DEFAULT_MIN_CHUNK_SIZE;
+    private int maxChunkSize = AdaptiveChunkSizer.DEFAULT_MAX_CHUNK_SIZE;
     private final String uploadId;
     private final String url;
     private final ArrayList<NameValue> headers;
@@ -40,6 +53,7 @@ public abstract class HttpUploadRequest {
         url = serverUrl;
         headers = new ArrayList<NameValue>();
         maxRetries = 0;
+        retryPolicy = new RetryPolicy();
     }
 
     /**
@@ -69,6 +83,19 @@ public abstract class HttpUploadRequest {
         intent.putExtra(UploadService.PARAM_METHOD, getMethod());
         intent.putExtra(UploadService.PARAM_CUSTOM_USER_AGENT, getCustomUserAgent());
         intent.putExtra(UploadService.PARAM_MAX_RETRIES, getMaxRetries());
+        intent.putExtra(UploadService.PARAM_RETRY_POLICY, getRetryPolicy());
+        intent.putExtra(UploadService.PARAM_REQUIRES_UNMETERED_NETWORK, isRequiresUnmeteredNetwork());
+        intent.putExtra(UploadService.PARAM_REQUIRES_CHARGING, isRequiresCharging());
+        intent.putExtra(UploadService.PARAM_MIN_BATTERY_LEVEL, getMinBatteryLevel());
+        intent.putExtra(UploadService.PARAM_ROAMING_ALLOWED, isRoamingAllowed());
+        intent.putExtra(UploadService.PARAM_MAX_UPLOAD_RATE, getMaxUploadRate());
+        intent.putExtra(UploadService.PARAM_HTTP_STACK, httpStack);
+        intent.putExtra(UploadService.PARAM_PRIORITY, getPriority());
+        intent.putExtra(UploadService.PARAM_CHUNK_SIZE, getChunkSize());
+        intent.putExtra(UploadService.PARAM_CONTENT_ENCODING, getContentEncoding());
+        intent.putExtra(UploadService.PARAM_READ_BUFFER_SIZE, getReadBufferSize());
+        intent.putExtra(UploadService.PARAM_MIN_CHUNK_SIZE, minChunkSize);
+        intent.putExtra(UploadService.PARAM_MAX_CHUNK_SIZE, maxChunkSize);
         intent.putParcelableArrayListExtra(UploadService.PARAM_REQUEST_HEADERS, getHeaders());
     }
 
@@ -233,4 +260,218 @@ public abstract class HttpUploadRequest {
         else
             this.maxRetries = maxRetries;
     }
+
+    public final RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * Sets the policy which decides which errors are retried and how long to wait before
+     * each retry. The number of retries is set with {@link #setMaxRetries(int)}.
+     *
+     * @param retryPolicy retry policy, or null to restore the default one
+     */
+    public final void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy == null ? new RetryPolicy() : retryPolicy;
+    }
+
+    public final boolean isRequiresUnmeteredNetwork() {
+        return requiresUnmeteredNetwork;
+    }
+
+    /**
+     * Sets if the upload runs only on unmetered networks, like Wi-Fi. The upload waits in the
+     * queue until such a network is available, and it's paused if the device switches to a
+     * metered one. By default it's false.
+     *
+     * @param requiresUnmeteredNetwork true to upload only on unmetered networks
+     */
+    public final void setRequiresUnmeteredNetwork(boolean requiresUnmeteredNetwork) {
+        this.requiresUnmeteredNetwork = requiresUnmeteredNetwork;
+    }
+
+    public final boolean isRequiresCharging() {
+        return requiresCharging;
+    }
+
+    /**
+     * Sets if the upload runs only while the device is charging. By default it's false.
+     *
+     * @param requiresCharging true to upload only while charging
+     */
+    public final void setRequiresCharging(boolean requiresCharging) {
+        this.requiresCharging = requiresCharging;
+    }
+
+    public final int getMinBatteryLevel() {
+        return minBatteryLevel;
+    }
+
+    /**
+     * Sets the minimum battery level needed to run the upload, unless the device is charging.
+     * By default it's 0, which means no minimum.
+     *
+     * @param percent minimum battery level, from 0 to 100
+     */
+    public final void setMinBatteryLevel(int percent) {
+        this.minBatteryLevel = Math.max(0, Math.min(100, percent));
+    }
+
+    public final boolean isRoamingAllowed() {
+        return roamingAllowed;
+    }
+
+    /**
+     * Sets if the upload can run while the device is roaming. By default it's true.
+     *
+     * @param roamingAllowed false to wait until the device is not roaming
+     */
+    public final void setRoamingAllowed(boolean roamingAllowed) {
+        this.roamingAllowed = roamingAllowed;
+    }
+
+    public final long getMaxUploadRate() {
+        return maxUploadRate;
+    }
+
+    /**
+     * Sets the maximum rate at which this upload sends data. The limit applies together with
+     * the global one set with {@link UploadService#setMaxUploadRate(long)}, and it can be
+     * changed while the upload is running with {@link UploadService#setMaxUploadRate(String, long)}.
+     * By default it's 0, which means no limit.
+     *
+     * @param bytesPerSecond maximum rate in bytes per second, or 0 for no limit
+     */
+    public final void setMaxUploadRate(long bytesPerSecond) {
+        this.maxUploadRate = Math.max(0, bytesPerSecond);
+    }
+
+    /**
+     * Sets the HTTP stack used by this upload, instead of the global one set with
+     * {@link UploadService#setHttpStack(UploadHttpStack)}. The upload runs in the service, so
+     * the stack is passed by class name and a new instance is created with its public
+     * constructor without arguments.
+     *
+     * @param stackClass class of the HTTP stack, or null to use the global one
+     */
+    public final void setHttpStack(Class<? extends UploadHttpStack> stackClass) {
+        this.httpStack = stackClass == null ? null : stackClass.getName();
+    }
+
+    /**
+     * Gets the priority of this upload request.
+     *
+     * @return
+     */
+    public final int getPriority() {
+        return priority;
+    }
+
+    /**
+     * Sets the priority of this upload request. It's used when the
+     * {@link UploadSchedulingPolicy#PRIORITY} scheduling policy is active: uploads with higher
+     * priority are started first. By default it's 0.
+     *
+     * @param priority
+     */
+    public final void setPriority(int priority) {
+        this.priority = priority;
+    }
+
+    /**
+     * Gets the chunk size used to send the request body with chunked transfer encoding.
+     *
+     * @return chunk size in bytes, or 0 if the body is sent with a fixed Content-Length
+     */
+    public final int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * Sends the request body with chunked transfer encoding instead of a fixed Content-Length.
+     * Make sure your server side supports it! Bodies whose length is not known in advance are
+     * always sent in chunked mode.
+     *
+     * @param chunkSize size of each chunk in bytes. Pass 0 to send the body with a fixed
+     *                  Content-Length
+     */
+    public final void setChunkedStreamingMode(int chunkSize) {
+        if (chunkSize < 0)
+            this.chunkSize = 0;
+        else
+            this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Gets the encoding used to compress the request body.
+     *
+     * @return {@link ContentEncoding#GZIP}, {@link ContentEncoding#DEFLATE} or null if the body
+     * is not compressed
+     */
+    public final String getContentEncoding() {
+        return contentEncoding;
+    }
+
+    /**
+     * Compresses the request body with the given encoding. Make sure your server side supports
+     * compressed requests! Compressed bodies are always sent in chunked mode.
+     * Files of already compressed types (e.g. JPEG, MPEG or ZIP) and files whose first block
+     * doesn't shrink enough are sent without compression. Progress is reported in bytes of the
+     * original files.
+     *
+     * @param contentEncoding {@link ContentEncoding#GZIP}, {@link ContentEncoding#DEFLATE}
+     *                        or null to disable compression
+     */
+    public final void setContentEncoding(String contentEncoding) {
+        if (contentEncoding != null && !ContentEncoding.GZIP.equals(contentEncoding)
+                && !ContentEncoding.DEFLATE.equals(contentEncoding)) {
+            throw new IllegalArgumentException("Unsupported content encoding: " + contentEncoding);
+        }
+        this.contentEncoding = contentEncoding;
+    }
+
+    /**
+     * Gets the size of the blocks in which the files are read and written on the connection.
+     *
+     * @return size in bytes, or 0 if the size adapts to the connection speed
+     */
+    public final int getReadBufferSize() {
+        return readBufferSize;
+    }
+
+    /**
+     * Sets a fixed size for the blocks in which the files are read and written on the
+     * connection, instead of adapting it to the connection speed. See
+     * {@link #setAdaptiveChunkSize(int, int)}.
+     * Larger blocks mean fewer system calls per uploaded MB, at the cost of memory.
+     * Values are kept between 4 KB and 4 MB and rounded up to a power of two.
+     *
+     * @param readBufferSize size in bytes. Pass 0 to adapt the size to the connection speed
+     */
+    public final void setReadBufferSize(int readBufferSize) {
+        if (readBufferSize < 0)
+            this.readBufferSize = 0;
+        else
+            this.readBufferSize = readBufferSize;
+    }
+
+    /**
+     * Sets the bounds of the size of the blocks written on the connection. The size adapts to
+     * the measured upload speed: small blocks on slow connections, so progress is fine grained
+     * and cancel is fast, large blocks on fast connections, so fewer system calls are needed.
+     * The size in use is reported with each progress broadcast. Values are kept between 4 KB
+     * and 4 MB and rounded up to a power of two. By default they're 4 KB and 256 KB.
+     *
+     * @param minChunkSize minimum block size in bytes
+     * @param maxChunkSize maximum block size in bytes
+     */
+    public final void setAdaptiveChunkSize(int minChunkSize, int maxChunkSize) {
+        if (minChunkSize <= 0 || maxChunkSize < minChunkSize) {
+            throw new IllegalArgumentException("Chunk size bounds must be positive and the minimum "
+                    + "can't be greater than the maximum");
+        }
+        this.minChunkSize = minChunkSize;
+        this.maxChunkSize = maxChunkSize;
+        this.readBufferSize = 0;
+    }
 }
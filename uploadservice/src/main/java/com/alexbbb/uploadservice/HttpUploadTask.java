@@ -1,245 +1,469 @@
 package com.alexbbb.uploadservice;
 
-import android.annotation.SuppressLint;
+import android.app.Notification;
 import android.content.Intent;
-import android.os.SystemClock;
+import android.graphics.Color;
+import android.media.RingtoneManager;
+import android.os.Build;
 import android.util.Log;
 
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.io.UnsupportedEncodingException;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
- * Generic HTTP Upload Task.
+ * Generic HTTP Upload Task. Runs an {@link HttpUploadJob} in the {@link UploadService},
+ * reporting its progress and outcome with notifications and broadcasts.
  *
  * @author cankov
  */
-abstract class HttpUploadTask {
+abstract class HttpUploadTask extends HttpUploadJob implements Runnable {
 
-    private static final int BUFFER_SIZE = 4096;
+    static final int STOP_NONE = 0;
+    static final int STOP_CANCEL = 1;
+    static final int STOP_PAUSE = 2;
+    static final int STOP_SHUTDOWN = 3;
+    static final int STOP_CONSTRAINTS = 4;
 
     protected UploadService service;
 
-    protected final String uploadId;
-    protected final String url;
-    protected final String method;
-    protected final String customUserAgent;
-    protected final int maxRetries;
-    protected final ArrayList<NameValue> headers;
+    protected final UploadConstraints constraints;
+    protected final int priority;
+    protected final UploadNotificationConfig notificationConfig;
 
-    protected HttpURLConnection connection = null;
-    protected OutputStream requestStream = null;
-    protected InputStream responseStream = null;
-    protected boolean shouldContinue = true;
+    private volatile int stopReason = STOP_NONE;
+    private final AtomicBoolean finished = new AtomicBoolean(false);
+    private final Object stopLock = new Object();
 
-    protected long totalBodyBytes;
-    protected long uploadedBodyBytes;
+    private int attempts = 0;
+    // the attempts stopped by the constraints are not counted, so they can't tell if the
+    // upload has already been started
+    private boolean started = false;
+    private long errorDelay = 0;
+
+    private int notificationId;
+    private Notification.Builder notification;
+    private final Object notificationLock = new Object();
 
     HttpUploadTask(UploadService service, Intent intent) {
+        super(UploadService.getEngine(),
+              intent.getStringExtra(UploadService.PARAM_ID),
+              intent.getStringExtra(UploadService.PARAM_URL),
+              intent.getStringExtra(UploadService.PARAM_METHOD),
+              intent.<NameValue>getParcelableArrayListExtra(UploadService.PARAM_REQUEST_HEADERS),
+              getMinChunkSize(intent), getMaxChunkSize(intent));
 
         this.service = service;
 
-        this.uploadId = intent.getStringExtra(UploadService.PARAM_ID);
-        this.url = intent.getStringExtra(UploadService.PARAM_URL);
-        this.method = intent.getStringExtra(UploadService.PARAM_METHOD);
-        this.customUserAgent = intent.getStringExtra(UploadService.PARAM_CUSTOM_USER_AGENT);
-        this.maxRetries = intent.getIntExtra(UploadService.PARAM_MAX_RETRIES, 0);
-        this.headers = intent.getParcelableArrayListExtra(UploadService.PARAM_REQUEST_HEADERS);
+        final String customUserAgent = intent.getStringExtra(UploadService.PARAM_CUSTOM_USER_AGENT);
+        if (customUserAgent != null && !customUserAgent.equals("")) {
+            headers.add(new NameValue("User-Agent", customUserAgent));
+        }
+
+        final RetryPolicy policy = intent.getParcelableExtra(UploadService.PARAM_RETRY_POLICY);
+        setRetryStrategy(policy == null ? new RetryPolicy() : policy,
+                intent.getIntExtra(UploadService.PARAM_MAX_RETRIES, 0));
+        setChunkSize(intent.getIntExtra(UploadService.PARAM_CHUNK_SIZE, 0));
+        setContentEncoding(intent.getStringExtra(UploadService.PARAM_CONTENT_ENCODING));
+        setMaxUploadRate(intent.getLongExtra(UploadService.PARAM_MAX_UPLOAD_RATE, 0));
+        setHttpStack(createHttpStack(intent.getStringExtra(UploadService.PARAM_HTTP_STACK)));
+
+        this.constraints = UploadConstraints.fromIntent(intent);
+        this.priority = intent.getIntExtra(UploadService.PARAM_PRIORITY, 0);
+        this.notificationConfig = intent.getParcelableExtra(UploadService.PARAM_NOTIFICATION_CONFIG);
     }
 
+    /**
+     * Creates the HTTP stack set on the request. If it can't be created, the upload uses the
+     * global one instead of failing.
+     */
+    private UploadHttpStack createHttpStack(String className) {
+        if (className == null) {
+            return null;
+        }
+
+        try {
+            return (UploadHttpStack) Class.forName(className).newInstance();
+        } catch (Exception exc) {
+            Log.e(getClass().getName(), "Can't create the HTTP stack " + className
+                    + " of upload " + uploadId + ". Using the global one", exc);
+            return null;
+        }
+    }
+
+    // a read buffer size set explicitly fixes the chunk size
+    private static int getMinChunkSize(Intent intent) {
+        final int fixedChunkSize = intent.getIntExtra(UploadService.PARAM_READ_BUFFER_SIZE, 0);
+        return fixedChunkSize > 0 ? fixedChunkSize
+                : intent.getIntExtra(UploadService.PARAM_MIN_CHUNK_SIZE, AdaptiveChunkSizer.DEFAULT_MIN_CHUNK_SIZE);
+    }
+
+    private static int getMaxChunkSize(Intent intent) {
+        final int fixedChunkSize = intent.getIntExtra(UploadService.PARAM_READ_BUFFER_SIZE, 0);
+        return fixedChunkSize > 0 ? fixedChunkSize
+                : intent.getIntExtra(UploadService.PARAM_MAX_CHUNK_SIZE, AdaptiveChunkSizer.DEFAULT_MAX_CHUNK_SIZE);
+    }
+
+    void setNotificationId(int notificationId) {
+        this.notificationId = notificationId;
+    }
+
+    /**
+     * Runs an attempt of the upload. If it fails and has to be retried, the task is handed
+     * to the service, which runs it again when the retry delay has elapsed, so the worker
+     * thread and the wake lock are not held while waiting.
+     * If it's stopped because its constraints don't hold anymore, it's queued again and
+     * started when they hold, without consuming a retry.
+     */
+    @Override
     public void run() {
-        int attempts = 0;
+        boolean requeued = false;
+        boolean attempted = false;
+
+        try {
+            if (shouldContinue) {
+                if (!started) {
+                    started = true;
+                    createNotification();
+                    engine.getRetryBudget(url).onUploadStarted(System.currentTimeMillis());
+                }
+                attempted = true;
+                requeued = runAttempt();
+            }
+        } finally {
+            releaseReadBuffer();
+            if (!requeued && stopReason == STOP_CONSTRAINTS) {
+                // the attempt stopped by the constraints doesn't consume a retry, whether it
+                // failed or returned when the connection was torn down
+                if (attempted) {
+                    attempts--;
+                }
+                requeued = service.waitForConstraints(this);
+            }
+            if (!requeued) {
+                if (stopReason != STOP_NONE) {
+                    broadcastStopped();
+                }
+                service.taskCompleted(uploadId);
+            }
+        }
+    }
 
-        int errorDelay = 1000;
-        int maxErrorDelay = 10 * 60 * 1000;
+    /**
+     * @return true if the attempt failed and the service will retry the upload later
+     */
+    private boolean runAttempt() {
+        attempts++;
+        startAttempt(attempts);
 
-        while (attempts <= maxRetries && shouldContinue) {
-            attempts++;
+        try {
+            final boolean traced = UploadTrace.beginSection("HttpUploadTask.upload");
             try {
                 this.upload();
+            } finally {
+                UploadTrace.endSection(traced);
+            }
+            finishAttempt(shouldContinue ? UploadMetrics.RESULT_COMPLETED : UploadMetrics.RESULT_STOPPED, null);
+            return false;
+
+        } catch (Exception uploadExc) {
+            final Exception exc = getAttemptFailure(uploadExc);
+            final RetryController retryController = getRetryController();
 
-                break;
-            } catch (Exception exc) {
-                if (attempts > maxRetries || !shouldContinue) {
-                    broadcastError(exc);
-                } else {
-                    Log.w(getClass().getName(), "Error in uploadId " + uploadId + " on attempt " + attempts
-                                    + ". Waiting " + errorDelay / 1000 + "s before next attempt",
-                            exc);
-                    SystemClock.sleep(errorDelay);
-
-                    errorDelay *= 10;
-                    if (errorDelay > maxErrorDelay) {
-                        errorDelay = maxErrorDelay;
-                    }
+            if (!shouldContinue) {
+                // the failure is caused by the connection being torn down by stop()
+                finishAttempt(UploadMetrics.RESULT_STOPPED, exc);
+                return false;
+            }
+
+            if (retryController.isRetryable(exc) && !service.areConstraintsSatisfied(constraints)) {
+                // e.g. the device went offline: the upload waits for the network to come
+                // back, instead of consuming its retries
+                finishAttempt(UploadMetrics.RESULT_STOPPED, exc);
+                stop(STOP_CONSTRAINTS);
+                return false;
+            }
+
+            if (!retryController.canRetry(attempts, exc)) {
+                finishAttempt(UploadMetrics.RESULT_FAILED, exc);
+                if (!retryController.isRetryable(exc)) {
+                    discardResumeState();
                 }
+                giveUp(exc);
+                return false;
             }
+
+            errorDelay = retryController.getNextDelay(exc, engine.getRetryBudget(url), System.currentTimeMillis());
+            Log.w(getClass().getName(), "Error in uploadId " + uploadId + " on attempt " + attempts
+                            + ". Waiting " + errorDelay + "ms before next attempt",
+                    exc);
+            // the metrics are reported before the next attempt can start
+            finishAttempt(UploadMetrics.RESULT_RETRY, exc);
+            return service.scheduleRetry(this, errorDelay);
         }
     }
 
-    public void cancel() {
-        this.shouldContinue = false;
+    /**
+     * Reports a failure which is not going to be retried. Server responses are delivered to
+     * the app as completed uploads, like the responses which are not retryable.
+     */
+    private void giveUp(Exception exc) {
+        if (exc instanceof UploadStatusException && ((UploadStatusException) exc).getResponseBody() != null) {
+            final UploadStatusException statusException = (UploadStatusException) exc;
+            broadcastCompleted(statusException.getResponseCode(), statusException.getResponseBody());
+        } else {
+            broadcastError(exc);
+        }
     }
 
-    protected void broadcastProgress(long uploadedBytes, long totalBytes) {
-        this.service.broadcastProgress(uploadId, uploadedBytes, totalBytes);
+    /**
+     * Called when the upload can't be resumed anymore, because it has been cancelled or it
+     * failed with an error which is not retryable. Override it to discard the state kept to
+     * resume the upload. It's not called for uploads which are paused or which run out of
+     * retries, so they can still be resumed when they're submitted again.
+     */
+    protected void discardResumeState() {
     }
 
-    private void broadcastError(Exception exc) {
-        this.service.broadcastError(uploadId, exc);
+    public void cancel() {
+        stop(STOP_CANCEL);
     }
 
-    private void broadcastCompleted(final int responseCode, final String responseMessage) {
-        this.service.broadcastCompleted(uploadId, responseCode, responseMessage);
+    @Override
+    public void stop() {
+        stop(STOP_CANCEL);
     }
 
-    @SuppressLint("NewApi")
-    protected void upload() throws IOException {
+    /**
+     * Stops the task from any thread. If the upload is in progress, the connection is torn down
+     * immediately, so the worker doesn't have to wait for the current write to complete.
+     *
+     * @param reason one of {@link #STOP_CANCEL}, {@link #STOP_PAUSE}, {@link #STOP_SHUTDOWN}
+     *               or {@link #STOP_CONSTRAINTS}
+     */
+    void stop(int reason) {
+        synchronized (stopLock) {
+            if (finished.get()) {
+                return;
+            }
 
-        try {
-            totalBodyBytes = getBodyLength();
+            // a stop requested by the app wins over the constraints, which would queue the
+            // upload again
+            if (reason == STOP_CONSTRAINTS && stopReason != STOP_NONE) {
+                return;
+            }
 
-            if (android.os.Build.VERSION.SDK_INT < 19 && totalBodyBytes > Integer.MAX_VALUE)
-                throw new IOException("You need Android API version 19 or newer to "
-                        + "upload more than 2GB in a single request using "
-                        + "fixed size content length. Try switching to "
-                        + "chunked mode instead, but make sure your server side supports it!");
+            stopReason = reason;
+            shouldContinue = false;
+        }
 
-            connection = getHttpURLConnection();
+        abortConnections();
+    }
 
-            if (customUserAgent != null && !customUserAgent.equals("")) {
-                headers.add(new NameValue("User-Agent", customUserAgent));
+    /**
+     * Prepares a task stopped by {@link #STOP_CONSTRAINTS} to be queued again.
+     *
+     * @return true if the task can be queued again, false if it has been stopped for another
+     * reason in the meantime
+     */
+    boolean prepareToWaitForConstraints() {
+        synchronized (stopLock) {
+            if (stopReason != STOP_CONSTRAINTS) {
+                return false;
             }
 
-            setRequestHeaders();
+            stopReason = STOP_NONE;
+            shouldContinue = true;
+            return true;
+        }
+    }
 
-            if (android.os.Build.VERSION.SDK_INT >= 19) {
-                connection.setFixedLengthStreamingMode(totalBodyBytes);
-            } else {
-                connection.setFixedLengthStreamingMode((int) totalBodyBytes);
-            }
+    /**
+     * Stops a task which has been removed from the queue, or from the retry queue, before
+     * being started.
+     *
+     * @param reason one of {@link #STOP_CANCEL}, {@link #STOP_PAUSE} or {@link #STOP_SHUTDOWN}
+     */
+    void stopQueued(int reason) {
+        stopReason = reason;
+        shouldContinue = false;
+        broadcastStopped();
+        service.taskCompleted(uploadId);
+    }
 
-            requestStream = connection.getOutputStream();
+    private void broadcastStopped() {
+        if (!finished.compareAndSet(false, true)) {
+            return;
+        }
 
-            try {
-                writeBody();
-            } finally {
-                closeInputStream();
+        synchronized (notificationLock) {
+            if (notification != null) {
+                service.showCompletedNotification(uploadId, notificationId, null);
             }
+        }
 
-            final int serverResponseCode = connection.getResponseCode();
-
-            if (serverResponseCode / 100 == 2) {
-                responseStream = connection.getInputStream();
-            } else { // getErrorStream if the response code is not 2xx
-                responseStream = connection.getErrorStream();
-            }
-            final String serverResponseMessage = getResponseBodyAsString(responseStream);
+        if (stopReason == STOP_CANCEL) {
+            discardResumeState();
+            service.broadcastCancelled(uploadId);
+        } else if (stopReason == STOP_PAUSE) {
+            service.broadcastPaused(uploadId);
+        }
+    }
 
-            broadcastCompleted(serverResponseCode, serverResponseMessage);
+    /**
+     * The service coalesces the progress updates and reports them once per tick.
+     */
+    @Override
+    protected void onProgress(long uploadedBytes, long totalBytes, int chunkSize) {
+        this.service.broadcastProgress(uploadId, uploadedBytes, totalBytes, chunkSize);
+    }
 
-        } finally {
-            closeOutputStream();
-            closeInputStream();
-            closeConnection();
+    private void broadcastError(Exception exc) {
+        if (!finished.compareAndSet(false, true)) {
+            return;
         }
+
+        updateNotificationError();
+        this.service.broadcastError(uploadId, exc);
     }
 
-    protected HttpURLConnection getHttpURLConnection() throws IOException {
-        final HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
+    @Override
+    protected void onCompleted(final int responseCode, final String responseMessage) {
+        if (!finished.compareAndSet(false, true)) {
+            return;
+        }
 
-        conn.setDoInput(true);
-        conn.setDoOutput(true);
-        conn.setUseCaches(false);
-        conn.setRequestMethod(method);
+        if (responseCode >= 200 && responseCode <= 299)
+            updateNotificationCompleted();
+        else
+            updateNotificationError();
 
-        return conn;
+        this.service.broadcastCompleted(uploadId, responseCode, responseMessage);
     }
 
-    /**
-     * Implement in derived classes to provide the expected upload in the progress notifications.
-     * @return The expected size of the http request body.
-     * @throws UnsupportedEncodingException
-     */
-    protected abstract long getBodyLength() throws UnsupportedEncodingException;
+    private void createNotification() {
+        synchronized (notificationLock) {
+            buildNotification();
+        }
+    }
+
+    private void buildNotification() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            notification = new Notification.Builder(service, UploadService.UPLOAD_CHANNEL_ID)
+                    .setChannelId(UploadService.UPLOAD_CHANNEL_ID);
+        } else {
+            notification = new Notification.Builder(service);
+        }
+
+        notification.setSmallIcon(notificationConfig.getIconResourceID())
+                .setWhen(System.currentTimeMillis())
+                .setContentIntent(notificationConfig.getPendingIntent(service))
+                .setContentTitle(notificationConfig.getTitle())
+                .setContentText(notificationConfig.getMessage())
+                .setPriority(Notification.PRIORITY_DEFAULT)
+                .setAutoCancel(true)
+                .setDefaults(0)
+                .setOngoing(true)
+                .setOnlyAlertOnce(true)
+                .setGroup(UploadNotifications.GROUP_KEY)
+                .setColor(Color.rgb(100,17,69));
+
+        service.showNotification(uploadId, notificationId, notification.build());
+    }
 
     /**
-     * Implement in derived classes to write the body of the http request.
-     * @throws IOException
+     * Shows the progress in the notification. Called by the service on each progress tick,
+     * from the main thread.
      */
-    protected abstract void writeBody() throws IOException;
+    void updateNotificationProgress(long uploadedBytes, long totalBytes) {
+        synchronized (notificationLock) {
+            // the final notification may have already been shown by the upload thread
+            if (notification == null || finished.get()) {
+                return;
+            }
 
-    private void closeInputStream() {
-        if (responseStream != null) {
+            final boolean traced = UploadTrace.beginSection("HttpUploadTask.updateNotificationProgress");
             try {
-                responseStream.close();
-            } catch (Exception exc) {
+                showProgressNotification(uploadedBytes, totalBytes);
+            } finally {
+                UploadTrace.endSection(traced);
             }
         }
     }
 
-    private void closeOutputStream() {
-        if (requestStream != null) {
-            try {
-                requestStream.flush();
-                requestStream.close();
-            } catch (Exception exc) {
-            }
+    private void showProgressNotification(long uploadedBytes, long totalBytes) {
+        final String uploadedMB = UploadService.bytesFormat(uploadedBytes, 2);
+
+        if (totalBytes <= 0) {
+            notification.setProgress(0, 0, true);
+            notification.setContentText(notificationConfig.getMessage() + " " + uploadedMB);
+            service.showNotification(uploadId, notificationId, notification.build());
+            return;
         }
+
+        // the notification progress bar only accepts int values
+        final int progress = (int) (uploadedBytes * 100 / totalBytes);
+        final String totalMB = UploadService.bytesFormat(totalBytes, 2);
+        notification.setProgress(100, progress, false);
+        notification.setContentText(notificationConfig.getMessage() + " " + uploadedMB + "/" + totalMB);
+        service.showNotification(uploadId, notificationId, notification.build());
     }
 
-    private void closeConnection() {
-        if (connection != null) {
-            try {
-                connection.disconnect();
-            } catch (Exception exc) {
-            }
+    private void updateNotificationCompleted() {
+        synchronized (notificationLock) {
+            showCompletedNotification();
         }
     }
 
-    private void setRequestHeaders() {
-        if (!headers.isEmpty()) {
-            for (final NameValue param : headers) {
-                connection.setRequestProperty(param.getName(), param.getValue());
-            }
+    private void showCompletedNotification() {
+        if (notificationConfig.isAutoClearOnSuccess()) {
+            service.showCompletedNotification(uploadId, notificationId, null);
+            return;
         }
-    }
 
-    private String getResponseBodyAsString(final InputStream inputStream) {
-        StringBuilder outString = new StringBuilder();
+        notification.setProgress(0, 0, false);
+        notification.setOngoing(false);
+        notification.setContentText(notificationConfig.getCompleted());
+        // the final notification outlives the summary, so it's not part of the group
+        notification.setGroup(null);
+        setRingtone();
+        service.showCompletedNotification(uploadId, notificationId, notification.build());
+    }
 
-        BufferedReader reader = null;
-        try {
-            reader = new BufferedReader(new InputStreamReader(inputStream));
-            String line;
-            while ((line = reader.readLine()) != null) {
-                outString.append(line).append("\n");
-            }
-        } catch (Exception exc) {
-            try {
-                if (reader != null)
-                    reader.close();
-            } catch (Exception readerExc) {
-            }
+    private void updateNotificationError() {
+        synchronized (notificationLock) {
+            showErrorNotification();
         }
+    }
 
-        return outString.toString();
+    private void showErrorNotification() {
+        notification.setProgress(0, 0, false);
+        notification.setOngoing(false);
+        notification.setContentText(notificationConfig.getError());
+        notification.setColor(Color.rgb(106,33,100));
+        // the final notification outlives the summary, so it's not part of the group
+        notification.setGroup(null);
+        setRingtone();
+        service.showCompletedNotification(uploadId, notificationId, notification.build());
     }
 
-    protected void writeStream(InputStream stream) throws IOException {
-        byte[] buffer = new byte[BUFFER_SIZE];
-        int bytesRead;
+    private void setRingtone() {
+        if (notificationConfig.isRingTone() && Build.VERSION.SDK_INT < Build.VERSION_CODES.O) {
+            notification.setSound(RingtoneManager.getActualDefaultRingtoneUri(service,
+                    RingtoneManager.TYPE_NOTIFICATION));
+            notification.setOnlyAlertOnce(true);
+        }
+    }
 
-        while ((bytesRead = stream.read(buffer, 0, buffer.length)) > 0 && shouldContinue) {
-            requestStream.write(buffer, 0, bytesRead);
-            uploadedBodyBytes += bytesRead;
-            broadcastProgress(uploadedBodyBytes, totalBodyBytes);
+    /**
+     * Gets the expected body length before the upload is started. It's used by the
+     * scheduling policies, so it must not fail.
+     *
+     * @return expected size of the request body in bytes, or -1 if it can't be determined
+     */
+    long getEstimatedBodyLength() {
+        try {
+            return getBodyLength();
+        } catch (Exception exc) {
+            return -1;
         }
     }
 }
@@ -3,7 +3,7 @@ package com.alexbbb.uploadservice;
 import android.os.Parcel;
 import android.os.Parcelable;
 
-import java.io.UnsupportedEncodingException;
+import java.io.File;
 
 /**
  * An HTTP Multipart file to upload.
@@ -12,13 +12,11 @@ import java.io.UnsupportedEncodingException;
  * @author eliasnaur
  *
  */
-class MultipartUploadFile extends BinaryUploadFile implements Parcelable {
-
-    private static final String NEW_LINE = "\r\n";
+class MultipartUploadFile extends BinaryUploadFile implements MultipartFile, Parcelable {
 
     protected final String paramName;
     protected final String fileName;
-    protected String contentType;
+    protected final String contentType;
 
     /**
      * Create a new {@link MultipartUploadFile} object.
@@ -42,33 +40,24 @@ class MultipartUploadFile extends BinaryUploadFile implements Parcelable {
         }
     }
 
-    public byte[] getMultipartHeader() throws UnsupportedEncodingException {
-        StringBuilder builder = new StringBuilder();
-
-        builder.append("Content-Disposition: form-data; name=\"")
-               .append(paramName).append("\"; filename=\"")
-               .append(fileName).append("\"").append(NEW_LINE);
-
-        if (contentType == null) {
-            contentType = ContentType.APPLICATION_OCTET_STREAM;
-        }
+    @Override
+    public File getFile() {
+        return file;
+    }
 
-        builder.append("Content-Type: ").append(contentType).append(NEW_LINE).append(NEW_LINE);
+    @Override
+    public String getParameterName() {
+        return paramName;
+    }
 
-        return builder.toString().getBytes("US-ASCII");
+    @Override
+    public String getFileName() {
+        return fileName;
     }
 
-    /**
-     * Get the total number of bytes needed by this file in the HTTP/Multipart request, considering
-     * that to send each file there is some overhead due to some bytes needed for the boundary
-     * and some bytes needed for the multipart headers
-     *
-     * @param boundaryBytesLength length in bytes of the multipart boundary
-     * @return total number of bytes needed by this file in the HTTP/Multipart request
-     * @throws UnsupportedEncodingException
-     */
-    public long getTotalMultipartBytes(long boundaryBytesLength) throws UnsupportedEncodingException {
-        return boundaryBytesLength + getMultipartHeader().length + file.length();
+    @Override
+    public String getContentType() {
+        return contentType;
     }
 
     // This is used to regenerate the object.
@@ -3,59 +3,16 @@ package com.alexbbb.uploadservice;
 import android.os.Parcel;
 import android.os.Parcelable;
 
-import java.io.UnsupportedEncodingException;
-
 /**
  * Represents a request parameter.
  *
  * @author alexbbb (Alex Gotev)
  *
  */
-class NameValue implements Parcelable {
-
-    private static final String NEW_LINE = "\r\n";
-
-    private final String name;
-    private final String value;
+class NameValue extends NameValuePair implements Parcelable {
 
     public NameValue(final String name, final String value) {
-        this.name = name;
-        this.value = value;
-    }
-
-    public final String getName() {
-        return name;
-    }
-
-    public final String getValue() {
-        return value;
-    }
-
-    public byte[] getBytes() throws UnsupportedEncodingException {
-        final StringBuilder builder = new StringBuilder();
-
-        builder.append("Content-Disposition: form-data; name=\"")
-                .append(name)
-                .append("\"")
-                .append(NEW_LINE)
-                .append(NEW_LINE)
-                .append(value);
-
-        return builder.toString().getBytes("UTF-8");
-    }
-
-    @Override
-    public boolean equals(Object object) {
-        final boolean areEqual;
-
-        if (object instanceof NameValue) {
-            final NameValue other = (NameValue) object;
-            areEqual = this.name.equals(other.name) && this.value.equals(other.value);
-        } else {
-            areEqual = false;
-        }
-
-        return areEqual;
+        super(name, value);
     }
 
     // This is used to regenerate the object.
@@ -80,12 +37,12 @@ class NameValue implements Parcelable {
 
     @Override
     public void writeToParcel(Parcel parcel, int arg1) {
-        parcel.writeString(name);
-        parcel.writeString(value);
+        parcel.writeString(getName());
+        parcel.writeString(getValue());
     }
 
     private NameValue(Parcel in) {
-        name = in.readString();
-        value = in.readString();
+        // the arguments are evaluated from left to right
+        super(in.readString(), in.readString());
     }
 }
@@ -0,0 +1,84 @@
+package com.alexbbb.uploadservice;
+
+import android.content.Context;
+import android.content.Intent;
+
+/**
+ * Binary file upload request which splits the file in parts and sends several of them
+ * concurrently over separate connections. It's meant for very large files on high latency
+ * links, where a single connection can't use all the available bandwidth.
+ *
+ * Every part is sent to the server URL with the HTTP method of the request, a Content-Range
+ * header and an Upload-Part-Number header (starting from 1). When all the parts have been
+ * uploaded, a POST request is sent to the complete URL with a JSON body like:
+ * {"size":1234,"parts":[{"partNumber":1,"etag":"..."}]}, where etag is the ETag header
+ * returned by the server for each part.
+ *
+ * @author alexbbb (Aleksandar Gotev)
+ */
+public class ParallelBinaryUploadRequest extends BinaryUploadRequest {
+
+    static final long MIN_PART_SIZE = 256 * 1024;
+    static final long DEFAULT_PART_SIZE = 8 * 1024 * 1024;
+    static final int DEFAULT_PARALLEL_PARTS = 3;
+
+    private long partSize = DEFAULT_PART_SIZE;
+    private int parallelParts = DEFAULT_PARALLEL_PARTS;
+    private String completeUrl;
+
+    /**
+     * Creates a new parallel binary upload.
+     *
+     * @param context application context
+     * @param uploadId unique ID to assign to this upload request.
+     *                 It's used in the broadcast receiver when receiving updates.
+     * @param serverUrl URL to which the parts are sent
+     */
+    public ParallelBinaryUploadRequest(final Context context, final String uploadId, final String serverUrl) {
+        super(context, uploadId, serverUrl);
+        setMethod("PUT");
+    }
+
+    /**
+     * Write any upload request data to the intent used to start the upload service.
+     *
+     * @param intent the intent used to start the upload service
+     */
+    @Override
+    protected void initializeIntent(Intent intent) {
+        super.initializeIntent(intent);
+        intent.putExtra(UploadService.PARAM_TYPE, UploadService.UPLOAD_PARALLEL_BINARY);
+        intent.putExtra(UploadService.PARAM_PART_SIZE, partSize);
+        intent.putExtra(UploadService.PARAM_PARALLEL_PARTS, parallelParts);
+        if (completeUrl != null) {
+            intent.putExtra(UploadService.PARAM_COMPLETE_URL, completeUrl);
+        }
+    }
+
+    /**
+     * Sets the size of each part. The last part may be smaller. By default it's 8 MB.
+     *
+     * @param partSize part size in bytes. Values smaller than 256 KB are raised to 256 KB
+     */
+    public void setPartSize(long partSize) {
+        this.partSize = Math.max(partSize, MIN_PART_SIZE);
+    }
+
+    /**
+     * Sets how many parts are uploaded at the same time. By default it's 3.
+     *
+     * @param parallelParts number of concurrent connections
+     */
+    public void setParallelParts(int parallelParts) {
+        this.parallelParts = Math.max(1, parallelParts);
+    }
+
+    /**
+     * Sets the URL which receives the completion request. By default it's the server URL.
+     *
+     * @param completeUrl URL of the completion request
+     */
+    public void setCompleteUrl(String completeUrl) {
+        this.completeUrl = completeUrl;
+    }
+}
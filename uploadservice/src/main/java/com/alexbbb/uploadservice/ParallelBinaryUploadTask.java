@@ -0,0 +1,174 @@
+package com.alexbbb.uploadservice;
+
+import android.content.Intent;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+
+/**
+ * Task to upload a binary file split in parts, which are sent concurrently over separate
+ * connections by a {@link ParallelPartUploader}. When all the parts have been received, a
+ * final request asks the server to assemble them, similarly to S3 multipart uploads.
+ *
+ * The completion request is a POST to the complete URL with a JSON body listing the parts
+ * with the ETag returned by the server for each one of them.
+ * The parts which have been received by the server are not sent again on retry.
+ *
+ * @author alexbbb (Aleksandar Gotev)
+ */
+class ParallelBinaryUploadTask extends HttpUploadTask {
+
+    private final BinaryUploadFile file;
+    private final String completeUrl;
+    private final ParallelPartUploader parts;
+
+    private final ParallelPartUploader.PartListener partListener = new ParallelPartUploader.PartListener() {
+        @Override
+        public boolean shouldContinue() {
+            return shouldContinue;
+        }
+
+        @Override
+        public UploadHttpConnection openPart() throws IOException {
+            final UploadHttpConnection partConnection = openConnection(method, url);
+            setRequestHeaders(partConnection);
+            return partConnection;
+        }
+
+        /**
+         * Parts use fixed size reads, unless a rate limit requires smaller ones.
+         */
+        @Override
+        public int getChunkSize() {
+            return Math.min(rateLimiter.getMaxBurst(), engine.getGlobalRateLimiter().getMaxBurst());
+        }
+
+        @Override
+        public void throttle(int bytes) {
+            ParallelBinaryUploadTask.this.throttle(bytes);
+        }
+
+        @Override
+        public void onProgress(long bytes) {
+            partProgress(bytes);
+        }
+    };
+
+    ParallelBinaryUploadTask(UploadService service, Intent intent) {
+        super(service, intent);
+        this.file = intent.getParcelableExtra(UploadService.PARAM_FILE);
+
+        final long partSize = Math.max(intent.getLongExtra(UploadService.PARAM_PART_SIZE,
+                ParallelBinaryUploadRequest.DEFAULT_PART_SIZE), ParallelBinaryUploadRequest.MIN_PART_SIZE);
+        final int parallelParts = intent.getIntExtra(UploadService.PARAM_PARALLEL_PARTS,
+                ParallelBinaryUploadRequest.DEFAULT_PARALLEL_PARTS);
+        this.parts = new ParallelPartUploader(engine, file.file, partSize, parallelParts, readBufferSize);
+
+        final String complete = intent.getStringExtra(UploadService.PARAM_COMPLETE_URL);
+        this.completeUrl = complete == null ? url : complete;
+    }
+
+    @Override
+    protected long getBodyLength() throws UnsupportedEncodingException {
+        return file.length();
+    }
+
+    @Override
+    protected void writeBody() throws IOException {
+        // every part is written on its own connection in upload()
+    }
+
+    @Override
+    protected void upload() throws IOException {
+        totalBodyBytes = getBodyLength();
+        uploadedBodyBytes = parts.prepare(totalBodyBytes);
+
+        // the parts connect, write and wait for the response concurrently,
+        // so their whole time is counted as writing
+        endPhase(UploadMetrics.PHASE_PREPARE);
+        startWriting();
+        try {
+            parts.uploadMissingParts(partListener);
+        } finally {
+            stopWriting();
+        }
+
+        endPhase(UploadMetrics.PHASE_WRITE);
+
+        if (!shouldContinue) {
+            return;
+        }
+
+        complete();
+    }
+
+    @Override
+    protected void abortConnections() {
+        super.abortConnections();
+        parts.abort();
+    }
+
+    private synchronized void partProgress(long bytes) {
+        uploadedBodyBytes += bytes;
+        broadcastProgress(uploadedBodyBytes, totalBodyBytes);
+    }
+
+    private void complete() throws IOException {
+        final byte[] body = parts.getCompletionBody().getBytes("UTF-8");
+
+        connection = openConnection("POST", completeUrl);
+        try {
+            setRequestHeaders(connection);
+            connection.setHeader("Content-Type", ContentType.APPLICATION_JSON);
+            connection.setBodyLength(body.length, 0);
+            endPhase(UploadMetrics.PHASE_PREPARE);
+
+            connection.connect();
+            endPhase(UploadMetrics.PHASE_CONNECT);
+
+            final OutputStream stream = connection.getOutputStream();
+            stream.write(body);
+            stream.close();
+            endPhase(UploadMetrics.PHASE_WRITE);
+
+            final int responseCode = connection.getResponseCode();
+            endPhase(UploadMetrics.PHASE_WAIT);
+            final String responseBody = readAll(connection.getResponseBody());
+            endPhase(UploadMetrics.PHASE_READ);
+
+            if (getRetryController().isRetryable(responseCode)) {
+                throw new UploadStatusException(responseCode, responseBody, getRetryAfter(connection));
+            }
+
+            broadcastCompleted(responseCode, responseBody);
+        } finally {
+            closeConnection();
+        }
+    }
+
+    private void setRequestHeaders(UploadHttpConnection conn) {
+        for (final NameValuePair header : headers) {
+            conn.setHeader(header.getName(), header.getValue());
+        }
+    }
+
+    private static String readAll(InputStream stream) throws IOException {
+        if (stream == null) {
+            return "";
+        }
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[1024];
+        int read;
+        try {
+            while ((read = stream.read(buffer)) > 0) {
+                bytes.write(buffer, 0, read);
+            }
+        } finally {
+            stream.close();
+        }
+        return bytes.toString("UTF-8");
+    }
+}
@@ -0,0 +1,221 @@
+package com.alexbbb.uploadservice;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.UnknownServiceException;
+import java.util.Random;
+
+import javax.net.ssl.SSLPeerUnverifiedException;
+
+/**
+ * Decides which failed uploads are retried and how long to wait before each retry.
+ *
+ * The delays are computed with decorrelated jitter: each one is a random value between the
+ * initial delay and three times the previous one, capped to the maximum delay. This spreads
+ * the retries of the devices which failed at the same time, instead of having them all
+ * retrying in lockstep when the server comes back.
+ *
+ * Connection errors are retried, while errors which would happen again, like a missing file,
+ * an invalid URL or a server certificate which can't be verified, are not. Server responses
+ * are retried if their status code is retryable: by default 408, 429 and 5xx, except 501 and
+ * 505. The other responses are delivered to the app as they are.
+ * If the server sends a Retry-After header, the retry waits at least that long.
+ *
+ * @author alexbbb (Aleksandar Gotev)
+ */
+public final class RetryPolicy implements RetryStrategy, Parcelable {
+
+    public static final long DEFAULT_INITIAL_DELAY = 1000;
+    public static final long DEFAULT_MAX_DELAY = 10 * 60 * 1000;
+
+    /**
+     * Longest Retry-After which is honored, to avoid keeping an upload waiting forever.
+     */
+    public static final long MAX_RETRY_AFTER = RetryController.MAX_RETRY_AFTER;
+
+    private static final int[] DEFAULT_RETRYABLE_STATUS_CODES = {408, 429};
+
+    private final long initialDelay;
+    private final long maxDelay;
+    private boolean retryServerErrors = true;
+    private int[] retryableStatusCodes = DEFAULT_RETRYABLE_STATUS_CODES;
+    private boolean honorRetryAfter = true;
+
+    public RetryPolicy() {
+        this(DEFAULT_INITIAL_DELAY, DEFAULT_MAX_DELAY);
+    }
+
+    /**
+     * Creates a new retry policy.
+     *
+     * @param initialDelayMillis minimum delay before a retry, in milliseconds
+     * @param maxDelayMillis maximum delay before a retry, in milliseconds
+     * @throws IllegalArgumentException if the delays are not valid
+     */
+    public RetryPolicy(long initialDelayMillis, long maxDelayMillis) throws IllegalArgumentException {
+        if (initialDelayMillis <= 0 || maxDelayMillis < initialDelayMillis) {
+            throw new IllegalArgumentException("The initial delay must be positive and not greater than the max delay");
+        }
+
+        this.initialDelay = initialDelayMillis;
+        this.maxDelay = maxDelayMillis;
+    }
+
+    public long getInitialDelay() {
+        return initialDelay;
+    }
+
+    public long getMaxDelay() {
+        return maxDelay;
+    }
+
+    /**
+     * Sets if responses with a 5xx status code, except 501 and 505, are retried.
+     * By default they are.
+     *
+     * @param retry true to retry server errors
+     */
+    public void setRetryServerErrors(boolean retry) {
+        this.retryServerErrors = retry;
+    }
+
+    /**
+     * Sets additional status codes which are retried. By default they're 408 and 429.
+     *
+     * @param statusCodes retryable status codes
+     */
+    public void setRetryableStatusCodes(int... statusCodes) {
+        this.retryableStatusCodes = statusCodes == null ? new int[0] : statusCodes.clone();
+    }
+
+    /**
+     * Sets if the Retry-After header sent by the server is honored. By default it is.
+     *
+     * @param honor true to wait at least the time requested by the server
+     */
+    public void setHonorRetryAfter(boolean honor) {
+        this.honorRetryAfter = honor;
+    }
+
+    @Override
+    public boolean isHonorRetryAfter() {
+        return honorRetryAfter;
+    }
+
+    /**
+     * Checks if a server response has to be retried.
+     *
+     * @param statusCode HTTP status code of the response
+     * @return true if the upload has to be retried
+     */
+    @Override
+    public boolean isRetryable(int statusCode) {
+        if (retryServerErrors && statusCode / 100 == 5 && statusCode != 501 && statusCode != 505) {
+            return true;
+        }
+
+        for (int retryable : retryableStatusCodes) {
+            if (retryable == statusCode) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Checks if a failed attempt has to be retried.
+     *
+     * @param exc failure of the attempt
+     * @return true if the upload has to be retried
+     */
+    @Override
+    public boolean isRetryable(Exception exc) {
+        if (exc instanceof UploadStatusException) {
+            return isRetryable(((UploadStatusException) exc).getResponseCode());
+        }
+
+        if (exc instanceof FileNotFoundException || exc instanceof MalformedURLException
+                || exc instanceof UnknownServiceException || exc instanceof SSLPeerUnverifiedException) {
+            return false;
+        }
+
+        // other exceptions are programming errors, which would happen again
+        return exc instanceof IOException;
+    }
+
+    /**
+     * Computes the delay before the next retry.
+     *
+     * @param previousDelay delay before the previous retry, or 0 for the first one
+     * @param random source of randomness
+     * @return delay in milliseconds
+     */
+    @Override
+    public long getNextDelay(long previousDelay, Random random) {
+        final long upperBound = Math.max(initialDelay, Math.min(maxDelay, previousDelay * 3));
+        final long delay = initialDelay + (long) (random.nextDouble() * (upperBound - initialDelay));
+        return Math.min(maxDelay, delay);
+    }
+
+    /**
+     * Parses the value of a Retry-After header, which can be a number of seconds or an HTTP date.
+     *
+     * @param value header value, or null
+     * @param nowMillis current time in milliseconds
+     * @return time to wait in milliseconds, capped to {@link #MAX_RETRY_AFTER}, or -1 if the
+     * header is missing or not valid
+     */
+    public static long parseRetryAfter(String value, long nowMillis) {
+        return RetryController.parseRetryAfter(value, nowMillis);
+    }
+
+    // This is used to regenerate the object.
+    // All Parcelables must have a CREATOR that implements these two methods
+    public static final Parcelable.Creator<RetryPolicy> CREATOR =
+            new Parcelable.Creator<RetryPolicy>() {
+        @Override
+        public RetryPolicy createFromParcel(final Parcel in) {
+            return new RetryPolicy(in);
+        }
+
+        @Override
+        public RetryPolicy[] newArray(final int size) {
+            return new RetryPolicy[size];
+        }
+    };
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(Parcel parcel, int arg1) {
+        parcel.writeLong(initialDelay);
+        parcel.writeLong(maxDelay);
+        parcel.writeByte((byte) (retryServerErrors ? 1 : 0));
+        parcel.writeIntArray(retryableStatusCodes);
+        parcel.writeByte((byte) (honorRetryAfter ? 1 : 0));
+    }
+
+    private RetryPolicy(Parcel in) {
+        initialDelay = in.readLong();
+        maxDelay = in.readLong();
+        retryServerErrors = in.readByte() == 1;
+        retryableStatusCodes = in.createIntArray();
+        honorRetryAfter = in.readByte() == 1;
+    }
+
+    boolean isRetryServerErrors() {
+        return retryServerErrors;
+    }
+
+    int[] getRetryableStatusCodes() {
+        return retryableStatusCodes.clone();
+    }
+}
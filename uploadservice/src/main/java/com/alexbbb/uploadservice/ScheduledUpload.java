@@ -0,0 +1,59 @@
+package com.alexbbb.uploadservice;
+
+/**
+ * Information about an upload waiting in the queue, used by the {@link UploadSchedulingPolicy}
+ * to decide which upload has to be started first.
+ *
+ * @author alexbbb (Aleksandar Gotev)
+ */
+public final class ScheduledUpload {
+
+    private final String uploadId;
+    private final int priority;
+    private final long estimatedBodyLength;
+    private final long sequenceNumber;
+
+    ScheduledUpload(final String uploadId, final int priority, final long estimatedBodyLength,
+                    final long sequenceNumber) {
+        this.uploadId = uploadId;
+        this.priority = priority;
+        this.estimatedBodyLength = estimatedBodyLength;
+        this.sequenceNumber = sequenceNumber;
+    }
+
+    /**
+     * Gets the upload ID.
+     *
+     * @return upload ID
+     */
+    public String getUploadId() {
+        return uploadId;
+    }
+
+    /**
+     * Gets the priority set with {@link HttpUploadRequest#setPriority(int)}.
+     *
+     * @return priority. Higher values mean more urgent uploads
+     */
+    public int getPriority() {
+        return priority;
+    }
+
+    /**
+     * Gets the expected size of the request body.
+     *
+     * @return size in bytes, or -1 if it's not known in advance
+     */
+    public long getEstimatedBodyLength() {
+        return estimatedBodyLength;
+    }
+
+    /**
+     * Gets the arrival order of the upload. Uploads received earlier have lower numbers.
+     *
+     * @return sequence number
+     */
+    public long getSequenceNumber() {
+        return sequenceNumber;
+    }
+}
@@ -0,0 +1,147 @@
+package com.alexbbb.uploadservice;
+
+import android.content.Context;
+import android.content.Intent;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.MalformedURLException;
+
+/**
+ * Upload request whose body is read from an {@link InputStream} or written by an
+ * {@link UploadBodyProducer}, instead of a file. When the length of the body is not known,
+ * it's sent with chunked transfer encoding, so make sure your server side supports it.
+ *
+ * The body is kept in memory by the upload service, so stream uploads are not resumed after
+ * the process has been killed and can't be resumed after a pause.
+ *
+ * @author alexbbb (Aleksandar Gotev)
+ */
+public class StreamUploadRequest extends HttpUploadRequest {
+
+    private UploadBodyProducer producer = null;
+    private String contentType = ContentType.APPLICATION_OCTET_STREAM;
+
+    /**
+     * Creates a stream upload.
+     *
+     * @param context application context
+     * @param uploadId unique ID to assign to this upload request.
+     *                 It's used in the broadcast receiver when receiving updates.
+     * @param serverUrl URL of the server side script that handles the upload
+     */
+    public StreamUploadRequest(final Context context, final String uploadId, final String serverUrl) {
+        super(context, uploadId, serverUrl);
+    }
+
+    /**
+     * Validates the upload request and throws exceptions if one or more parameters are not
+     * properly set.
+     *
+     * @throws IllegalArgumentException if request protocol or URL are not correctly set or
+     * if no body is set
+     * @throws MalformedURLException if the provided server URL is not valid
+     */
+    @Override
+    public void validate() throws IllegalArgumentException, MalformedURLException {
+        super.validate();
+        if (producer == null) {
+            throw new IllegalArgumentException("You have to set the body to upload");
+        }
+    }
+
+    /**
+     * Starts the upload. If the service can't be started, e.g. because the app is in the
+     * background on API 26+, the body is released and the exception is rethrown.
+     */
+    @Override
+    public void startUpload() throws IllegalArgumentException, MalformedURLException {
+        try {
+            super.startUpload();
+        } catch (RuntimeException exc) {
+            UploadService.removeBodyProducer(getUploadId(), producer);
+            throw exc;
+        }
+    }
+
+    /**
+     * Write any upload request data to the intent used to start the upload service.
+     * The body is handed over to the service here, once the request has been validated.
+     *
+     * @param intent the intent used to start the upload service
+     */
+    @Override
+    protected void initializeIntent(Intent intent) {
+        super.initializeIntent(intent);
+        intent.putExtra(UploadService.PARAM_TYPE, UploadService.UPLOAD_STREAM);
+        intent.putExtra(UploadService.PARAM_CONTENT_TYPE, contentType);
+        UploadService.setBodyProducer(getUploadId(), producer);
+    }
+
+    /**
+     * Sets the producer which writes the body of the request.
+     *
+     * @param producer body producer
+     */
+    public void setBodyProducer(UploadBodyProducer producer) {
+        this.producer = producer;
+    }
+
+    /**
+     * Sets the stream from which the body of the request is read. The stream is closed when
+     * it has been completely read. It can be read only once, so the upload can't be retried.
+     *
+     * @param stream stream to upload
+     * @param length length of the stream in bytes, or -1 if it's unknown
+     */
+    public void setInputStream(final InputStream stream, final long length) {
+        producer = new InputStreamBodyProducer(stream, length);
+    }
+
+    /**
+     * Sets the value of the Content-Type header. By default it's application/octet-stream.
+     *
+     * @param contentType content type of the body
+     */
+    public void setContentType(String contentType) {
+        if (contentType != null && contentType.length() > 0)
+            this.contentType = contentType;
+    }
+
+    private static final class InputStreamBodyProducer implements UploadBodyProducer {
+
+        private final InputStream stream;
+        private final long length;
+        private boolean consumed = false;
+
+        InputStreamBodyProducer(InputStream stream, long length) {
+            this.stream = stream;
+            this.length = length;
+        }
+
+        @Override
+        public long getLength() {
+            return length;
+        }
+
+        @Override
+        public void writeTo(OutputStream output) throws IOException {
+            if (consumed) {
+                throw new IOException("The input stream has already been read and can't be uploaded again");
+            }
+            consumed = true;
+
+            final byte[] buffer = UploadService.getEngine().getBufferPool().acquire(FileBodyReader.DEFAULT_READ_SIZE);
+            try {
+                int bytesRead;
+                while ((bytesRead = stream.read(buffer, 0, buffer.length)) > 0) {
+                    output.write(buffer, 0, bytesRead);
+                }
+            } finally {
+                UploadService.getEngine().getBufferPool().release(buffer);
+                stream.close();
+            }
+        }
+    }
+}
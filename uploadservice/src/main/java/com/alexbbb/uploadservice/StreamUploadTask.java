@@ -0,0 +1,88 @@
+package com.alexbbb.uploadservice;
+
+import android.content.Intent;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+
+/**
+ * Task to upload a body written by an {@link UploadBodyProducer}.
+ *
+ * @author alexbbb (Aleksandar Gotev)
+ */
+class StreamUploadTask extends HttpUploadTask {
+
+    private final UploadBodyProducer producer;
+
+    StreamUploadTask(UploadService service, Intent intent, UploadBodyProducer producer) {
+        super(service, intent);
+        this.producer = producer;
+
+        final String contentType = intent.getStringExtra(UploadService.PARAM_CONTENT_TYPE);
+        if (contentType != null && getHeader("Content-Type") == null) {
+            headers.add(new NameValue("Content-Type", contentType));
+        }
+    }
+
+    @Override
+    protected long getBodyLength() throws UnsupportedEncodingException {
+        return producer.getLength();
+    }
+
+    @Override
+    protected void writeBody() throws IOException {
+        producer.writeTo(new ProgressOutputStream(requestStream));
+    }
+
+    @Override
+    protected boolean isBodyCompressible() throws IOException {
+        // the body can be produced only once, so it's judged by its content type alone
+        return !BodyCompression.isCompressedContentType(getHeader("Content-Type"));
+    }
+
+    /**
+     * Reports the progress of the bytes written by the producer and interrupts it when the
+     * upload is stopped.
+     */
+    private final class ProgressOutputStream extends FilterOutputStream {
+
+        ProgressOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int oneByte) throws IOException {
+            checkStopped();
+            throttle(1);
+            out.write(oneByte);
+            bytesWritten(1);
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int count) throws IOException {
+            checkStopped();
+            throttle(count);
+            out.write(buffer, offset, count);
+            bytesWritten(count);
+        }
+
+        @Override
+        public void close() throws IOException {
+            // the request stream is closed by the task
+            flush();
+        }
+
+        private void checkStopped() throws IOException {
+            if (!shouldContinue) {
+                throw new IOException("Upload " + uploadId + " has been stopped");
+            }
+        }
+
+        private void bytesWritten(int count) {
+            uploadedBodyBytes += count;
+            broadcastProgress(uploadedBodyBytes, totalBodyBytes);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.alexbbb.uploadservice;
+
+import android.content.Context;
+import android.content.Intent;
+
+import java.net.MalformedURLException;
+import java.util.ArrayList;
+
+/**
+ * Resumable file upload request, using the tus.io protocol.
+ * If the upload fails, it continues from the last byte received by the server on the next
+ * attempt, even after the app process has been killed.
+ *
+ * @author alexbbb (Aleksandar Gotev)
+ */
+public class TusUploadRequest extends HttpUploadRequest {
+
+    private BinaryUploadFile file = null;
+    private long chunkSize = 0;
+    private final ArrayList<NameValue> metadata;
+
+    /**
+     * Creates a new tus upload.
+     *
+     * @param context application context
+     * @param uploadId unique ID to assign to this upload request.
+     *                 It's used in the broadcast receiver when receiving updates.
+     * @param serverUrl URL of the tus creation endpoint
+     */
+    public TusUploadRequest(final Context context, final String uploadId, final String serverUrl) {
+        super(context, uploadId, serverUrl);
+        metadata = new ArrayList<NameValue>();
+    }
+
+    /**
+     * Validates the upload request and throws exceptions if one or more parameters are not
+     * properly set.
+     *
+     * @throws IllegalArgumentException if request protocol or URL are not correctly set or
+     * if no file is set
+     * @throws MalformedURLException if the provided server URL is not valid
+     */
+    @Override
+    public void validate() throws IllegalArgumentException, MalformedURLException {
+        super.validate();
+        if (file == null) {
+            throw new IllegalArgumentException("You have to set a file to upload");
+        }
+    }
+
+    /**
+     * Write any upload request data to the intent used to start the upload service.
+     *
+     * @param intent the intent used to start the upload service
+     */
+    @Override
+    protected void initializeIntent(Intent intent) {
+        super.initializeIntent(intent);
+        intent.putExtra(UploadService.PARAM_TYPE, UploadService.UPLOAD_TUS);
+        intent.putExtra(UploadService.PARAM_FILE, file);
+        intent.putExtra(UploadService.PARAM_TUS_CHUNK_SIZE, chunkSize);
+        intent.putParcelableArrayListExtra(UploadService.PARAM_REQUEST_PARAMETERS, metadata);
+    }
+
+    /**
+     * Sets the file to upload.
+     *
+     * @param path Absolute path to the file that you want to upload
+     */
+    public void setFileToUpload(String path) {
+        file = new BinaryUploadFile(path);
+    }
+
+    /**
+     * Sets the maximum number of bytes to send with each PATCH request. The server saves the
+     * progress after each of them. By default the whole file is sent with a single request.
+     *
+     * @param chunkSize chunk size in bytes, or 0 to send the whole file at once
+     */
+    public void setChunkSize(long chunkSize) {
+        this.chunkSize = chunkSize < 0 ? 0 : chunkSize;
+    }
+
+    /**
+     * Adds a key-value pair to the Upload-Metadata sent when the upload is created.
+     * The file name is always sent with the filename key.
+     *
+     * @param key metadata key
+     * @param value metadata value
+     */
+    public void addMetadata(final String key, final String value) {
+        metadata.add(new NameValue(key, value));
+    }
+}
@@ -0,0 +1,160 @@
+package com.alexbbb.uploadservice;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.util.Base64;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+
+/**
+ * Task to upload a file using the tus.io resumable upload protocol.
+ * The URL of the upload created on the server is saved, so that retries, paused uploads and
+ * uploads resumed after the process has been killed continue from the offset the server
+ * already has, instead of sending the whole file again.
+ *
+ * @author alexbbb (Aleksandar Gotev)
+ */
+class TusUploadTask extends HttpUploadTask {
+
+    private static final String PREFERENCES_NAME = "com.alexbbb.uploadservice.tus";
+
+    private final BinaryUploadFile file;
+    private final ArrayList<NameValue> metadata;
+    private final long patchSize;
+
+    TusUploadTask(UploadService service, Intent intent) {
+        super(service, intent);
+        this.file = intent.getParcelableExtra(UploadService.PARAM_FILE);
+        this.metadata = intent.getParcelableArrayListExtra(UploadService.PARAM_REQUEST_PARAMETERS);
+        this.patchSize = intent.getLongExtra(UploadService.PARAM_TUS_CHUNK_SIZE, 0);
+    }
+
+    @Override
+    protected long getBodyLength() throws UnsupportedEncodingException {
+        return file.length();
+    }
+
+    @Override
+    protected void upload() throws IOException {
+        final TusClient client = new TusClient(getHttpStack(), url, headers);
+        client.setTimeouts(engine.getConnectTimeout(), engine.getReadTimeout());
+        final SharedPreferences preferences = getPreferences();
+        final String fingerprint = getFingerprint();
+
+        totalBodyBytes = getBodyLength();
+
+        String uploadUrl = preferences.getString(fingerprint, null);
+        long offset = -1;
+
+        if (uploadUrl != null) {
+            offset = client.getOffset(uploadUrl);
+
+            if (offset < 0) {
+                // the upload expired on the server. If it can't be created again,
+                // the next attempt doesn't have to ask for it
+                preferences.edit().remove(fingerprint).apply();
+            }
+        }
+
+        if (offset < 0) {
+            uploadUrl = client.createUpload(totalBodyBytes, getMetadataHeader());
+            preferences.edit().putString(fingerprint, uploadUrl).apply();
+            offset = 0;
+        }
+
+        uploadedBodyBytes = offset;
+        broadcastProgress(uploadedBodyBytes, totalBodyBytes);
+
+        // the requests to create the upload or get its offset are counted as preparation
+        endPhase(UploadMetrics.PHASE_PREPARE);
+
+        while (offset < totalBodyBytes && shouldContinue) {
+            final long length = patchSize > 0 ? Math.min(patchSize, totalBodyBytes - offset)
+                                              : totalBodyBytes - offset;
+            offset = uploadChunk(client, uploadUrl, offset, length);
+        }
+
+        if (offset >= totalBodyBytes) {
+            preferences.edit().remove(fingerprint).apply();
+            broadcastCompleted(204, "");
+        }
+    }
+
+    private long uploadChunk(TusClient client, String uploadUrl, long offset, long length)
+            throws IOException {
+        try {
+            connection = client.openPatch(uploadUrl, offset, length);
+            endPhase(UploadMetrics.PHASE_PREPARE);
+
+            connection.connect();
+            endPhase(UploadMetrics.PHASE_CONNECT);
+
+            requestStream = connection.getOutputStream();
+
+            startWriting();
+            try {
+                writeFile(file.file, offset, length);
+            } finally {
+                stopWriting();
+            }
+            closeOutputStream();
+            endPhase(UploadMetrics.PHASE_WRITE);
+
+            if (!shouldContinue) {
+                return offset;
+            }
+
+            final long newOffset = client.finishPatch(connection, offset + length);
+            endPhase(UploadMetrics.PHASE_WAIT);
+            return newOffset;
+        } finally {
+            closeConnection();
+        }
+    }
+
+    @Override
+    protected void writeBody() throws IOException {
+        // the body is written chunk by chunk in upload()
+    }
+
+    /**
+     * Forgets the upload created on the server, so that the file is sent from the beginning
+     * the next time it's submitted.
+     */
+    @Override
+    protected void discardResumeState() {
+        getPreferences().edit().remove(getFingerprint()).apply();
+    }
+
+    private SharedPreferences getPreferences() {
+        return service.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Identifies the upload of this file to this endpoint. If the file changes, a new upload
+     * is created on the server.
+     */
+    private String getFingerprint() {
+        return url + "|" + file.file.getAbsolutePath() + "|" + file.length() + "|" + file.file.lastModified();
+    }
+
+    private String getMetadataHeader() throws UnsupportedEncodingException {
+        final StringBuilder builder = new StringBuilder();
+        builder.append("filename ").append(encodeMetadataValue(file.file.getName()));
+
+        if (metadata != null) {
+            for (final NameValue item : metadata) {
+                builder.append(",").append(item.getName()).append(" ").append(encodeMetadataValue(item.getValue()));
+            }
+        }
+
+        return builder.toString();
+    }
+
+    private static String encodeMetadataValue(String value) throws UnsupportedEncodingException {
+        return Base64.encodeToString(value.getBytes("UTF-8"), Base64.NO_WRAP);
+    }
+}
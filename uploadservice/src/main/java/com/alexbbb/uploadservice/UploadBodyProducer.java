@@ -0,0 +1,33 @@
+package com.alexbbb.uploadservice;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes the body of a {@link StreamUploadRequest}. It allows to send data generated on the
+ * fly (e.g. a database export or an archive) without writing it to a temporary file first.
+ *
+ * The producer is invoked from the upload thread. If the upload is retried, it's invoked
+ * again from the beginning, so it has to be able to produce the same data more than once,
+ * or throw an {@link IOException} if it can't.
+ *
+ * @author alexbbb (Aleksandar Gotev)
+ */
+public interface UploadBodyProducer {
+
+    /**
+     * Gets the length of the body, if it's known in advance.
+     *
+     * @return length of the body in bytes, or -1 if it's unknown. When it's unknown, the body
+     * is sent with chunked transfer encoding
+     */
+    long getLength();
+
+    /**
+     * Writes the whole body. Don't close the stream.
+     *
+     * @param stream stream of the request body
+     * @throws IOException if the body can't be produced or the upload has been stopped
+     */
+    void writeTo(OutputStream stream) throws IOException;
+}
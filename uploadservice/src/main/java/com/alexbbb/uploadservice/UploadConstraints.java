@@ -0,0 +1,73 @@
+package com.alexbbb.uploadservice;
+
+import android.content.Intent;
+
+/**
+ * Conditions the device must meet for an upload to run. Uploads whose constraints don't hold
+ * are kept in the queue, and running uploads are paused when their constraints stop holding,
+ * instead of failing and consuming their retries. Every upload needs a network connection.
+ *
+ * @author alexbbb (Aleksandar Gotev)
+ */
+final class UploadConstraints {
+
+    /**
+     * Constraints of the uploads which didn't set any: only a network connection is needed.
+     */
+    static final UploadConstraints NONE = new UploadConstraints(false, false, 0, true);
+
+    final boolean requiresUnmeteredNetwork;
+    final boolean requiresCharging;
+    final int minBatteryLevel;
+    final boolean roamingAllowed;
+
+    UploadConstraints(boolean requiresUnmeteredNetwork, boolean requiresCharging, int minBatteryLevel,
+                      boolean roamingAllowed) {
+        this.requiresUnmeteredNetwork = requiresUnmeteredNetwork;
+        this.requiresCharging = requiresCharging;
+        this.minBatteryLevel = minBatteryLevel;
+        this.roamingAllowed = roamingAllowed;
+    }
+
+    /**
+     * Reads the constraints of an upload from its intent.
+     *
+     * @param intent upload intent
+     * @return constraints of the upload
+     */
+    static UploadConstraints fromIntent(Intent intent) {
+        return new UploadConstraints(
+                intent.getBooleanExtra(UploadService.PARAM_REQUIRES_UNMETERED_NETWORK, false),
+                intent.getBooleanExtra(UploadService.PARAM_REQUIRES_CHARGING, false),
+                intent.getIntExtra(UploadService.PARAM_MIN_BATTERY_LEVEL, 0),
+                intent.getBooleanExtra(UploadService.PARAM_ROAMING_ALLOWED, true));
+    }
+
+    /**
+     * Checks if the constraints hold in a device state.
+     *
+     * @param state state of the device
+     * @return true if the upload can run
+     */
+    boolean isSatisfiedBy(DeviceState state) {
+        if (!state.connected) {
+            return false;
+        }
+
+        if (requiresUnmeteredNetwork && !state.unmetered) {
+            return false;
+        }
+
+        if (!roamingAllowed && state.roaming) {
+            return false;
+        }
+
+        if (requiresCharging && !state.charging) {
+            return false;
+        }
+
+        // the battery level doesn't matter while the device is charging
+        return state.charging || minBatteryLevel <= 0 || state.batteryLevel < 0
+                || state.batteryLevel >= minBatteryLevel;
+    }
+}
@@ -0,0 +1,98 @@
+package com.alexbbb.uploadservice;
+
+/**
+ * Snapshot of the upload queue of a single host, useful for monitoring.
+ *
+ * @author alexbbb (Aleksandar Gotev)
+ */
+public final class UploadHostStats {
+
+    private final String host;
+    private final int queuedUploads;
+    private final int runningUploads;
+    private final int maxConcurrentUploads;
+    private final long averageWaitTimeMillis;
+    private final long maxWaitTimeMillis;
+    private final long oldestQueuedWaitTimeMillis;
+
+    UploadHostStats(final String host, final int queuedUploads, final int runningUploads,
+                    final int maxConcurrentUploads, final long averageWaitTimeMillis,
+                    final long maxWaitTimeMillis, final long oldestQueuedWaitTimeMillis) {
+        this.host = host;
+        this.queuedUploads = queuedUploads;
+        this.runningUploads = runningUploads;
+        this.maxConcurrentUploads = maxConcurrentUploads;
+        this.averageWaitTimeMillis = averageWaitTimeMillis;
+        this.maxWaitTimeMillis = maxWaitTimeMillis;
+        this.oldestQueuedWaitTimeMillis = oldestQueuedWaitTimeMillis;
+    }
+
+    /**
+     * Gets the host, in the form host:port.
+     *
+     * @return host
+     */
+    public String getHost() {
+        return host;
+    }
+
+    /**
+     * Gets the number of uploads waiting to be started.
+     *
+     * @return queue depth
+     */
+    public int getQueuedUploads() {
+        return queuedUploads;
+    }
+
+    /**
+     * Gets the number of uploads currently running.
+     *
+     * @return running uploads
+     */
+    public int getRunningUploads() {
+        return runningUploads;
+    }
+
+    /**
+     * Gets the maximum number of uploads which can run at the same time towards this host.
+     *
+     * @return concurrency limit
+     */
+    public int getMaxConcurrentUploads() {
+        return maxConcurrentUploads;
+    }
+
+    /**
+     * Gets the average time the started uploads have spent in the queue.
+     *
+     * @return average wait time in milliseconds
+     */
+    public long getAverageWaitTimeMillis() {
+        return averageWaitTimeMillis;
+    }
+
+    /**
+     * Gets the longest time a started upload has spent in the queue.
+     *
+     * @return max wait time in milliseconds
+     */
+    public long getMaxWaitTimeMillis() {
+        return maxWaitTimeMillis;
+    }
+
+    /**
+     * Gets how long the oldest upload still in the queue has been waiting.
+     *
+     * @return wait time in milliseconds, or 0 if the queue is empty
+     */
+    public long getOldestQueuedWaitTimeMillis() {
+        return oldestQueuedWaitTimeMillis;
+    }
+
+    @Override
+    public String toString() {
+        return host + " queued=" + queuedUploads + " running=" + runningUploads + "/" + maxConcurrentUploads
+                + " avgWait=" + averageWaitTimeMillis + "ms maxWait=" + maxWaitTimeMillis + "ms";
+    }
+}
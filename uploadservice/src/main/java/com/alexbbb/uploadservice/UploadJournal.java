@@ -0,0 +1,767 @@
+package com.alexbbb.uploadservice;
+
+import android.content.Context;
+import android.content.Intent;
+import android.os.Bundle;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of the submitted uploads, used to resume the unfinished ones after
+ * the process has been killed.
+ *
+ * Every record is framed with its length and a CRC32, so a record torn by a crash is detected
+ * and discarded together with everything after it. When the records of finished uploads and
+ * superseded progress checkpoints exceed {@link #COMPACTION_THRESHOLD}, the journal is rewritten
+ * with only the pending uploads.
+ *
+ * @author alexbbb (Aleksandar Gotev)
+ */
+class UploadJournal {
+
+    // java.util.logging instead of android.util.Log, so the recovery of a damaged journal
+    // can be tested on the JVM
+    private static final Logger LOGGER = Logger.getLogger(UploadJournal.class.getName());
+
+    static final String FILE_NAME = "uploads.journal";
+
+    /**
+     * Number of obsolete records after which the journal is compacted.
+     */
+    static final int COMPACTION_THRESHOLD = 256;
+
+    /**
+     * Minimum interval between two progress checkpoints of the same upload, in milliseconds.
+     */
+    static final long CHECKPOINT_INTERVAL = 2000;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    // UPJ2 writes the names and values of the parameters and the notification texts as
+    // nullable strings
+    private static final int MAGIC = 0x55504a32; // UPJ2
+    private static final int MAX_RECORD_LENGTH = 16 * 1024 * 1024;
+
+    private static final byte RECORD_SUBMITTED = 1;
+    private static final byte RECORD_PROGRESS = 2;
+    private static final byte RECORD_COMPLETED = 3;
+    private static final byte RECORD_FAILED = 4;
+    private static final byte RECORD_CANCELLED = 5;
+    private static final byte RECORD_PAUSED = 6;
+    private static final byte RECORD_RESUMED = 7;
+
+    private static final byte VALUE_STRING = 1;
+    private static final byte VALUE_INT = 2;
+    private static final byte VALUE_LONG = 3;
+    private static final byte VALUE_BOOLEAN = 4;
+    private static final byte VALUE_NAME_VALUE_LIST = 5;
+    private static final byte VALUE_BINARY_FILE = 6;
+    private static final byte VALUE_MULTIPART_FILE_LIST = 7;
+    private static final byte VALUE_NOTIFICATION_CONFIG = 8;
+    private static final byte VALUE_RETRY_POLICY = 9;
+
+    private final File file;
+    private final LinkedHashMap<String, Entry> pending = new LinkedHashMap<String, Entry>();
+    private final CRC32 crc = new CRC32();
+    private final ByteArrayOutputStream recordBuffer = new ByteArrayOutputStream(256);
+    private final DataOutputStream record = new DataOutputStream(recordBuffer);
+
+    private FileOutputStream fileOutput;
+    private DataOutputStream output;
+    private int obsoleteRecords;
+    private boolean closed;
+
+    /**
+     * An upload which has been submitted and has not finished yet.
+     */
+    static final class Entry {
+        final String uploadId;
+        final byte[] request;
+        long uploadedBytes;
+        long totalBytes;
+        long lastCheckpointTime;
+        boolean paused;
+
+        Entry(String uploadId, byte[] request) {
+            this.uploadId = uploadId;
+            this.request = request;
+        }
+    }
+
+    /**
+     * Opens the journal in the given directory, creating it if it doesn't exist.
+     *
+     * @param directory directory in which to keep the journal
+     * @throws IOException if the journal can't be read or created
+     */
+    UploadJournal(File directory) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create journal directory " + directory);
+        }
+
+        file = new File(directory, FILE_NAME);
+        final boolean intact = load();
+
+        if (!intact || obsoleteRecords > COMPACTION_THRESHOLD) {
+            compact();
+        } else {
+            openForAppend();
+        }
+    }
+
+    /**
+     * Gets the uploads which have been submitted and have not finished yet, in submission order.
+     *
+     * @return list of pending entries
+     */
+    synchronized List<Entry> getPendingEntries() {
+        return new ArrayList<Entry>(pending.values());
+    }
+
+    /**
+     * Gets a pending upload.
+     *
+     * @param uploadId ID of the upload
+     * @return the entry, or null if the upload is not pending
+     */
+    synchronized Entry getEntry(String uploadId) {
+        return pending.get(uploadId);
+    }
+
+    /**
+     * Checks if an upload is in the journal and has not finished yet.
+     *
+     * @param uploadId ID of the upload
+     * @return true if the upload is pending
+     */
+    synchronized boolean isPending(String uploadId) {
+        return pending.containsKey(uploadId);
+    }
+
+    /**
+     * Records a new upload. The record is synced to disk before returning.
+     *
+     * @param uploadId ID of the upload
+     * @param request encoded request, as returned by {@link #encodeRequest(Intent)}
+     * @throws IOException if the record can't be written
+     */
+    synchronized void submitted(String uploadId, byte[] request) throws IOException {
+        if (pending.containsKey(uploadId)) {
+            return;
+        }
+
+        record.writeByte(RECORD_SUBMITTED);
+        record.writeUTF(uploadId);
+        record.writeInt(request.length);
+        record.write(request);
+        appendRecord(true);
+
+        pending.put(uploadId, new Entry(uploadId, request));
+    }
+
+    /**
+     * Records a progress checkpoint. Checkpoints closer than {@link #CHECKPOINT_INTERVAL}
+     * are skipped and the record is not synced, as losing one is harmless.
+     *
+     * @param uploadId ID of the upload
+     * @param uploadedBytes bytes uploaded so far
+     * @param totalBytes total bytes to upload
+     */
+    synchronized void progress(String uploadId, long uploadedBytes, long totalBytes) {
+        final Entry entry = pending.get(uploadId);
+        final long now = System.currentTimeMillis();
+        if (entry == null || now < entry.lastCheckpointTime + CHECKPOINT_INTERVAL) {
+            return;
+        }
+
+        try {
+            record.writeByte(RECORD_PROGRESS);
+            record.writeUTF(uploadId);
+            record.writeLong(uploadedBytes);
+            record.writeLong(totalBytes);
+            appendRecord(false);
+        } catch (IOException exc) {
+            LOGGER.log(Level.WARNING, "Unable to write progress checkpoint of upload " + uploadId, exc);
+            return;
+        }
+
+        if (entry.lastCheckpointTime > 0) {
+            obsoleteRecords++;
+        }
+        entry.lastCheckpointTime = now;
+        entry.uploadedBytes = uploadedBytes;
+        entry.totalBytes = totalBytes;
+    }
+
+    /**
+     * Records that an upload has been completed.
+     *
+     * @param uploadId ID of the upload
+     */
+    synchronized void completed(String uploadId) {
+        finished(uploadId, RECORD_COMPLETED);
+    }
+
+    /**
+     * Records that an upload has failed and won't be retried anymore.
+     *
+     * @param uploadId ID of the upload
+     */
+    synchronized void failed(String uploadId) {
+        finished(uploadId, RECORD_FAILED);
+    }
+
+    /**
+     * Records that an upload has been cancelled by the user.
+     *
+     * @param uploadId ID of the upload
+     */
+    synchronized void cancelled(String uploadId) {
+        finished(uploadId, RECORD_CANCELLED);
+    }
+
+    /**
+     * Records that an upload has been paused by the user. Paused uploads are not resumed
+     * automatically when the service starts.
+     *
+     * @param uploadId ID of the upload
+     */
+    synchronized void paused(String uploadId) {
+        final Entry entry = pending.get(uploadId);
+        if (entry == null || entry.paused) {
+            return;
+        }
+
+        try {
+            record.writeByte(RECORD_PAUSED);
+            record.writeUTF(uploadId);
+            appendRecord(true);
+            entry.paused = true;
+        } catch (IOException exc) {
+            LOGGER.log(Level.WARNING, "Unable to record the pause of upload " + uploadId, exc);
+        }
+    }
+
+    /**
+     * Records that a paused upload has been resumed.
+     *
+     * @param uploadId ID of the upload
+     */
+    synchronized void resumed(String uploadId) {
+        final Entry entry = pending.get(uploadId);
+        if (entry == null || !entry.paused) {
+            return;
+        }
+
+        try {
+            record.writeByte(RECORD_RESUMED);
+            record.writeUTF(uploadId);
+            appendRecord(true);
+            entry.paused = false;
+            obsoleteRecords += 2;
+        } catch (IOException exc) {
+            LOGGER.log(Level.WARNING, "Unable to record the resume of upload " + uploadId, exc);
+        }
+    }
+
+    /**
+     * Closes the journal. It must not be used afterwards.
+     */
+    synchronized void close() {
+        closed = true;
+        closeOutput();
+    }
+
+    private void finished(String uploadId, byte recordType) {
+        final Entry entry = pending.remove(uploadId);
+        if (entry == null) {
+            return;
+        }
+
+        try {
+            record.writeByte(recordType);
+            record.writeUTF(uploadId);
+            appendRecord(true);
+        } catch (IOException exc) {
+            LOGGER.log(Level.WARNING, "Unable to record the end of upload " + uploadId, exc);
+        }
+
+        // the submission, the checkpoint and the terminal record are not needed anymore
+        obsoleteRecords += getLiveRecords(entry) + 1;
+
+        if (obsoleteRecords > COMPACTION_THRESHOLD && !closed) {
+            try {
+                compact();
+            } catch (IOException exc) {
+                LOGGER.log(Level.WARNING, "Unable to compact the upload journal", exc);
+            }
+        }
+    }
+
+    private static int getLiveRecords(Entry entry) {
+        return 1 + (entry.lastCheckpointTime > 0 ? 1 : 0) + (entry.paused ? 1 : 0);
+    }
+
+    /**
+     * Writes the record accumulated in the record buffer to the journal.
+     */
+    private void appendRecord(boolean sync) throws IOException {
+        try {
+            if (closed) {
+                throw new IOException("The upload journal has been closed");
+            }
+            if (output == null) {
+                openForAppend();
+            }
+            writeFrame(output, recordBuffer.toByteArray());
+            output.flush();
+            if (sync) {
+                fileOutput.getFD().sync();
+            }
+        } finally {
+            recordBuffer.reset();
+        }
+    }
+
+    private void writeFrame(DataOutputStream stream, byte[] body) throws IOException {
+        crc.reset();
+        crc.update(body, 0, body.length);
+        stream.writeInt(body.length);
+        stream.write(body);
+        stream.writeInt((int) crc.getValue());
+    }
+
+    /**
+     * Reads the journal, rebuilding the list of pending uploads.
+     *
+     * @return true if the whole journal has been read, false if it's missing, corrupted
+     * or truncated
+     */
+    private boolean load() throws IOException {
+        if (!file.exists()) {
+            return false;
+        }
+
+        final DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (input.readInt() != MAGIC) {
+                LOGGER.warning("Unknown journal format. Discarding it");
+                return false;
+            }
+
+            while (true) {
+                final int length;
+                try {
+                    length = input.readInt();
+                } catch (EOFException exc) {
+                    return true;
+                }
+
+                if (length <= 0 || length > MAX_RECORD_LENGTH) {
+                    LOGGER.warning("Corrupted journal record. Discarding the rest of the journal");
+                    return false;
+                }
+
+                final byte[] body = new byte[length];
+                input.readFully(body);
+                final int checksum = input.readInt();
+
+                crc.reset();
+                crc.update(body, 0, length);
+                if ((int) crc.getValue() != checksum) {
+                    LOGGER.warning("Journal record checksum mismatch. Discarding the rest of the journal");
+                    return false;
+                }
+
+                applyRecord(body);
+            }
+        } catch (EOFException exc) {
+            LOGGER.warning("Truncated journal record. Discarding it");
+            return false;
+        } finally {
+            input.close();
+        }
+    }
+
+    private void applyRecord(byte[] body) throws IOException {
+        final DataInputStream input = new DataInputStream(new ByteArrayInputStream(body));
+        final byte type = input.readByte();
+        final String uploadId = input.readUTF();
+
+        if (type == RECORD_SUBMITTED) {
+            final byte[] request = new byte[input.readInt()];
+            input.readFully(request);
+            pending.put(uploadId, new Entry(uploadId, request));
+            return;
+        }
+
+        final Entry entry = pending.get(uploadId);
+
+        if (type == RECORD_PROGRESS) {
+            if (entry != null) {
+                if (entry.lastCheckpointTime > 0) {
+                    obsoleteRecords++;
+                }
+                entry.uploadedBytes = input.readLong();
+                entry.totalBytes = input.readLong();
+                entry.lastCheckpointTime = 1;
+            } else {
+                obsoleteRecords++;
+            }
+            return;
+        }
+
+        if (type == RECORD_PAUSED || type == RECORD_RESUMED) {
+            if (entry != null && entry.paused != (type == RECORD_PAUSED)) {
+                entry.paused = type == RECORD_PAUSED;
+                if (!entry.paused) {
+                    obsoleteRecords += 2;
+                }
+            } else {
+                obsoleteRecords++;
+            }
+            return;
+        }
+
+        // terminal records
+        if (entry != null) {
+            pending.remove(uploadId);
+            obsoleteRecords += getLiveRecords(entry) + 1;
+        } else {
+            obsoleteRecords++;
+        }
+    }
+
+    /**
+     * Rewrites the journal with only the pending uploads and their last checkpoint.
+     * The new journal is written aside and then renamed over the old one, so a crash during
+     * the compaction leaves the old journal intact.
+     */
+    private void compact() throws IOException {
+        closeOutput();
+
+        final File compacted = new File(file.getParentFile(), FILE_NAME + ".tmp");
+        final FileOutputStream compactedOutput = new FileOutputStream(compacted);
+        final DataOutputStream stream = new DataOutputStream(new BufferedOutputStream(compactedOutput));
+
+        try {
+            stream.writeInt(MAGIC);
+
+            for (Entry entry : pending.values()) {
+                record.writeByte(RECORD_SUBMITTED);
+                record.writeUTF(entry.uploadId);
+                record.writeInt(entry.request.length);
+                record.write(entry.request);
+                writeFrame(stream, recordBuffer.toByteArray());
+                recordBuffer.reset();
+
+                if (entry.lastCheckpointTime > 0) {
+                    record.writeByte(RECORD_PROGRESS);
+                    record.writeUTF(entry.uploadId);
+                    record.writeLong(entry.uploadedBytes);
+                    record.writeLong(entry.totalBytes);
+                    writeFrame(stream, recordBuffer.toByteArray());
+                    recordBuffer.reset();
+                }
+
+                if (entry.paused) {
+                    record.writeByte(RECORD_PAUSED);
+                    record.writeUTF(entry.uploadId);
+                    writeFrame(stream, recordBuffer.toByteArray());
+                    recordBuffer.reset();
+                }
+            }
+
+            stream.flush();
+            compactedOutput.getFD().sync();
+        } finally {
+            recordBuffer.reset();
+            stream.close();
+        }
+
+        if (!compacted.renameTo(file)) {
+            throw new IOException("Unable to replace " + file + " with the compacted journal");
+        }
+
+        obsoleteRecords = 0;
+        openForAppend();
+    }
+
+    private void openForAppend() throws IOException {
+        final boolean isNew = !file.exists() || file.length() == 0;
+        fileOutput = new FileOutputStream(file, true);
+        output = new DataOutputStream(new BufferedOutputStream(fileOutput));
+
+        if (isNew) {
+            output.writeInt(MAGIC);
+            output.flush();
+        }
+    }
+
+    private void closeOutput() {
+        if (output != null) {
+            try {
+                output.close();
+            } catch (IOException exc) {
+            }
+            output = null;
+            fileOutput = null;
+        }
+    }
+
+    /**
+     * Encodes the extras of an upload intent in a compact binary form.
+     * Extras of types not supported by the journal are skipped.
+     *
+     * @param intent intent used to start the upload
+     * @return encoded request
+     * @throws IOException if the request can't be encoded
+     */
+    static byte[] encodeRequest(Intent intent) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(512);
+        final DataOutputStream stream = new DataOutputStream(bytes);
+        final Bundle extras = intent.getExtras();
+
+        if (extras == null) {
+            stream.writeInt(0);
+            return bytes.toByteArray();
+        }
+
+        final ArrayList<String> keys = new ArrayList<String>();
+        for (String key : extras.keySet()) {
+            if (isEncodable(extras.get(key))) {
+                keys.add(key);
+            } else if (extras.get(key) != null) {
+                LOGGER.warning("Upload parameter " + key + " can't be saved in the journal");
+            }
+        }
+
+        stream.writeInt(keys.size());
+        for (String key : keys) {
+            writeString(stream, key);
+            writeValue(stream, extras.get(key));
+        }
+
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Rebuilds the intent to start an upload from its encoded form.
+     *
+     * @param context context used to create the intent
+     * @param request encoded request, as returned by {@link #encodeRequest(Intent)}
+     * @return intent to start the upload
+     * @throws IOException if the request can't be decoded
+     */
+    static Intent decodeRequest(Context context, byte[] request) throws IOException {
+        final DataInputStream stream = new DataInputStream(new ByteArrayInputStream(request));
+        final Intent intent = new Intent(context, UploadService.class);
+        intent.setAction(UploadService.getActionUpload());
+
+        final int count = stream.readInt();
+        for (int i = 0; i < count; i++) {
+            readValue(stream, readString(stream), intent);
+        }
+
+        return intent;
+    }
+
+    private static boolean isEncodable(Object value) {
+        if (value instanceof String || value instanceof Integer || value instanceof Long
+                || value instanceof Boolean || value instanceof BinaryUploadFile
+                || value instanceof UploadNotificationConfig || value instanceof RetryPolicy) {
+            return true;
+        }
+
+        if (value instanceof ArrayList) {
+            for (Object item : (ArrayList<?>) value) {
+                if (!(item instanceof NameValue) && !(item instanceof MultipartUploadFile)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        return false;
+    }
+
+    private static void writeValue(DataOutputStream stream, Object value) throws IOException {
+        if (value instanceof String) {
+            stream.writeByte(VALUE_STRING);
+            writeString(stream, (String) value);
+
+        } else if (value instanceof Integer) {
+            stream.writeByte(VALUE_INT);
+            stream.writeInt((Integer) value);
+
+        } else if (value instanceof Long) {
+            stream.writeByte(VALUE_LONG);
+            stream.writeLong((Long) value);
+
+        } else if (value instanceof Boolean) {
+            stream.writeByte(VALUE_BOOLEAN);
+            stream.writeBoolean((Boolean) value);
+
+        } else if (value instanceof BinaryUploadFile) {
+            stream.writeByte(VALUE_BINARY_FILE);
+            writeString(stream, ((BinaryUploadFile) value).file.getAbsolutePath());
+
+        } else if (value instanceof UploadNotificationConfig) {
+            // the click intent can't be persisted, so resumed uploads don't have it
+            final UploadNotificationConfig config = (UploadNotificationConfig) value;
+            stream.writeByte(VALUE_NOTIFICATION_CONFIG);
+            stream.writeInt(config.getIconResourceID());
+            writeNullableString(stream, config.getTitle());
+            writeNullableString(stream, config.getMessage());
+            writeNullableString(stream, config.getCompleted());
+            writeNullableString(stream, config.getError());
+            stream.writeBoolean(config.isAutoClearOnSuccess());
+            stream.writeBoolean(config.isRingTone());
+
+        } else if (value instanceof RetryPolicy) {
+            final RetryPolicy policy = (RetryPolicy) value;
+            stream.writeByte(VALUE_RETRY_POLICY);
+            stream.writeLong(policy.getInitialDelay());
+            stream.writeLong(policy.getMaxDelay());
+            stream.writeBoolean(policy.isRetryServerErrors());
+            stream.writeBoolean(policy.isHonorRetryAfter());
+            final int[] statusCodes = policy.getRetryableStatusCodes();
+            stream.writeInt(statusCodes.length);
+            for (int statusCode : statusCodes) {
+                stream.writeInt(statusCode);
+            }
+
+        } else {
+            final ArrayList<?> list = (ArrayList<?>) value;
+            final boolean files = !list.isEmpty() && list.get(0) instanceof MultipartUploadFile;
+            stream.writeByte(files ? VALUE_MULTIPART_FILE_LIST : VALUE_NAME_VALUE_LIST);
+            stream.writeInt(list.size());
+
+            for (Object item : list) {
+                if (files) {
+                    final MultipartUploadFile file = (MultipartUploadFile) item;
+                    writeString(stream, file.file.getAbsolutePath());
+                    writeString(stream, file.paramName);
+                    writeString(stream, file.fileName);
+                    writeNullableString(stream, file.contentType);
+                } else {
+                    final NameValue nameValue = (NameValue) item;
+                    writeNullableString(stream, nameValue.getName());
+                    writeNullableString(stream, nameValue.getValue());
+                }
+            }
+        }
+    }
+
+    private static void readValue(DataInputStream stream, String key, Intent intent) throws IOException {
+        final byte type = stream.readByte();
+
+        switch (type) {
+            case VALUE_STRING:
+                intent.putExtra(key, readString(stream));
+                break;
+
+            case VALUE_INT:
+                intent.putExtra(key, stream.readInt());
+                break;
+
+            case VALUE_LONG:
+                intent.putExtra(key, stream.readLong());
+                break;
+
+            case VALUE_BOOLEAN:
+                intent.putExtra(key, stream.readBoolean());
+                break;
+
+            case VALUE_BINARY_FILE:
+                intent.putExtra(key, new BinaryUploadFile(readString(stream)));
+                break;
+
+            case VALUE_NOTIFICATION_CONFIG:
+                final UploadNotificationConfig config = new UploadNotificationConfig(stream.readInt(),
+                        readNullableString(stream), readNullableString(stream), readNullableString(stream),
+                        readNullableString(stream), stream.readBoolean());
+                config.enableRingTone(stream.readBoolean());
+                intent.putExtra(key, config);
+                break;
+
+            case VALUE_RETRY_POLICY:
+                final RetryPolicy policy = new RetryPolicy(stream.readLong(), stream.readLong());
+                policy.setRetryServerErrors(stream.readBoolean());
+                policy.setHonorRetryAfter(stream.readBoolean());
+                final int[] statusCodes = new int[stream.readInt()];
+                for (int i = 0; i < statusCodes.length; i++) {
+                    statusCodes[i] = stream.readInt();
+                }
+                policy.setRetryableStatusCodes(statusCodes);
+                intent.putExtra(key, policy);
+                break;
+
+            case VALUE_NAME_VALUE_LIST:
+                final int parametersCount = stream.readInt();
+                final ArrayList<NameValue> parameters = new ArrayList<NameValue>(parametersCount);
+                for (int i = 0; i < parametersCount; i++) {
+                    parameters.add(new NameValue(readNullableString(stream), readNullableString(stream)));
+                }
+                intent.putParcelableArrayListExtra(key, parameters);
+                break;
+
+            case VALUE_MULTIPART_FILE_LIST:
+                final int filesCount = stream.readInt();
+                final ArrayList<MultipartUploadFile> files = new ArrayList<MultipartUploadFile>(filesCount);
+                for (int i = 0; i < filesCount; i++) {
+                    files.add(new MultipartUploadFile(readString(stream), readString(stream), readString(stream),
+                            readNullableString(stream)));
+                }
+                intent.putParcelableArrayListExtra(key, files);
+                break;
+
+            default:
+                throw new IOException("Unknown value type " + type + " for parameter " + key);
+        }
+    }
+
+    private static void writeNullableString(DataOutputStream stream, String value) throws IOException {
+        stream.writeBoolean(value != null);
+        if (value != null) {
+            writeString(stream, value);
+        }
+    }
+
+    private static String readNullableString(DataInputStream stream) throws IOException {
+        return stream.readBoolean() ? readString(stream) : null;
+    }
+
+    // writeUTF is limited to 64KB, which is not enough for parameter values
+    private static void writeString(DataOutputStream stream, String value) throws IOException {
+        final byte[] bytes = value.getBytes(UTF_8);
+        stream.writeInt(bytes.length);
+        stream.write(bytes);
+    }
+
+    private static String readString(DataInputStream stream) throws IOException {
+        final int length = stream.readInt();
+        if (length < 0 || length > MAX_RECORD_LENGTH) {
+            throw new IOException("Invalid string length " + length);
+        }
+        final byte[] bytes = new byte[length];
+        stream.readFully(bytes);
+        return new String(bytes, UTF_8);
+    }
+}
@@ -0,0 +1,359 @@
+package com.alexbbb.uploadservice;
+
+import android.app.Notification;
+import android.app.NotificationManager;
+import android.graphics.Color;
+import android.os.Build;
+import android.os.Handler;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Shows the notifications of the active uploads: a summary notification with the aggregate
+ * progress of all of them, which keeps the service in foreground, and optionally a child
+ * notification for each upload, grouped under the summary.
+ *
+ * Notifications are refreshed at most once per update interval, regardless of how often the
+ * progress is reported. The interval grows with the number of notifications posted by each
+ * refresh, to stay within the number of updates per second the system accepts from an app.
+ * startForeground is called when the first upload starts, or as soon as an upload is waiting
+ * to be retried or for its constraints to hold: after that the summary is updated through the
+ * notification manager.
+ *
+ * @author alexbbb (Aleksandar Gotev)
+ */
+final class UploadNotifications {
+
+    static final String GROUP_KEY = "com.alexbbb.uploadservice.UPLOADS";
+    static final int SUMMARY_NOTIFICATION_ID = UploadService.UPLOAD_NOTIFICATION_BASE_ID;
+
+    /**
+     * Notification updates per second above which the system starts dropping them.
+     */
+    private static final int MAX_UPDATES_PER_SECOND = 5;
+
+    private final UploadService service;
+    private final NotificationManager notificationManager;
+    private final Handler handler;
+
+    private final UploadSummary summary = new UploadSummary();
+    private final Map<String, long[]> changedUploads = new LinkedHashMap<String, long[]>();
+
+    private int waitingUploads = 0;
+    private int activeUploads = 0;
+    private boolean foreground = false;
+    private boolean cleared = false;
+    private boolean refreshScheduled = false;
+    private long lastRefreshTime = 0;
+
+    private final Runnable refreshTask = new Runnable() {
+        @Override
+        public void run() {
+            refresh();
+        }
+    };
+
+    UploadNotifications(UploadService service, NotificationManager notificationManager, Handler handler) {
+        this.service = service;
+        this.notificationManager = notificationManager;
+        this.handler = handler;
+    }
+
+    /**
+     * Shows the notification of an upload. The first time it's called for an upload, the upload
+     * is added to the summary.
+     *
+     * @param uploadId ID of the upload
+     * @param notificationId ID of the upload notification
+     * @param notification upload notification
+     */
+    void showUploadNotification(String uploadId, int notificationId, Notification notification) {
+        final boolean added;
+
+        synchronized (this) {
+            added = summary.add(uploadId);
+
+            if (UploadService.isPerUploadNotificationsEnabled()) {
+                notificationManager.notify(notificationId, notification);
+            }
+
+            if (!foreground) {
+                startForeground();
+                return;
+            }
+        }
+
+        if (added) {
+            requestRefresh();
+        }
+    }
+
+    /**
+     * Records the progress reported by a progress tick. The notifications are refreshed later,
+     * according to the update interval.
+     */
+    void onProgressBatch(String[] uploadIds, long[] uploadedBytes, long[] totalBytes) {
+        synchronized (this) {
+            for (int i = 0; i < uploadIds.length; i++) {
+                summary.update(uploadIds[i], uploadedBytes[i], totalBytes[i]);
+                changedUploads.put(uploadIds[i], new long[] {uploadedBytes[i], totalBytes[i]});
+            }
+        }
+
+        requestRefresh();
+    }
+
+    /**
+     * Records how many uploads are waiting to be retried or for their constraints to hold.
+     * The service goes in foreground as soon as an upload waits, also if it never started,
+     * and while nothing is running the summary says that the uploads are waiting.
+     *
+     * @param waiting number of waiting uploads
+     * @param active number of active uploads, including the waiting ones
+     */
+    void setWaitingUploads(int waiting, int active) {
+        synchronized (this) {
+            // the tasks stopped by the service while it's destroyed don't bring it back in foreground
+            if (cleared || (waiting == waitingUploads && active == activeUploads)) {
+                return;
+            }
+
+            waitingUploads = waiting;
+            activeUploads = active;
+
+            if (!foreground) {
+                if (waiting > 0) {
+                    startForeground();
+                }
+                return;
+            }
+
+            if (waiting == 0 && summary.getCount() == 0) {
+                stopForeground();
+                return;
+            }
+        }
+
+        requestRefresh();
+    }
+
+    /**
+     * Puts the service in foreground with the summary, if it's not already. Called when the
+     * service has been started as a foreground service. The summary is removed as usual when
+     * there are no uploads running or waiting.
+     */
+    synchronized void startForeground() {
+        if (foreground || cleared) {
+            return;
+        }
+
+        foreground = true;
+        lastRefreshTime = System.currentTimeMillis();
+        summary.sample(lastRefreshTime);
+        service.startForeground(SUMMARY_NOTIFICATION_ID, buildSummary());
+    }
+
+    /**
+     * Removes the notification of an upload and shows its final notification, if any.
+     *
+     * @param uploadId ID of the upload
+     * @param notificationId ID of the upload notification
+     * @param finalNotification notification to show, or null to just remove the upload one
+     */
+    void uploadFinished(String uploadId, int notificationId, Notification finalNotification) {
+        notificationManager.cancel(notificationId);
+
+        if (finalNotification != null) {
+            notificationManager.notify(notificationId + 1, finalNotification);
+        }
+
+        uploadRemoved(uploadId);
+    }
+
+    /**
+     * Removes an upload from the summary. When there are no more uploads, the summary is
+     * removed and the service leaves the foreground.
+     *
+     * @param uploadId ID of the upload
+     */
+    void uploadRemoved(String uploadId) {
+        synchronized (this) {
+            changedUploads.remove(uploadId);
+
+            if (!summary.remove(uploadId)) {
+                return;
+            }
+
+            if (summary.getCount() == 0 && waitingUploads == 0) {
+                stopForeground();
+                return;
+            }
+        }
+
+        requestRefresh();
+    }
+
+    /**
+     * Removes all the notifications. Called when the service is destroyed.
+     */
+    synchronized void clear() {
+        cleared = true;
+        stopForeground();
+    }
+
+    private void stopForeground() {
+        handler.removeCallbacks(refreshTask);
+        refreshScheduled = false;
+        changedUploads.clear();
+
+        if (foreground) {
+            foreground = false;
+            service.stopForeground(true);
+        }
+    }
+
+    private void requestRefresh() {
+        synchronized (this) {
+            if (refreshScheduled || !foreground) {
+                return;
+            }
+
+            final long delay = lastRefreshTime + getMinRefreshInterval() - System.currentTimeMillis();
+            if (delay > 0) {
+                refreshScheduled = true;
+                handler.postDelayed(refreshTask, delay);
+                return;
+            }
+        }
+
+        refresh();
+    }
+
+    private long getMinRefreshInterval() {
+        final int childUpdates = UploadService.isPerUploadNotificationsEnabled() ? changedUploads.size() : 0;
+        return Math.max(UploadService.getNotificationUpdateInterval(),
+                (1 + childUpdates) * 1000L / MAX_UPDATES_PER_SECOND);
+    }
+
+    private void refresh() {
+        final boolean traced = UploadTrace.beginSection("UploadNotifications.refresh");
+        try {
+            refreshNotifications();
+        } finally {
+            UploadTrace.endSection(traced);
+        }
+    }
+
+    private void refreshNotifications() {
+        final List<HttpUploadTask> tasks = new ArrayList<HttpUploadTask>();
+        final List<long[]> progress = new ArrayList<long[]>();
+
+        synchronized (this) {
+            refreshScheduled = false;
+            if (!foreground) {
+                return;
+            }
+
+            lastRefreshTime = System.currentTimeMillis();
+            summary.sample(lastRefreshTime);
+            notificationManager.notify(SUMMARY_NOTIFICATION_ID, buildSummary());
+
+            if (UploadService.isPerUploadNotificationsEnabled()) {
+                for (Map.Entry<String, long[]> entry : changedUploads.entrySet()) {
+                    final HttpUploadTask task = UploadService.getUploadTask(entry.getKey());
+                    if (task != null) {
+                        tasks.add(task);
+                        progress.add(entry.getValue());
+                    }
+                }
+            }
+            changedUploads.clear();
+        }
+
+        UploadTrace.event(null, UploadTrace.EVENT_NOTIFICATION, tasks.size());
+
+        // the tasks are updated outside of the lock, because they call back into this class
+        // while holding their own notification lock
+        for (int i = 0; i < tasks.size(); i++) {
+            tasks.get(i).updateNotificationProgress(progress.get(i)[0], progress.get(i)[1]);
+        }
+    }
+
+    private Notification buildSummary() {
+        final HttpUploadTask firstTask = UploadService.getUploadTask(summary.getFirstUploadId());
+        final UploadNotificationConfig config = firstTask != null ? firstTask.notificationConfig
+                                                                 : new UploadNotificationConfig();
+
+        final Notification.Builder builder;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            builder = new Notification.Builder(service, UploadService.UPLOAD_CHANNEL_ID);
+        } else {
+            builder = new Notification.Builder(service);
+        }
+
+        final int count = Math.max(summary.getCount(), activeUploads);
+        final long uploadedBytes = summary.getUploadedBytes();
+        final long totalBytes = summary.getTotalBytes();
+
+        final StringBuilder text = new StringBuilder();
+        text.append(UploadService.bytesFormat(uploadedBytes, 1));
+        if (totalBytes >= 0) {
+            text.append("/").append(UploadService.bytesFormat(totalBytes, 1));
+        }
+
+        final long remainingMillis = summary.getRemainingMillis();
+        if (waitingUploads > 0 && waitingUploads >= activeUploads) {
+            text.append(", waiting for network");
+        } else if (remainingMillis >= 0) {
+            text.append(", ").append(formatDuration(remainingMillis)).append(" left");
+        }
+
+        builder.setSmallIcon(config.getIconResourceID())
+                .setContentTitle(count == 1 ? config.getTitle() : count + " uploads")
+                .setContentText(text)
+                .setContentIntent(config.getPendingIntent(service))
+                .setGroup(GROUP_KEY)
+                .setGroupSummary(true)
+                .setOngoing(true)
+                .setOnlyAlertOnce(true)
+                .setShowWhen(false)
+                .setCategory(Notification.CATEGORY_PROGRESS)
+                .setPriority(Notification.PRIORITY_DEFAULT)
+                .setColor(Color.rgb(100, 17, 69));
+
+        if (totalBytes > 0) {
+            builder.setProgress(100, (int) (uploadedBytes * 100 / totalBytes), false);
+        } else {
+            builder.setProgress(0, 0, true);
+        }
+
+        return builder.build();
+    }
+
+    /**
+     * Formats a duration in a compact form, e.g. 45s, 3m 20s or 1h 05m.
+     *
+     * @param millis duration in milliseconds
+     * @return formatted duration
+     */
+    static String formatDuration(long millis) {
+        final long seconds = (millis + 999) / 1000;
+
+        if (seconds < 60) {
+            return seconds + "s";
+        }
+
+        if (seconds < 3600) {
+            return (seconds / 60) + "m " + pad(seconds % 60) + "s";
+        }
+
+        return (seconds / 3600) + "h " + pad((seconds % 3600) / 60) + "m";
+    }
+
+    private static String pad(long value) {
+        return value < 10 ? "0" + value : Long.toString(value);
+    }
+}
@@ -0,0 +1,72 @@
+package com.alexbbb.uploadservice;
+
+/**
+ * Receives the events of the uploads directly from the upload service, without broadcasts,
+ * when it runs in the same process. Register it with
+ * {@link UploadService#addObserver(UploadObserver)} or one of its variants.
+ *
+ * Override only the methods you need. They are called on the executor chosen when the
+ * observer has been registered, or on the main thread.
+ *
+ * @author alexbbb (Aleksandar Gotev)
+ */
+public abstract class UploadObserver {
+
+    /**
+     * Called once per progress tick, if the upload made progress since the previous one.
+     *
+     * @param uploadId unique ID of the upload request
+     * @param uploadedBytes the count of the bytes uploaded so far
+     * @param totalBytes the total expected bytes to upload, or -1 if it's unknown
+     */
+    public void onProgress(final String uploadId, final long uploadedBytes, final long totalBytes) {
+    }
+
+    /**
+     * Called after {@link #onProgress(String, long, long)}, with the average upload speed
+     * measured over the last few seconds and the estimated time to complete the upload.
+     *
+     * @param uploadId unique ID of the upload request
+     * @param bytesPerSecond average upload speed in bytes per second, or -1 if not measured yet
+     * @param remainingMillis estimated remaining time in milliseconds, or -1 if it can't be
+     *                        estimated
+     */
+    public void onThroughput(final String uploadId, final long bytesPerSecond, final long remainingMillis) {
+    }
+
+    /**
+     * Called when the upload is completed.
+     *
+     * @param uploadId unique ID of the upload request
+     * @param serverResponseCode status code returned by the server
+     * @param serverResponseMessage string containing the response received from the server
+     */
+    public void onCompleted(final String uploadId, final int serverResponseCode,
+                            final String serverResponseMessage) {
+    }
+
+    /**
+     * Called when an error happens during the upload.
+     *
+     * @param uploadId unique ID of the upload request
+     * @param exception exception that caused the error
+     */
+    public void onError(final String uploadId, final Exception exception) {
+    }
+
+    /**
+     * Called when the upload has been cancelled.
+     *
+     * @param uploadId unique ID of the upload request
+     */
+    public void onCancelled(final String uploadId) {
+    }
+
+    /**
+     * Called when the upload has been paused.
+     *
+     * @param uploadId unique ID of the upload request
+     */
+    public void onPaused(final String uploadId) {
+    }
+}
@@ -0,0 +1,166 @@
+package com.alexbbb.uploadservice;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+
+/**
+ * Keeps the in-process {@link UploadObserver}s and dispatches the upload events to them.
+ *
+ * Registrations are kept in copy-on-write lists, so dispatching never locks: it only iterates
+ * over a snapshot and hands each callback to the executor of its registration.
+ * Observers of a single upload are dropped when the upload completes, fails or is cancelled.
+ *
+ * @author alexbbb (Aleksandar Gotev)
+ */
+final class UploadObserverRegistry {
+
+    private static final class Registration {
+        final UploadObserver observer;
+        final Executor executor;
+
+        Registration(UploadObserver observer, Executor executor) {
+            this.observer = observer;
+            this.executor = executor;
+        }
+    }
+
+    private final List<Registration> allUploadsObservers = new CopyOnWriteArrayList<Registration>();
+    private final Map<String, List<Registration>> uploadObservers =
+            new ConcurrentHashMap<String, List<Registration>>();
+
+    /**
+     * Registers an observer.
+     *
+     * @param uploadId ID of the upload to observe, or null to observe all the uploads
+     * @param observer observer to register
+     * @param executor executor on which the observer is called
+     */
+    void add(String uploadId, UploadObserver observer, Executor executor) {
+        final Registration registration = new Registration(observer, executor);
+
+        if (uploadId == null) {
+            allUploadsObservers.add(registration);
+            return;
+        }
+
+        synchronized (uploadObservers) {
+            List<Registration> registrations = uploadObservers.get(uploadId);
+            if (registrations == null) {
+                registrations = new CopyOnWriteArrayList<Registration>();
+                uploadObservers.put(uploadId, registrations);
+            }
+            registrations.add(registration);
+        }
+    }
+
+    /**
+     * Unregisters an observer from all the uploads it observes.
+     *
+     * @param observer observer to unregister
+     */
+    void remove(UploadObserver observer) {
+        removeFrom(allUploadsObservers, observer);
+
+        synchronized (uploadObservers) {
+            for (List<Registration> registrations : uploadObservers.values()) {
+                removeFrom(registrations, observer);
+            }
+        }
+    }
+
+    private static void removeFrom(List<Registration> registrations, UploadObserver observer) {
+        for (Registration registration : registrations) {
+            if (registration.observer == observer) {
+                registrations.remove(registration);
+            }
+        }
+    }
+
+    void dispatchProgress(final String uploadId, final long uploadedBytes, final long totalBytes) {
+        dispatch(uploadId, new Event() {
+            @Override
+            void deliver(UploadObserver observer) {
+                observer.onProgress(uploadId, uploadedBytes, totalBytes);
+            }
+        }, false);
+    }
+
+    void dispatchThroughput(final String uploadId, final long bytesPerSecond, final long remainingMillis) {
+        dispatch(uploadId, new Event() {
+            @Override
+            void deliver(UploadObserver observer) {
+                observer.onThroughput(uploadId, bytesPerSecond, remainingMillis);
+            }
+        }, false);
+    }
+
+    void dispatchCompleted(final String uploadId, final int responseCode, final String responseMessage) {
+        dispatch(uploadId, new Event() {
+            @Override
+            void deliver(UploadObserver observer) {
+                observer.onCompleted(uploadId, responseCode, responseMessage);
+            }
+        }, true);
+    }
+
+    void dispatchError(final String uploadId, final Exception exception) {
+        dispatch(uploadId, new Event() {
+            @Override
+            void deliver(UploadObserver observer) {
+                observer.onError(uploadId, exception);
+            }
+        }, true);
+    }
+
+    void dispatchCancelled(final String uploadId) {
+        dispatch(uploadId, new Event() {
+            @Override
+            void deliver(UploadObserver observer) {
+                observer.onCancelled(uploadId);
+            }
+        }, true);
+    }
+
+    void dispatchPaused(final String uploadId) {
+        // observers of a paused upload are kept, because it can be resumed
+        dispatch(uploadId, new Event() {
+            @Override
+            void deliver(UploadObserver observer) {
+                observer.onPaused(uploadId);
+            }
+        }, false);
+    }
+
+    private void dispatch(String uploadId, Event event, boolean lastEvent) {
+        for (Registration registration : allUploadsObservers) {
+            event.post(registration);
+        }
+
+        final List<Registration> registrations = lastEvent ? uploadObservers.remove(uploadId)
+                                                           : uploadObservers.get(uploadId);
+        if (registrations != null) {
+            for (Registration registration : registrations) {
+                event.post(registration);
+            }
+        }
+    }
+
+    /**
+     * An upload event, delivered to each observer on the executor of its registration.
+     */
+    private abstract static class Event {
+        abstract void deliver(UploadObserver observer);
+
+        final void post(final Registration registration) {
+            registration.executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    deliver(registration.observer);
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,359 @@
+package com.alexbbb.uploadservice;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Executor;
+
+/**
+ * Decides which upload runs next on the upload workers.
+ * Uploads are queued per host and the hosts are served in round-robin order, so that a slow
+ * endpoint can't take all the workers while uploads to other hosts are waiting.
+ * The number of uploads running at the same time towards a single host is capped.
+ * Within each host, the queued uploads are ordered by the {@link UploadSchedulingPolicy}.
+ * Uploads whose {@link UploadConstraints} don't hold in the current {@link DeviceState} are
+ * kept in the queue, without blocking the other uploads of the same host.
+ *
+ * @author alexbbb (Aleksandar Gotev)
+ */
+class UploadScheduler {
+
+    private final Executor executor;
+    private final int maxConcurrentUploads;
+    private final int defaultMaxUploadsPerHost;
+    private final Map<String, Integer> maxUploadsPerHost;
+
+    private final LinkedHashMap<String, HostQueue> hostQueues = new LinkedHashMap<String, HostQueue>();
+    private final ArrayList<String> roundRobin = new ArrayList<String>();
+    private String lastServedHost = null;
+    private int runningUploads = 0;
+    private long nextSequenceNumber = 0;
+    private Comparator<Entry> entryComparator;
+    private DeviceState deviceState = DeviceState.UNCONSTRAINED;
+    private final LinkedHashMap<String, Entry> runningEntries = new LinkedHashMap<String, Entry>();
+
+    /**
+     * Creates a new scheduler.
+     *
+     * @param executor executor on which to run the uploads
+     * @param maxConcurrentUploads maximum number of uploads running at the same time
+     * @param defaultMaxUploadsPerHost maximum number of uploads running at the same time towards
+     *                                 a single host, if not otherwise specified for that host
+     * @param maxUploadsPerHost per host overrides of the default limit. It's read at every
+     *                          scheduling decision, so it can be changed at runtime
+     * @param policy order in which the queued uploads of a host are started
+     */
+    UploadScheduler(Executor executor, int maxConcurrentUploads, int defaultMaxUploadsPerHost,
+                    Map<String, Integer> maxUploadsPerHost, UploadSchedulingPolicy policy) {
+        this.executor = executor;
+        this.maxConcurrentUploads = maxConcurrentUploads < 1 ? 1 : maxConcurrentUploads;
+        this.defaultMaxUploadsPerHost = defaultMaxUploadsPerHost < 1 ? 1 : defaultMaxUploadsPerHost;
+        this.maxUploadsPerHost = maxUploadsPerHost;
+        this.entryComparator = getEntryComparator(policy);
+    }
+
+    private static Comparator<Entry> getEntryComparator(final UploadSchedulingPolicy policy) {
+        final UploadSchedulingPolicy actualPolicy = policy == null ? UploadSchedulingPolicy.FIFO : policy;
+
+        return new Comparator<Entry>() {
+            @Override
+            public int compare(Entry lhs, Entry rhs) {
+                final int result = actualPolicy.compare(lhs.info, rhs.info);
+                if (result != 0) {
+                    return result;
+                }
+
+                final long lhsSequence = lhs.info.getSequenceNumber();
+                final long rhsSequence = rhs.info.getSequenceNumber();
+                return lhsSequence < rhsSequence ? -1 : (lhsSequence == rhsSequence ? 0 : 1);
+            }
+        };
+    }
+
+    /**
+     * Changes the scheduling policy. The uploads already in the queue are reordered.
+     *
+     * @param policy new scheduling policy
+     */
+    synchronized void setPolicy(UploadSchedulingPolicy policy) {
+        entryComparator = getEntryComparator(policy);
+
+        for (HostQueue queue : hostQueues.values()) {
+            final PriorityQueue<Entry> reordered = new PriorityQueue<Entry>(11, entryComparator);
+            reordered.addAll(queue.pending);
+            queue.pending = reordered;
+        }
+    }
+
+    /**
+     * Queues an upload. It will be started as soon as a worker and a slot for its host
+     * are available.
+     *
+     * @param uploadId ID of the upload
+     * @param host host key, as returned by {@link UploadEngine#getHostKey(String)}
+     * @param priority upload priority. Higher values mean more urgent uploads
+     * @param estimatedBodyLength expected body size in bytes, or -1 if unknown
+     * @param upload the upload to execute
+     */
+    synchronized void schedule(String uploadId, String host, int priority, long estimatedBodyLength,
+                               Runnable upload) {
+        schedule(uploadId, host, priority, estimatedBodyLength, UploadConstraints.NONE, upload);
+    }
+
+    /**
+     * Queues an upload, which is started when its constraints hold and there are workers
+     * available.
+     *
+     * @param uploadId ID of the upload
+     * @param host host key, as returned by {@link UploadEngine#getHostKey(String)}
+     * @param priority upload priority. Higher values mean more urgent uploads
+     * @param estimatedBodyLength expected body size in bytes, or -1 if unknown
+     * @param constraints conditions the device must meet for the upload to start
+     * @param upload the upload to execute
+     */
+    synchronized void schedule(String uploadId, String host, int priority, long estimatedBodyLength,
+                               UploadConstraints constraints, Runnable upload) {
+        HostQueue queue = hostQueues.get(host);
+        if (queue == null) {
+            queue = new HostQueue(host, entryComparator);
+            hostQueues.put(host, queue);
+            roundRobin.add(host);
+        }
+
+        final ScheduledUpload info = new ScheduledUpload(uploadId, priority, estimatedBodyLength,
+                nextSequenceNumber++);
+        queue.pending.add(new Entry(info, constraints, upload, System.nanoTime()));
+        dispatch();
+    }
+
+    /**
+     * Updates the state of the device. The queued uploads whose constraints now hold are
+     * started.
+     *
+     * @param state new state of the device
+     * @return IDs of the running uploads whose constraints don't hold anymore, which have
+     * to be stopped and queued again
+     */
+    synchronized List<String> setDeviceState(DeviceState state) {
+        deviceState = state;
+        dispatch();
+
+        final List<String> unsatisfied = new ArrayList<String>();
+        for (Entry entry : runningEntries.values()) {
+            if (!entry.constraints.isSatisfiedBy(state)) {
+                unsatisfied.add(entry.info.getUploadId());
+            }
+        }
+        return unsatisfied;
+    }
+
+    /**
+     * Checks if constraints hold in the current state of the device.
+     *
+     * @param constraints constraints to check
+     * @return true if an upload with these constraints can run now
+     */
+    synchronized boolean isSatisfied(UploadConstraints constraints) {
+        return constraints.isSatisfiedBy(deviceState);
+    }
+
+    /**
+     * Gets the number of queued uploads which are waiting for their constraints to hold.
+     *
+     * @return number of uploads held by their constraints
+     */
+    synchronized int getHeldCount() {
+        int held = 0;
+        for (HostQueue queue : hostQueues.values()) {
+            for (Entry entry : queue.pending) {
+                if (!entry.constraints.isSatisfiedBy(deviceState)) {
+                    held++;
+                }
+            }
+        }
+        return held;
+    }
+
+    /**
+     * Removes an upload which has not been started yet.
+     *
+     * @param uploadId ID of the upload
+     * @return true if the upload was waiting and has been removed, false otherwise
+     */
+    synchronized boolean remove(String uploadId) {
+        for (HostQueue queue : hostQueues.values()) {
+            final Iterator<Entry> iterator = queue.pending.iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next().info.getUploadId().equals(uploadId)) {
+                    iterator.remove();
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Discards all the uploads which have not been started yet.
+     */
+    synchronized void clear() {
+        for (HostQueue queue : hostQueues.values()) {
+            queue.pending.clear();
+        }
+        runningEntries.clear();
+    }
+
+    /**
+     * Gets a snapshot of the queue statistics of every host known to the scheduler.
+     *
+     * @return list of statistics, one for each host
+     */
+    synchronized List<UploadHostStats> getHostStats() {
+        final long now = System.nanoTime();
+        final List<UploadHostStats> stats = new ArrayList<UploadHostStats>(hostQueues.size());
+
+        for (HostQueue queue : hostQueues.values()) {
+            long oldestWaitNanos = 0;
+            for (Entry entry : queue.pending) {
+                oldestWaitNanos = Math.max(oldestWaitNanos, now - entry.enqueueTime);
+            }
+
+            final long averageWaitNanos = queue.dispatched == 0 ? 0 : queue.totalWaitNanos / queue.dispatched;
+
+            stats.add(new UploadHostStats(queue.host, queue.pending.size(), queue.running,
+                    getMaxUploads(queue.host), averageWaitNanos / 1000000,
+                    queue.maxWaitNanos / 1000000, oldestWaitNanos / 1000000));
+        }
+
+        return stats;
+    }
+
+    private int getMaxUploads(String host) {
+        final Integer limit = maxUploadsPerHost == null ? null : maxUploadsPerHost.get(host);
+        if (limit == null || limit < 1) {
+            return defaultMaxUploadsPerHost;
+        }
+        return limit;
+    }
+
+    private void dispatch() {
+        while (runningUploads < maxConcurrentUploads) {
+            final HostQueue queue = nextDispatchableQueue();
+            if (queue == null) {
+                return;
+            }
+
+            final Entry entry = pollDispatchable(queue);
+            final long waitNanos = System.nanoTime() - entry.enqueueTime;
+            queue.totalWaitNanos += waitNanos;
+            queue.maxWaitNanos = Math.max(queue.maxWaitNanos, waitNanos);
+            queue.dispatched++;
+            queue.running++;
+            runningUploads++;
+            runningEntries.put(entry.info.getUploadId(), entry);
+
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        entry.upload.run();
+                    } finally {
+                        finished(queue, entry);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Finds the next host, in round-robin order, which has queued uploads and is below its
+     * concurrency limit.
+     */
+    private HostQueue nextDispatchableQueue() {
+        final int hosts = roundRobin.size();
+        final int start = roundRobin.indexOf(lastServedHost) + 1;
+
+        for (int i = 0; i < hosts; i++) {
+            final HostQueue queue = hostQueues.get(roundRobin.get((start + i) % hosts));
+
+            if (queue.running < getMaxUploads(queue.host) && hasDispatchable(queue)) {
+                lastServedHost = queue.host;
+                return queue;
+            }
+        }
+
+        return null;
+    }
+
+    private boolean hasDispatchable(HostQueue queue) {
+        for (Entry entry : queue.pending) {
+            if (entry.constraints.isSatisfiedBy(deviceState)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Removes the first upload of the queue, in policy order, whose constraints hold.
+     */
+    private Entry pollDispatchable(HostQueue queue) {
+        final Entry head = queue.pending.peek();
+        if (head != null && head.constraints.isSatisfiedBy(deviceState)) {
+            return queue.pending.poll();
+        }
+
+        Entry next = null;
+        for (Entry entry : queue.pending) {
+            if (entry.constraints.isSatisfiedBy(deviceState)
+                    && (next == null || entryComparator.compare(entry, next) < 0)) {
+                next = entry;
+            }
+        }
+
+        queue.pending.remove(next);
+        return next;
+    }
+
+    private synchronized void finished(HostQueue queue, Entry entry) {
+        queue.running--;
+        runningUploads--;
+        if (runningEntries.get(entry.info.getUploadId()) == entry) {
+            runningEntries.remove(entry.info.getUploadId());
+        }
+        dispatch();
+    }
+
+    private static final class Entry {
+        final ScheduledUpload info;
+        final UploadConstraints constraints;
+        final Runnable upload;
+        final long enqueueTime;
+
+        Entry(ScheduledUpload info, UploadConstraints constraints, Runnable upload, long enqueueTime) {
+            this.info = info;
+            this.constraints = constraints;
+            this.upload = upload;
+            this.enqueueTime = enqueueTime;
+        }
+    }
+
+    private static final class HostQueue {
+        final String host;
+        PriorityQueue<Entry> pending;
+        int running;
+        int dispatched;
+        long totalWaitNanos;
+        long maxWaitNanos;
+
+        HostQueue(String host, Comparator<Entry> comparator) {
+            this.host = host;
+            this.pending = new PriorityQueue<Entry>(11, comparator);
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.alexbbb.uploadservice;
+
+import java.util.Comparator;
+
+/**
+ * Defines the order in which the queued uploads of a host are started.
+ * Uploads which the policy considers equal are started in arrival order.
+ * You can implement your own policy and set it with
+ * {@link UploadService#setSchedulingPolicy(UploadSchedulingPolicy)}.
+ *
+ * @author alexbbb (Aleksandar Gotev)
+ */
+public interface UploadSchedulingPolicy extends Comparator<ScheduledUpload> {
+
+    /**
+     * Uploads are started in the same order in which they have been requested.
+     */
+    UploadSchedulingPolicy FIFO = new UploadSchedulingPolicy() {
+        @Override
+        public int compare(ScheduledUpload lhs, ScheduledUpload rhs) {
+            return 0;
+        }
+    };
+
+    /**
+     * Uploads with higher priority are started first.
+     */
+    UploadSchedulingPolicy PRIORITY = new UploadSchedulingPolicy() {
+        @Override
+        public int compare(ScheduledUpload lhs, ScheduledUpload rhs) {
+            return rhs.getPriority() < lhs.getPriority() ? -1 : (rhs.getPriority() == lhs.getPriority() ? 0 : 1);
+        }
+    };
+
+    /**
+     * Uploads with the smallest body are started first, minimizing the mean completion time.
+     * Uploads whose size is not known in advance are started last.
+     */
+    UploadSchedulingPolicy SHORTEST_JOB_FIRST = new UploadSchedulingPolicy() {
+        @Override
+        public int compare(ScheduledUpload lhs, ScheduledUpload rhs) {
+            final long lhsLength = lhs.getEstimatedBodyLength() < 0 ? Long.MAX_VALUE : lhs.getEstimatedBodyLength();
+            final long rhsLength = rhs.getEstimatedBodyLength() < 0 ? Long.MAX_VALUE : rhs.getEstimatedBodyLength();
+            return lhsLength < rhsLength ? -1 : (lhsLength == rhsLength ? 0 : 1);
+        }
+    };
+}
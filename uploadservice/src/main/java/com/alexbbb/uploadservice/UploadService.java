@@ -1,17 +1,37 @@
 package com.alexbbb.uploadservice;
 
 import android.annotation.SuppressLint;
-import android.app.IntentService;
+import android.app.AlarmManager;
 import android.app.Notification;
 import android.app.NotificationChannel;
 import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.content.Context;
 import android.content.Intent;
 import android.graphics.Color;
-import android.os.Build;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
 import android.os.PowerManager;
-import android.media.RingtoneManager;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.PrintWriter;
 import java.net.MalformedURLException;
-import java.text.DecimalFormat;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Service to upload files in background using HTTP POST with notification center progress
@@ -21,17 +41,47 @@ import java.text.DecimalFormat;
  * @author eliasnaur
  * @author cankov
  */
-public class UploadService extends IntentService {
+public class UploadService extends Service {
 
-    private static final String SERVICE_NAME = UploadService.class.getName();
     private static final String TAG = "UploadService";
 
-    private static final int UPLOAD_NOTIFICATION_ID = 1234; // Something unique
-    private static final int UPLOAD_NOTIFICATION_ID_DONE = 1235; // Something unique
+    protected static final int UPLOAD_NOTIFICATION_BASE_ID = 1234; // Something unique
 
     public static String NAMESPACE = "com.alexbbb";
 
+    /**
+     * Maximum number of uploads which can be executed at the same time.
+     * Uploads exceeding this number are queued and started as soon as a worker is free.
+     * Change it before starting the first upload.
+     */
+    public static int UPLOAD_POOL_SIZE = 4;
+
+    /**
+     * Number of seconds an idle worker thread is kept alive before being terminated.
+     */
+    public static int KEEP_ALIVE_TIME_IN_SECONDS = 1;
+
+    /**
+     * Maximum number of uploads which can be executed at the same time towards the same host,
+     * unless otherwise specified with {@link #setMaxConcurrentUploadsPerHost(String, int)}.
+     * Change it before starting the first upload.
+     */
+    public static int MAX_CONCURRENT_UPLOADS_PER_HOST = 4;
+
+    /**
+     * Default time after which an upload which isn't writing any data is considered stalled.
+     */
+    private static final long STALL_TIMEOUT = 30000;
+    private static final long MIN_STALL_CHECK_INTERVAL = 1000;
+
+    /**
+     * Default maximum number of bytes kept by the pool of upload buffers.
+     */
+    private static final long BUFFER_POOL_SIZE = 1024 * 1024;
+
     private static final String ACTION_UPLOAD_SUFFIX = ".uploadservice.action.upload";
+    private static final String ACTION_RESUME_SUFFIX = ".uploadservice.action.resume";
+    private static final String ACTION_RETRY_SUFFIX = ".uploadservice.action.retry";
     protected static final String PARAM_NOTIFICATION_CONFIG = "notificationConfig";
     protected static final String PARAM_ID = "id";
     protected static final String PARAM_URL = "url";
@@ -44,27 +94,70 @@ public class UploadService extends IntentService {
     protected static final String PARAM_REQUEST_PARAMETERS = "requestParameters";
     protected static final String PARAM_CUSTOM_USER_AGENT = "customUserAgent";
     protected static final String PARAM_MAX_RETRIES = "maxRetries";
+    protected static final String PARAM_PRIORITY = "priority";
+
+    private static final String JOURNAL_DIRECTORY = "uploadservice";
 
     protected static final String UPLOAD_BINARY = "binary";
     protected static final String UPLOAD_MULTIPART = "multipart";
+    protected static final String UPLOAD_TUS = "tus";
+    protected static final String PARAM_TUS_CHUNK_SIZE = "tusChunkSize";
+    protected static final String UPLOAD_PARALLEL_BINARY = "parallelBinary";
+    protected static final String PARAM_PART_SIZE = "partSize";
+    protected static final String PARAM_PARALLEL_PARTS = "parallelParts";
+    protected static final String PARAM_COMPLETE_URL = "completeUrl";
+    protected static final String UPLOAD_STREAM = "stream";
+    protected static final String PARAM_CHUNK_SIZE = "chunkSize";
+    protected static final String PARAM_CONTENT_TYPE = "contentType";
+    protected static final String PARAM_CONTENT_ENCODING = "contentEncoding";
+    protected static final String PARAM_READ_BUFFER_SIZE = "readBufferSize";
+    protected static final String PARAM_MIN_CHUNK_SIZE = "minChunkSize";
+    protected static final String PARAM_MAX_CHUNK_SIZE = "maxChunkSize";
+    protected static final String PARAM_RETRY_POLICY = "retryPolicy";
+    protected static final String PARAM_REQUIRES_UNMETERED_NETWORK = "requiresUnmeteredNetwork";
+    protected static final String PARAM_REQUIRES_CHARGING = "requiresCharging";
+    protected static final String PARAM_MIN_BATTERY_LEVEL = "minBatteryLevel";
+    protected static final String PARAM_ROAMING_ALLOWED = "roamingAllowed";
+    protected static final String PARAM_MAX_UPLOAD_RATE = "maxUploadRate";
+    protected static final String PARAM_HTTP_STACK = "httpStack";
 
     /**
-     * The minimum interval between progress reports in milliseconds.
-     * If the upload Tasks report more frequently, we will throttle notifications.
+     * The default interval between progress reports in milliseconds.
+     * The progress of all the uploads is reported together once per interval.
      * We aim for 6 updates per second.
      */
     protected static final long PROGRESS_REPORT_INTERVAL = 166;
+    protected static final long NOTIFICATION_UPDATE_INTERVAL = 1000;
     protected static final double FACTOR_CONVERT = 0.000001;
 
     private static final String BROADCAST_ACTION_SUFFIX = ".uploadservice.broadcast.status";
     public static final String UPLOAD_ID = "id";
     public static final String STATUS = "status";
+    /**
+     * @deprecated the progress is not broadcast per upload anymore, so receivers which listen
+     * to {@link #getActionBroadcast()} for this status don't get it. The progress of all the
+     * uploads is broadcast together once per tick with {@link #STATUS_PROGRESS_BATCH}: the
+     * {@link #UPLOAD_IDS} extra holds the IDs of the uploads, and the
+     * {@link #PROGRESS_UPLOADED_BYTES}, {@link #PROGRESS_TOTAL_BYTES},
+     * {@link #PROGRESS_CHUNK_SIZE}, {@link #PROGRESS_BYTES_PER_SECOND} and
+     * {@link #PROGRESS_REMAINING_TIME} extras are parallel arrays, with the values of each
+     * upload at the same index. {@link AbstractUploadServiceReceiver} unpacks them into the
+     * onProgress calls of each upload.
+     */
+    @Deprecated
     public static final int STATUS_IN_PROGRESS = 1;
     public static final int STATUS_COMPLETED = 2;
     public static final int STATUS_ERROR = 3;
+    public static final int STATUS_CANCELLED = 4;
+    public static final int STATUS_PAUSED = 5;
+    public static final int STATUS_PROGRESS_BATCH = 6;
+    public static final String UPLOAD_IDS = "ids";
     public static final String PROGRESS = "progress";
     public static final String PROGRESS_UPLOADED_BYTES = "progressUploadedBytes";
     public static final String PROGRESS_TOTAL_BYTES = "progressTotalBytes";
+    public static final String PROGRESS_CHUNK_SIZE = "progressChunkSize";
+    public static final String PROGRESS_BYTES_PER_SECOND = "progressBytesPerSecond";
+    public static final String PROGRESS_REMAINING_TIME = "progressRemainingTime";
     public static final String ERROR_EXCEPTION = "errorException";
     public static final String SERVER_RESPONSE_CODE = "serverResponseCode";
     public static final String SERVER_RESPONSE_MESSAGE = "serverResponseMessage";
@@ -72,15 +165,64 @@ public class UploadService extends IntentService {
     public static final String UPLOAD_CHANNEL_ID = "com.alexbbb.uploadservice.UPLOAD";
     public static final String UPLOAD_CHANNEL_NAME = "UPLOAD SERVICE CHANNEL";
 
+    private static final Map<String, HttpUploadTask> uploadTasksMap =
+            new ConcurrentHashMap<String, HttpUploadTask>();
+    private static final Map<String, Integer> maxUploadsPerHost = new ConcurrentHashMap<String, Integer>();
+    private static final RetryQueue retryQueue = new RetryQueue();
+    private static volatile DeviceStateProvider deviceStateProviderOverride;
+    private static volatile UploadScheduler scheduler;
+    private static volatile UploadSchedulingPolicy schedulingPolicy = UploadSchedulingPolicy.FIFO;
+    private static volatile UploadJournal journal;
+    private static final ThreadPoolExecutor journalExecutor = new ThreadPoolExecutor(1, 1,
+            KEEP_ALIVE_TIME_IN_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+    private static volatile long progressReportInterval = PROGRESS_REPORT_INTERVAL;
+    private static volatile boolean broadcastsEnabled = true;
+    private static volatile boolean perUploadNotifications = true;
+    private static volatile long notificationUpdateInterval = NOTIFICATION_UPDATE_INTERVAL;
+    private static volatile long stallTimeout = STALL_TIMEOUT;
+    private static final UploadObserverRegistry observers = new UploadObserverRegistry();
+    private static Executor mainThreadExecutor;
+    private static final UploadEngine engine = new UploadEngine(BUFFER_POOL_SIZE);
+    private static final ConcurrentMap<String, UploadBodyProducer> bodyProducers =
+            new ConcurrentHashMap<String, UploadBodyProducer>();
+
+    static {
+        engine.setTracer(UploadTrace.TRACER);
+        journalExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Operation on the journal, run by the journal thread so that the disk I/O doesn't block
+     * the main thread. The operations run in the order in which they're posted, so those
+     * posted while the journal is being opened wait for it, and those which run after it
+     * has been closed are skipped.
+     */
+    private static abstract class JournalOperation implements Runnable {
+
+        @Override
+        public final void run() {
+            final UploadJournal currentJournal = journal;
+            if (currentJournal != null) {
+                run(currentJournal);
+            }
+        }
+
+        abstract void run(UploadJournal currentJournal);
+    }
+
     private NotificationManager notificationManager;
-    private Notification.Builder notification;
+    private AlarmManager alarmManager;
+    private DeviceStateProvider deviceStateProvider;
     private PowerManager.WakeLock wakeLock;
-    private UploadNotificationConfig notificationConfig;
-    private long lastProgressNotificationTime;
-    private String contentText;
-    private DecimalFormat decimalFormat;
-
-    private static HttpUploadTask currentTask;
+    private ThreadPoolExecutor uploadThreadPool;
+    private int notificationIncrementalId = 0;
+    private final ProgressAggregator progressAggregator = new ProgressAggregator();
+    private final AtomicBoolean progressTickScheduled = new AtomicBoolean(false);
+    private final AtomicBoolean stallCheckScheduled = new AtomicBoolean(false);
+    private Handler mainThreadHandler;
+    private UploadNotifications notifications;
+    // ID of the last start request, only accessed from the main thread
+    private int lastStartId;
 
     public static String getActionUpload() {
         return NAMESPACE + ACTION_UPLOAD_SUFFIX;
@@ -90,17 +232,444 @@ public class UploadService extends IntentService {
         return NAMESPACE + BROADCAST_ACTION_SUFFIX;
     }
 
+    public static String getActionResume() {
+        return NAMESPACE + ACTION_RESUME_SUFFIX;
+    }
+
+    private static String getActionRetry() {
+        return NAMESPACE + ACTION_RETRY_SUFFIX;
+    }
+
     /**
-     * Stops the currently active upload task.
+     * Stops all the active upload tasks.
+     *
+     * @deprecated uploads are executed concurrently, so there is no single current upload.
+     * Use {@link #cancelAllUploads()} instead.
      */
     public static void stopCurrentUpload() {
-        if (currentTask != null) {
-            currentTask.cancel();
+        cancelAllUploads();
+    }
+
+    /**
+     * Cancels an upload, whether it's queued or running. A running upload is aborted
+     * immediately by tearing down its connection.
+     * The receivers get {@link AbstractUploadServiceReceiver#onCancelled(String)}.
+     * It can be called from any thread.
+     *
+     * @param uploadId ID of the upload to cancel
+     */
+    public static void cancelUpload(String uploadId) {
+        stopUpload(uploadId, HttpUploadTask.STOP_CANCEL);
+    }
+
+    /**
+     * Cancels all the queued and running uploads.
+     * It can be called from any thread.
+     */
+    public static void cancelAllUploads() {
+        for (String uploadId : uploadTasksMap.keySet()) {
+            stopUpload(uploadId, HttpUploadTask.STOP_CANCEL);
+        }
+    }
+
+    /**
+     * Pauses an upload, whether it's queued or running. A running upload is aborted
+     * immediately by tearing down its connection.
+     * The upload is kept in the journal and can be started again with
+     * {@link #resumeUpload(Context, String)}. Uploads which can't continue from where they
+     * stopped will start over from the beginning.
+     * The receivers get {@link AbstractUploadServiceReceiver#onPaused(String)}.
+     * It can be called from any thread.
+     *
+     * @param uploadId ID of the upload to pause
+     */
+    public static void pauseUpload(String uploadId) {
+        stopUpload(uploadId, HttpUploadTask.STOP_PAUSE);
+    }
+
+    /**
+     * Resumes an upload previously paused with {@link #pauseUpload(String)}.
+     *
+     * @param context application context
+     * @param uploadId ID of the upload to resume
+     */
+    public static void resumeUpload(Context context, String uploadId) {
+        final Intent intent = new Intent(context, UploadService.class);
+        intent.setAction(getActionResume());
+        intent.putExtra(PARAM_ID, uploadId);
+        context.startService(intent);
+    }
+
+    private static void stopUpload(String uploadId, int reason) {
+        final HttpUploadTask task = uploadTasksMap.get(uploadId);
+        if (task == null) {
+            return;
+        }
+
+        final UploadScheduler currentScheduler = scheduler;
+        if ((currentScheduler != null && currentScheduler.remove(uploadId)) || retryQueue.remove(uploadId)) {
+            task.stopQueued(reason);
+        } else {
+            task.stop(reason);
+        }
+    }
+
+    /**
+     * Gets the number of uploads currently queued or running.
+     *
+     * @return number of active uploads
+     */
+    public static int getActiveUploadsCount() {
+        return uploadTasksMap.size();
+    }
+
+    /**
+     * Hands over the body of a stream upload to the service. Streams and producers can't be
+     * written in an intent, so they are kept here until the task is created.
+     *
+     * @param uploadId ID of the stream upload
+     * @param producer body of the upload
+     */
+    static void setBodyProducer(String uploadId, UploadBodyProducer producer) {
+        bodyProducers.put(uploadId, producer);
+    }
+
+    /**
+     * Releases the body of a stream upload which couldn't be started.
+     *
+     * @param uploadId ID of the stream upload
+     * @param producer body of the upload. It's not released if another request with the same
+     *                 ID has replaced it
+     */
+    static void removeBodyProducer(String uploadId, UploadBodyProducer producer) {
+        bodyProducers.remove(uploadId, producer);
+    }
+
+    /**
+     * Gets the engine which runs the upload tasks.
+     *
+     * @return engine shared by all the uploads
+     */
+    static UploadEngine getEngine() {
+        return engine;
+    }
+
+    /**
+     * Sets the maximum number of bytes kept by the pool of the buffers used to read the files,
+     * when they're not used by an upload. By default it's 1 MB. The pool is also emptied when
+     * the system is low on memory.
+     *
+     * @param maxBytes maximum pooled bytes. Pass 0 to disable pooling
+     */
+    public static void setBufferPoolSize(long maxBytes) {
+        engine.setBufferPoolSize(maxBytes);
+    }
+
+    /**
+     * Sets the maximum number of uploads which can be executed at the same time towards a host.
+     * It takes effect immediately for the uploads which have not been started yet.
+     *
+     * @param serverUrl any URL of the host, e.g. the URL of one of the upload requests
+     * @param maxUploads maximum number of concurrent uploads. Pass 0 to restore the default
+     *                   defined in {@link #MAX_CONCURRENT_UPLOADS_PER_HOST}
+     */
+    public static void setMaxConcurrentUploadsPerHost(String serverUrl, int maxUploads) {
+        final String host = UploadEngine.getHostKey(serverUrl);
+        if (maxUploads < 1) {
+            maxUploadsPerHost.remove(host);
+        } else {
+            maxUploadsPerHost.put(host, maxUploads);
+        }
+    }
+
+    /**
+     * Registers an observer which receives the events of all the uploads directly, without
+     * broadcasts, on the main thread. It works only if it's in the same process as the service.
+     *
+     * @param observer observer to register
+     */
+    public static void addObserver(UploadObserver observer) {
+        addObserver(null, observer, getMainThreadExecutor());
+    }
+
+    /**
+     * Registers an observer which receives the events of all the uploads directly, without
+     * broadcasts. It works only if it's in the same process as the service.
+     *
+     * @param observer observer to register
+     * @param executor executor on which the observer is called
+     */
+    public static void addObserver(UploadObserver observer, Executor executor) {
+        addObserver(null, observer, executor);
+    }
+
+    /**
+     * Registers an observer which receives the events of a single upload directly, without
+     * broadcasts. It's unregistered automatically when the upload completes, fails or is
+     * cancelled. It works only if it's in the same process as the service.
+     *
+     * @param uploadId ID of the upload to observe, or null to observe all the uploads
+     * @param observer observer to register
+     * @param executor executor on which the observer is called
+     */
+    public static void addObserver(String uploadId, UploadObserver observer, Executor executor) {
+        if (observer == null || executor == null) {
+            throw new IllegalArgumentException("Observer and executor can't be null");
+        }
+        observers.add(uploadId, observer, executor);
+    }
+
+    /**
+     * Unregisters an observer from all the uploads it observes.
+     *
+     * @param observer observer to unregister
+     */
+    public static void removeObserver(UploadObserver observer) {
+        observers.remove(observer);
+    }
+
+    /**
+     * Enables or disables the status broadcasts. They are needed by the
+     * {@link AbstractUploadServiceReceiver}s and by the receivers in other processes.
+     * If all the listeners are {@link UploadObserver}s in the same process as the service,
+     * disable them to avoid building, parceling and delivering an Intent for every event.
+     * By default they're enabled.
+     *
+     * @param enabled true to send the broadcasts
+     */
+    public static void setBroadcastsEnabled(boolean enabled) {
+        broadcastsEnabled = enabled;
+    }
+
+    /**
+     * Enables or disables the notification of each upload. When disabled, only the summary
+     * notification with the aggregate progress of all the uploads is shown.
+     * Final notifications are shown anyway, according to the configuration of each upload.
+     * By default they're enabled.
+     *
+     * @param enabled true to show a notification for each upload
+     */
+    public static void setPerUploadNotifications(boolean enabled) {
+        perUploadNotifications = enabled;
+    }
+
+    static boolean isPerUploadNotificationsEnabled() {
+        return perUploadNotifications;
+    }
+
+    /**
+     * Sets the minimum interval between notification updates. The interval is extended when
+     * needed to stay within the notification updates per second allowed by the system.
+     * By default it's 1 second.
+     *
+     * @param intervalMillis interval in milliseconds
+     */
+    public static void setNotificationUpdateInterval(long intervalMillis) {
+        notificationUpdateInterval = Math.max(0, intervalMillis);
+    }
+
+    static long getNotificationUpdateInterval() {
+        return notificationUpdateInterval;
+    }
+
+    /**
+     * Sets the maximum rate at which all the uploads together send data, to leave part of the
+     * uplink to the rest of the app. It takes effect immediately, also for the running uploads.
+     * Each upload can have its own lower limit, set with
+     * {@link HttpUploadRequest#setMaxUploadRate(long)}.
+     *
+     * @param bytesPerSecond maximum rate in bytes per second, or 0 to remove the limit
+     */
+    public static void setMaxUploadRate(long bytesPerSecond) {
+        engine.setMaxUploadRate(bytesPerSecond);
+    }
+
+    /**
+     * Changes the maximum rate of an upload which is queued or running.
+     *
+     * @param uploadId ID of the upload
+     * @param bytesPerSecond maximum rate in bytes per second, or 0 to remove the limit
+     */
+    public static void setMaxUploadRate(String uploadId, long bytesPerSecond) {
+        final HttpUploadTask task = uploadTasksMap.get(uploadId);
+        if (task != null) {
+            task.setMaxUploadRate(bytesPerSecond);
+        }
+    }
+
+    /**
+     * Enables the {@link android.os.Trace} sections which mark the phases of the uploads,
+     * the progress reports and the notification updates, so they can be correlated with the
+     * frames of the app in Perfetto or systrace. Each upload attempt is also marked by an
+     * async slice named after the upload ID, from Android 10. Disabled by default.
+     *
+     * @param enabled true to emit the trace sections
+     */
+    public static void setTracingEnabled(boolean enabled) {
+        UploadTrace.setTracingEnabled(enabled);
+    }
+
+    /**
+     * Sets how many of the most recent upload events are kept in memory, to be dumped with
+     * {@link #dumpEventLog(PrintWriter)} or with
+     * <code>adb shell dumpsys activity service UploadService</code>.
+     * The events logged so far are discarded. By default the last 256 events are kept.
+     *
+     * @param maxEvents number of events to keep, or 0 to disable the event log
+     */
+    public static void setEventLogSize(int maxEvents) {
+        UploadTrace.getEventLog().setCapacity(maxEvents);
+    }
+
+    /**
+     * Writes the most recent upload events, from the oldest to the newest. Each line contains
+     * the time from {@link SystemClock#elapsedRealtime()}, the upload ID, the event and its
+     * value, if any.
+     *
+     * @param writer destination of the events
+     */
+    public static void dumpEventLog(PrintWriter writer) {
+        UploadTrace.getEventLog().dump(writer);
+    }
+
+    /**
+     * Sets the listener which receives the timings and the outcome of each upload attempt.
+     *
+     * @param listener metrics listener, or null to remove it
+     */
+    public static void setMetricsListener(UploadMetricsListener listener) {
+        engine.setMetricsListener(listener);
+    }
+
+    /**
+     * Gets a percentile of the time spent in a phase by the attempts which completed since
+     * the service has been loaded or since the last {@link #resetMetrics()}.
+     * Failed and stopped attempts are not taken into account, so they don't skew the phases
+     * they didn't reach.
+     *
+     * @param phase one of the PHASE constants of {@link UploadMetrics}
+     * @param percentile percentile between 0 and 100, e.g. 50 for the median
+     * @return duration in microseconds, within 12.5%, or -1 if no attempt completed yet
+     */
+    public static long getPhasePercentileMicros(int phase, double percentile) {
+        return engine.getPhasePercentileMicros(phase, percentile);
+    }
+
+    /**
+     * Discards the durations used to compute the percentiles.
+     */
+    public static void resetMetrics() {
+        engine.resetMetrics();
+    }
+
+    /**
+     * Sets the HTTP stack used by the uploads which don't set their own with
+     * {@link HttpUploadRequest#setHttpStack(Class)}. By default the uploads are sent with
+     * HttpURLConnection. It applies to the connections opened afterwards.
+     *
+     * @param stack HTTP stack, or null to restore the default one
+     */
+    public static void setHttpStack(UploadHttpStack stack) {
+        engine.setHttpStack(stack);
+    }
+
+    /**
+     * Sets the maximum time to wait for the connection to the server to be established.
+     * By default it's 15 seconds. It applies to the connections opened afterwards.
+     *
+     * @param timeoutMillis timeout in milliseconds, or 0 to wait indefinitely
+     */
+    public static void setConnectTimeout(int timeoutMillis) {
+        engine.setConnectTimeout(timeoutMillis);
+    }
+
+    /**
+     * Sets the maximum time to wait for the server response once the request body has been
+     * sent. By default it's 60 seconds. It applies to the connections opened afterwards.
+     *
+     * @param timeoutMillis timeout in milliseconds, or 0 to wait indefinitely
+     */
+    public static void setReadTimeout(int timeoutMillis) {
+        engine.setReadTimeout(timeoutMillis);
+    }
+
+    /**
+     * Sets the time after which an upload which isn't able to write any data is considered
+     * stalled. The attempt is aborted and retried according to the retry policy of the upload,
+     * instead of waiting for the system to detect that the connection is dead.
+     * Waits caused by the rate limits don't count. By default it's 30 seconds.
+     *
+     * @param timeoutMillis timeout in milliseconds, or 0 to disable stall detection
+     */
+    public static void setStallTimeout(long timeoutMillis) {
+        stallTimeout = Math.max(0, timeoutMillis);
+    }
+
+    /**
+     * Replaces the source of the device state used by the service created afterwards.
+     * Used by tests to simulate network and power changes.
+     *
+     * @param provider device state provider, or null to use the system one
+     */
+    static void setDeviceStateProvider(DeviceStateProvider provider) {
+        deviceStateProviderOverride = provider;
+    }
+
+    static HttpUploadTask getUploadTask(String uploadId) {
+        return uploadId == null ? null : uploadTasksMap.get(uploadId);
+    }
+
+    private static synchronized Executor getMainThreadExecutor() {
+        if (mainThreadExecutor == null) {
+            final Handler handler = new Handler(Looper.getMainLooper());
+            mainThreadExecutor = new Executor() {
+                @Override
+                public void execute(Runnable command) {
+                    handler.post(command);
+                }
+            };
         }
+        return mainThreadExecutor;
     }
 
-    public UploadService() {
-        super(SERVICE_NAME);
+    /**
+     * Sets the interval between progress reports. On each interval, a single broadcast carries
+     * the progress of all the uploads which made progress since the previous one.
+     * By default it's 166 ms.
+     *
+     * @param intervalMillis interval in milliseconds
+     */
+    public static void setProgressReportInterval(long intervalMillis) {
+        progressReportInterval = Math.max(1, intervalMillis);
+    }
+
+    /**
+     * Sets the order in which the queued uploads of each host are started.
+     * By default it's {@link UploadSchedulingPolicy#FIFO}. Uploads already in the queue are
+     * reordered according to the new policy.
+     *
+     * @param policy scheduling policy to use
+     */
+    public static void setSchedulingPolicy(UploadSchedulingPolicy policy) {
+        schedulingPolicy = policy == null ? UploadSchedulingPolicy.FIFO : policy;
+
+        final UploadScheduler currentScheduler = scheduler;
+        if (currentScheduler != null) {
+            currentScheduler.setPolicy(schedulingPolicy);
+        }
+    }
+
+    /**
+     * Gets a snapshot of the upload queues of each host, with their depth and wait times.
+     *
+     * @return list of statistics, one for each host. Empty if the service is not running
+     */
+    public static List<UploadHostStats> getHostStats() {
+        final UploadScheduler currentScheduler = scheduler;
+        if (currentScheduler == null) {
+            return Collections.emptyList();
+        }
+        return currentScheduler.getHostStats();
     }
 
     @SuppressLint("InvalidWakeLockTag")
@@ -109,42 +678,540 @@ public class UploadService extends IntentService {
         super.onCreate();
 
         notificationManager = (NotificationManager) getSystemService(NOTIFICATION_SERVICE);
-        //notification = new NotificationCompat.Builder(this);
+        alarmManager = (AlarmManager) getSystemService(ALARM_SERVICE);
         PowerManager pm = (PowerManager) getSystemService(POWER_SERVICE);
         assert pm != null;
         wakeLock = pm.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, TAG);
+        wakeLock.setReferenceCounted(false);
+        mainThreadHandler = new Handler(Looper.getMainLooper());
+        notifications = new UploadNotifications(this, notificationManager, mainThreadHandler);
+
+        int poolSize = UPLOAD_POOL_SIZE < 1 ? 1 : UPLOAD_POOL_SIZE;
+        uploadThreadPool = new ThreadPoolExecutor(poolSize, poolSize,
+                KEEP_ALIVE_TIME_IN_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+        uploadThreadPool.allowCoreThreadTimeOut(true);
+        scheduler = new UploadScheduler(uploadThreadPool, poolSize, MAX_CONCURRENT_UPLOADS_PER_HOST,
+                maxUploadsPerHost, schedulingPolicy);
+
+        deviceStateProvider = deviceStateProviderOverride != null ? deviceStateProviderOverride
+                                                                 : new AndroidDeviceStateProvider(this);
+        deviceStateProvider.start(deviceStateListener);
+        scheduler.setDeviceState(deviceStateProvider.getDeviceState());
 
         this.createNotificationChannelUploadService();
-        this.decimalFormat = new DecimalFormat("#.0");
+
+        journalExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                journal = openJournal();
+                resumePendingUploads();
+            }
+        });
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return null;
+    }
+
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        writer.println("Active uploads: " + uploadTasksMap.size());
+        writer.println("Recent events:");
+        dumpEventLog(writer);
     }
 
     @Override
-    protected void onHandleIntent(Intent intent) {
-        if (intent != null) {
-            final String action = intent.getAction();
-
-            if (getActionUpload().equals(action)) {
-                notificationConfig = intent.getParcelableExtra(PARAM_NOTIFICATION_CONFIG);
-
-                String type = intent.getStringExtra(PARAM_TYPE);
-                if (UPLOAD_MULTIPART.equals(type)) {
-                    currentTask = new MultipartUploadTask(this, intent);
-                } else if (UPLOAD_BINARY.equals(type)) {
-                    currentTask = new BinaryUploadTask(this, intent);
-                } else {
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        final boolean traced = UploadTrace.beginSection("UploadService.onStartCommand");
+        lastStartId = startId;
+        try {
+            return handleStartCommand(intent);
+        } finally {
+            UploadTrace.endSection(traced);
+        }
+    }
+
+    private int handleStartCommand(Intent intent) {
+        if (intent != null && getActionResume().equals(intent.getAction())) {
+            resumePausedUpload(intent.getStringExtra(PARAM_ID));
+            return shutdownIfThereArentAnyActiveTasks();
+        }
+
+        if (intent != null && getActionRetry().equals(intent.getAction())) {
+            // on API 26+ the retry alarm starts the service as a foreground service,
+            // which has to call startForeground right away
+            notifications.startForeground();
+            retryDueUploads();
+            return shutdownIfThereArentAnyActiveTasks();
+        }
+
+        if (intent == null || !getActionUpload().equals(intent.getAction())) {
+            return shutdownIfThereArentAnyActiveTasks();
+        }
+
+        if (!startUploadTask(intent, true)) {
+            return shutdownIfThereArentAnyActiveTasks();
+        }
+
+        return START_STICKY;
+    }
+
+    /**
+     * Creates the task for an upload intent and queues it.
+     *
+     * @param intent intent describing the upload
+     * @param addToJournal true to record the upload in the journal, false if it's being
+     *                     resumed from the journal
+     * @return true if the task has been queued or an upload with the same ID is already active
+     */
+    private boolean startUploadTask(final Intent intent, boolean addToJournal) {
+        final HttpUploadTask task = createUploadTask(intent);
+        if (task == null) {
+            return false;
+        }
+
+        if (uploadTasksMap.containsKey(task.uploadId)) {
+            Log.w(TAG, "An upload with ID " + task.uploadId + " is already in progress. "
+                    + "Ignoring the new request with the same ID.");
+            return true;
+        }
+
+        // stream bodies live only in memory, so they can't be replayed from the journal
+        if (addToJournal && !(task instanceof StreamUploadTask)) {
+            journalExecutor.execute(new JournalOperation() {
+                @Override
+                void run(UploadJournal currentJournal) {
+                    try {
+                        currentJournal.submitted(task.uploadId, UploadJournal.encodeRequest(intent));
+                    } catch (Exception exc) {
+                        // an upload which can't be journaled runs anyway
+                        Log.w(TAG, "Unable to save upload " + task.uploadId + " in the journal. "
+                                + "It won't be resumed if the process is killed", exc);
+                    }
+                }
+            });
+        }
+
+        notificationIncrementalId += 2;
+        task.setNotificationId(UPLOAD_NOTIFICATION_BASE_ID + notificationIncrementalId);
+
+        uploadTasksMap.put(task.uploadId, task);
+        UploadTrace.event(task.uploadId, UploadTrace.EVENT_QUEUED);
+        scheduleStallCheck();
+        scheduler.schedule(task.uploadId, UploadEngine.getHostKey(task.url), task.priority,
+                task.getEstimatedBodyLength(), task.constraints, task);
+        updateWakeLock();
+
+        return true;
+    }
+
+    private UploadJournal openJournal() {
+        try {
+            return new UploadJournal(new File(getFilesDir(), JOURNAL_DIRECTORY));
+        } catch (IOException exc) {
+            Log.e(TAG, "Unable to open the upload journal. Uploads won't be resumed after "
+                    + "the process is killed", exc);
+            return null;
+        }
+    }
+
+    /**
+     * Queues again the uploads recorded in the journal which didn't finish, typically because
+     * the process has been killed. Called by the journal thread, once the journal has been
+     * loaded. The tasks are started on the main thread.
+     */
+    private void resumePendingUploads() {
+        final UploadJournal currentJournal = journal;
+        if (currentJournal == null) {
+            return;
+        }
+
+        for (UploadJournal.Entry entry : currentJournal.getPendingEntries()) {
+            if (entry.paused) {
+                continue;
+            }
+
+            try {
+                startJournaledUpload(entry.uploadId, UploadJournal.decodeRequest(this, entry.request));
+            } catch (IOException exc) {
+                Log.e(TAG, "Unable to resume upload " + entry.uploadId + " from the journal", exc);
+                currentJournal.failed(entry.uploadId);
+            }
+        }
+    }
+
+    private void resumePausedUpload(final String uploadId) {
+        journalExecutor.execute(new JournalOperation() {
+            @Override
+            void run(UploadJournal currentJournal) {
+                final UploadJournal.Entry entry = currentJournal.getEntry(uploadId);
+                if (entry == null || !entry.paused) {
+                    Log.w(TAG, "There is no paused upload with ID " + uploadId);
                     return;
                 }
 
-                lastProgressNotificationTime = 0;
-                wakeLock.acquire();
+                try {
+                    final Intent intent = UploadJournal.decodeRequest(UploadService.this, entry.request);
+                    currentJournal.resumed(uploadId);
+                    startJournaledUpload(uploadId, intent);
+                } catch (IOException exc) {
+                    Log.e(TAG, "Unable to resume upload " + uploadId, exc);
+                    currentJournal.failed(uploadId);
+                }
+            }
+        });
+    }
+
+    /**
+     * Starts on the main thread an upload read from the journal. If it can't be started,
+     * it's recorded as failed.
+     *
+     * @param uploadId ID of the upload
+     * @param intent decoded upload request
+     */
+    private void startJournaledUpload(final String uploadId, final Intent intent) {
+        mainThreadHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (uploadTasksMap.containsKey(uploadId) || scheduler == null) {
+                    return;
+                }
+
+                Log.i(TAG, "Resuming upload " + uploadId + " from the journal");
+                if (!startUploadTask(intent, false)) {
+                    journalExecutor.execute(new JournalOperation() {
+                        @Override
+                        void run(UploadJournal currentJournal) {
+                            currentJournal.failed(uploadId);
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+
+        mainThreadHandler.removeCallbacks(progressTick);
+        progressTickScheduled.set(false);
+        mainThreadHandler.removeCallbacks(stallCheck);
+        stallCheckScheduled.set(false);
+        mainThreadHandler.removeCallbacks(stopIfIdle);
+        notifications.clear();
+
+        // the journal is closed first, so the interrupted tasks are not recorded as finished
+        // and will be resumed the next time the service starts
+        journalExecutor.execute(new JournalOperation() {
+            @Override
+            void run(UploadJournal currentJournal) {
+                currentJournal.close();
+                journal = null;
+            }
+        });
+
+        retryQueue.clear();
+        alarmManager.cancel(getRetryIntent());
+        deviceStateProvider.stop();
+
+        for (HttpUploadTask task : uploadTasksMap.values()) {
+            task.stop(HttpUploadTask.STOP_SHUTDOWN);
+        }
+        scheduler.clear();
+        scheduler = null;
+        uploadThreadPool.shutdown();
+        uploadTasksMap.clear();
+
+        if (wakeLock.isHeld()) {
+            wakeLock.release();
+        }
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+
+        // the buffers in use by the running uploads are not pooled, so they're not affected
+        if (level >= TRIM_MEMORY_RUNNING_LOW) {
+            engine.getBufferPool().trim(0);
+        } else if (level >= TRIM_MEMORY_RUNNING_MODERATE) {
+            engine.getBufferPool().trim(engine.getBufferPool().getMaxPooledBytes() / 2);
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+        engine.getBufferPool().trim(0);
+    }
+
+    private HttpUploadTask createUploadTask(Intent intent) {
+        final String type = intent.getStringExtra(PARAM_TYPE);
+
+        if (UPLOAD_MULTIPART.equals(type)) {
+            return new MultipartUploadTask(this, intent);
+        }
+
+        if (UPLOAD_BINARY.equals(type)) {
+            return new BinaryUploadTask(this, intent);
+        }
+
+        if (UPLOAD_PARALLEL_BINARY.equals(type)) {
+            return new ParallelBinaryUploadTask(this, intent);
+        }
+
+        if (UPLOAD_TUS.equals(type)) {
+            return new TusUploadTask(this, intent);
+        }
+
+        if (UPLOAD_STREAM.equals(type)) {
+            final UploadBodyProducer producer = bodyProducers.remove(intent.getStringExtra(PARAM_ID));
+            if (producer == null) {
+                Log.e(TAG, "The body of stream upload " + intent.getStringExtra(PARAM_ID)
+                        + " is not available anymore. It can't be started again after the "
+                        + "process has been killed");
+                return null;
+            }
+            return new StreamUploadTask(this, intent, producer);
+        }
+
+        return null;
+    }
+
+    private int shutdownIfThereArentAnyActiveTasks() {
+        if (uploadTasksMap.isEmpty()) {
+            stopWhenIdle();
+            return START_NOT_STICKY;
+        }
+
+        return START_STICKY;
+    }
+
+    /**
+     * Called by each task when it finishes, whatever the outcome.
+     * When there are no more active tasks, the wake lock is released and the service stops.
+     * The service stops from the main thread, where the new uploads are started, so it can't
+     * stop right after an upload has been queued.
+     *
+     * @param uploadId ID of the completed upload
+     */
+    synchronized void taskCompleted(String uploadId) {
+        uploadTasksMap.remove(uploadId);
+        UploadTrace.event(uploadId, UploadTrace.EVENT_FINISHED);
+
+        // in case the task finished without showing its final notification
+        notifications.uploadRemoved(uploadId);
+
+        updateWakeLock();
+
+        if (uploadTasksMap.isEmpty()) {
+            stopWhenIdle();
+        }
+    }
+
+    /**
+     * Stops the service once the pending journal operations have run, if no upload has been
+     * started meanwhile. The uploads resumed from the journal are started by those operations,
+     * so the service doesn't stop while they're being read.
+     */
+    private void stopWhenIdle() {
+        journalExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mainThreadHandler.post(stopIfIdle);
+            }
+        });
+    }
+
+    /**
+     * Stops the service if no upload has been started in the meantime. The ID of the last
+     * start request keeps the service running if a new request has already been delivered
+     * but not handled yet.
+     */
+    private final Runnable stopIfIdle = new Runnable() {
+        @Override
+        public void run() {
+            if (uploadTasksMap.isEmpty()) {
+                stopSelf(lastStartId);
+            }
+        }
+    };
+
+    /**
+     * Called by a task whose attempt failed and has to be retried. The task is queued again
+     * when the delay has elapsed. Meanwhile it doesn't occupy a worker thread, and if there
+     * are no other uploads running, the wake lock is released.
+     *
+     * @param task task to retry
+     * @param delayMillis delay before the retry
+     * @return true if the retry has been scheduled, false if the task has been stopped and
+     * has to be completed by the caller
+     */
+    synchronized boolean scheduleRetry(HttpUploadTask task, long delayMillis) {
+        retryQueue.add(task.uploadId, SystemClock.elapsedRealtime() + delayMillis);
+
+        if (!task.shouldContinue) {
+            // stopped while the retry was being scheduled. If it's not in the queue anymore,
+            // it has been stopped as a queued task, which has already completed it
+            return !retryQueue.remove(task.uploadId);
+        }
+
+        updateRetryAlarm();
+        updateWakeLock();
+        return true;
+    }
+
+    /**
+     * Queues again the uploads whose retry delay has elapsed. Called when the retry alarm fires.
+     */
+    private synchronized void retryDueUploads() {
+        final List<String> dueUploads = retryQueue.pollDue(SystemClock.elapsedRealtime());
+        updateWakeLock();
+
+        for (String uploadId : dueUploads) {
+            final HttpUploadTask task = uploadTasksMap.get(uploadId);
+            if (task != null) {
+                scheduler.schedule(task.uploadId, UploadEngine.getHostKey(task.url), task.priority,
+                        task.getEstimatedBodyLength(), task.constraints, task);
+            }
+        }
+
+        updateRetryAlarm();
+    }
+
+    /**
+     * Queues again a task which has been stopped because its constraints don't hold anymore.
+     * It's started again when they hold.
+     *
+     * @param task task to queue again
+     * @return true if the task has been queued, false if it has been stopped for another
+     * reason and has to be completed by the caller
+     */
+    synchronized boolean waitForConstraints(HttpUploadTask task) {
+        if (scheduler == null || !task.prepareToWaitForConstraints()) {
+            return false;
+        }
+
+        Log.i(TAG, "Upload " + task.uploadId + " is waiting for its constraints to hold");
+        UploadTrace.event(task.uploadId, UploadTrace.EVENT_WAITING_CONSTRAINTS);
+        scheduler.schedule(task.uploadId, UploadEngine.getHostKey(task.url), task.priority,
+                task.getEstimatedBodyLength(), task.constraints, task);
+        updateWakeLock();
+        return true;
+    }
+
+    /**
+     * Checks if constraints hold in the current state of the device.
+     *
+     * @param constraints constraints of an upload
+     * @return true if the upload can run now
+     */
+    boolean areConstraintsSatisfied(UploadConstraints constraints) {
+        final UploadScheduler currentScheduler = scheduler;
+        return currentScheduler == null || currentScheduler.isSatisfied(constraints);
+    }
 
-                createNotification();
+    private final DeviceStateProvider.Listener deviceStateListener = new DeviceStateProvider.Listener() {
+        @Override
+        public void onDeviceStateChanged(DeviceState state) {
+            final UploadScheduler currentScheduler = scheduler;
+            if (currentScheduler == null) {
+                return;
+            }
 
-                currentTask.run();
+            for (String uploadId : currentScheduler.setDeviceState(state)) {
+                final HttpUploadTask task = uploadTasksMap.get(uploadId);
+                if (task != null) {
+                    Log.i(TAG, "Pausing upload " + uploadId + " until its constraints hold again");
+                    task.stop(HttpUploadTask.STOP_CONSTRAINTS);
+                }
             }
+
+            updateWakeLock();
+        }
+    };
+
+    /**
+     * Sets the alarm for the earliest retry, or cancels it if no upload is waiting.
+     * The alarm wakes up the device, so the wake lock doesn't have to be held while waiting.
+     */
+    private synchronized void updateRetryAlarm() {
+        final PendingIntent retryIntent = getRetryIntent();
+        final long nextRetryTime = retryQueue.getNextDueTime();
+
+        if (nextRetryTime < 0) {
+            alarmManager.cancel(retryIntent);
+        } else if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.M) {
+            alarmManager.setAndAllowWhileIdle(AlarmManager.ELAPSED_REALTIME_WAKEUP, nextRetryTime, retryIntent);
+        } else {
+            alarmManager.set(AlarmManager.ELAPSED_REALTIME_WAKEUP, nextRetryTime, retryIntent);
         }
     }
 
+    private PendingIntent getRetryIntent() {
+        final Intent intent = new Intent(this, UploadService.class);
+        intent.setAction(getActionRetry());
+
+        int flags = PendingIntent.FLAG_UPDATE_CURRENT;
+        if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.M) {
+            flags |= PendingIntent.FLAG_IMMUTABLE;
+        }
+
+        // the alarm may fire while the app is in background, when the service can be
+        // started only as a foreground service
+        if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.O) {
+            return PendingIntent.getForegroundService(this, 0, intent, flags);
+        }
+        return PendingIntent.getService(this, 0, intent, flags);
+    }
+
+    /**
+     * Holds the wake lock only while there are uploads queued or running. Uploads waiting to
+     * be retried don't need it, because the retry alarm wakes up the device, and neither do
+     * uploads waiting for their constraints, which are started by the device state broadcasts.
+     * Waiting uploads still keep the service in foreground, otherwise the system would stop it
+     * while they wait.
+     */
+    private synchronized void updateWakeLock() {
+        final int heldUploads = scheduler == null ? 0 : scheduler.getHeldCount();
+        final int waitingUploads = retryQueue.size() + heldUploads;
+
+        if (uploadTasksMap.size() > waitingUploads) {
+            if (!wakeLock.isHeld()) {
+                wakeLock.acquire();
+            }
+        } else if (wakeLock.isHeld()) {
+            wakeLock.release();
+        }
+
+        notifications.setWaitingUploads(waitingUploads, uploadTasksMap.size());
+    }
+
+    /**
+     * Shows the notification of an upload. The service is kept in foreground by the summary
+     * notification of all the uploads, not by this one.
+     *
+     * @param uploadId ID of the upload
+     * @param notificationId ID of the notification
+     * @param notification notification to show
+     */
+    void showNotification(String uploadId, int notificationId, Notification notification) {
+        notifications.showUploadNotification(uploadId, notificationId, notification);
+    }
+
+    /**
+     * Posts the final notification of an upload, removing the progress one.
+     *
+     * @param uploadId ID of the upload
+     * @param notificationId ID of the notification
+     * @param notification notification to show, or null to just clear the progress one
+     */
+    void showCompletedNotification(String uploadId, int notificationId, Notification notification) {
+        notifications.uploadFinished(uploadId, notificationId, notification);
+    }
+
     public static String bytesFormat(double bytes, int digits) {
         String[] dictionary = { "bytes", "KB", "MB", "GB", "TB", "PB", "EB", "ZB", "YB" };
         int index = 0;
@@ -171,35 +1238,116 @@ public class UploadService extends IntentService {
         request.startUpload();
     }
 
-    void broadcastProgress(final String uploadId, final long uploadedBytes, final long totalBytes) {
+    /**
+     * Records the progress of an upload. Called by the upload threads after every chunk.
+     * The progress of all the uploads is broadcast together on the next tick.
+     */
+    void broadcastProgress(final String uploadId, final long uploadedBytes, final long totalBytes,
+                           final int chunkSize) {
+        progressAggregator.update(uploadId, uploadedBytes, totalBytes, chunkSize);
 
-        long currentTime = System.currentTimeMillis();
-        if (currentTime < lastProgressNotificationTime + PROGRESS_REPORT_INTERVAL) {
-            return;
+        // the tick is scheduled only when there is progress to report, so idle uploads
+        // don't wake up the main thread
+        if (progressTickScheduled.compareAndSet(false, true)) {
+            mainThreadHandler.postDelayed(progressTick, progressReportInterval);
+        }
+    }
+
+    private final Runnable progressTick = new Runnable() {
+        @Override
+        public void run() {
+            progressTickScheduled.set(false);
+
+            final boolean traced = UploadTrace.beginSection("UploadService.progressTick");
+            try {
+                progressAggregator.tick(progressListener);
+            } finally {
+                UploadTrace.endSection(traced);
+            }
         }
+    };
 
-        lastProgressNotificationTime = currentTime;
+    private void scheduleStallCheck() {
+        final long timeout = stallTimeout;
+        if (timeout > 0 && stallCheckScheduled.compareAndSet(false, true)) {
+            mainThreadHandler.postDelayed(stallCheck, Math.max(MIN_STALL_CHECK_INTERVAL, timeout / 4));
+        }
+    }
 
-        final int percentsProgress = (int) (uploadedBytes * 100 / totalBytes);
-        final String totalMB = bytesFormat(totalBytes, 2);
-        final String uploadedMB = bytesFormat(uploadedBytes, 2);
+    /**
+     * Periodically checks the uploads for stalls and samples the throughput of those which
+     * made no progress, as long as there are active uploads.
+     */
+    private final Runnable stallCheck = new Runnable() {
+        @Override
+        public void run() {
+            stallCheckScheduled.set(false);
 
-        updateNotificationProgress((int)uploadedBytes, (int)totalBytes, percentsProgress, totalMB, uploadedMB);
+            // the progress ticks sample the throughput only when there is progress
+            final long now = System.nanoTime();
+            progressAggregator.sampleIdle(now);
 
-        final Intent intent = new Intent(getActionBroadcast());
-        intent.putExtra(UPLOAD_ID, uploadId);
-        intent.putExtra(STATUS, STATUS_IN_PROGRESS);
+            final long timeout = stallTimeout;
+            if (timeout > 0) {
+                for (HttpUploadTask task : uploadTasksMap.values()) {
+                    task.checkStalled(now, timeout * 1000000);
+                }
+            }
 
+            if (!uploadTasksMap.isEmpty()) {
+                scheduleStallCheck();
+            }
+        }
+    };
 
-        intent.putExtra(PROGRESS, percentsProgress);
+    private final ProgressAggregator.Listener progressListener = new ProgressAggregator.Listener() {
+        @Override
+        public void onProgressBatch(final String[] uploadIds, final long[] uploadedBytes, final long[] totalBytes,
+                                    int[] chunkSizes, long[] bytesPerSecond, long[] remainingMillis) {
+            journalExecutor.execute(new JournalOperation() {
+                @Override
+                void run(UploadJournal currentJournal) {
+                    for (int i = 0; i < uploadIds.length; i++) {
+                        currentJournal.progress(uploadIds[i], uploadedBytes[i], totalBytes[i]);
+                    }
+                }
+            });
 
-        intent.putExtra(PROGRESS_UPLOADED_BYTES, uploadedBytes);
-        intent.putExtra(PROGRESS_TOTAL_BYTES, totalBytes);
-        sendBroadcast(intent);
-    }
+            for (int i = 0; i < uploadIds.length; i++) {
+                observers.dispatchProgress(uploadIds[i], uploadedBytes[i], totalBytes[i]);
+                observers.dispatchThroughput(uploadIds[i], bytesPerSecond[i], remainingMillis[i]);
+            }
+
+            notifications.onProgressBatch(uploadIds, uploadedBytes, totalBytes);
+
+            if (!broadcastsEnabled) {
+                return;
+            }
+
+            final Intent intent = new Intent(getActionBroadcast());
+            intent.putExtra(STATUS, STATUS_PROGRESS_BATCH);
+            intent.putExtra(UPLOAD_IDS, uploadIds);
+            intent.putExtra(PROGRESS_UPLOADED_BYTES, uploadedBytes);
+            intent.putExtra(PROGRESS_TOTAL_BYTES, totalBytes);
+            intent.putExtra(PROGRESS_CHUNK_SIZE, chunkSizes);
+            intent.putExtra(PROGRESS_BYTES_PER_SECOND, bytesPerSecond);
+            intent.putExtra(PROGRESS_REMAINING_TIME, remainingMillis);
+            sendBroadcast(intent);
+        }
+    };
 
     void broadcastCompleted(final String uploadId, final int responseCode, final String responseMessage) {
 
+        // no more progress has to be reported for this upload
+        progressAggregator.remove(uploadId);
+
+        journalExecutor.execute(new JournalOperation() {
+            @Override
+            void run(UploadJournal currentJournal) {
+                currentJournal.completed(uploadId);
+            }
+        });
+
         final String filteredMessage;
         if (responseMessage == null) {
             filteredMessage = "";
@@ -207,10 +1355,11 @@ public class UploadService extends IntentService {
             filteredMessage = responseMessage;
         }
 
-        if (responseCode >= 200 && responseCode <= 299)
-            updateNotificationCompleted();
-        else
-            updateNotificationError();
+        observers.dispatchCompleted(uploadId, responseCode, filteredMessage);
+
+        if (!broadcastsEnabled) {
+            return;
+        }
 
         final Intent intent = new Intent(getActionBroadcast());
         intent.putExtra(UPLOAD_ID, uploadId);
@@ -218,12 +1367,25 @@ public class UploadService extends IntentService {
         intent.putExtra(SERVER_RESPONSE_CODE, responseCode);
         intent.putExtra(SERVER_RESPONSE_MESSAGE, filteredMessage);
         sendBroadcast(intent);
-        wakeLock.release();
     }
 
     void broadcastError(final String uploadId, final Exception exception) {
 
-        updateNotificationError();
+        // no more progress has to be reported for this upload
+        progressAggregator.remove(uploadId);
+
+        journalExecutor.execute(new JournalOperation() {
+            @Override
+            void run(UploadJournal currentJournal) {
+                currentJournal.failed(uploadId);
+            }
+        });
+
+        observers.dispatchError(uploadId, exception);
+
+        if (!broadcastsEnabled) {
+            return;
+        }
 
         final Intent intent = new Intent(getActionBroadcast());
         intent.setAction(getActionBroadcast());
@@ -231,84 +1393,70 @@ public class UploadService extends IntentService {
         intent.putExtra(STATUS, STATUS_ERROR);
         intent.putExtra(ERROR_EXCEPTION, exception);
         sendBroadcast(intent);
-        wakeLock.release();
     }
 
-    private void createNotificationChannelUploadService(){
-        if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.O) {
-            NotificationChannel androidChannel = new NotificationChannel(
-                    UPLOAD_CHANNEL_ID,
-                    UPLOAD_CHANNEL_NAME,
-                    NotificationManager.IMPORTANCE_LOW);
-            androidChannel.enableLights(true);
-            androidChannel.enableVibration(false);
-            androidChannel.setLightColor(Color.MAGENTA);
-            androidChannel.setLockscreenVisibility(Notification.VISIBILITY_PRIVATE);
-            androidChannel.setSound(null, null);
+    void broadcastCancelled(final String uploadId) {
 
-            notificationManager.createNotificationChannel(androidChannel);
-        }
+        // no more progress has to be reported for this upload
+        progressAggregator.remove(uploadId);
 
-    }
+        journalExecutor.execute(new JournalOperation() {
+            @Override
+            void run(UploadJournal currentJournal) {
+                currentJournal.cancelled(uploadId);
+            }
+        });
 
-    private void setSimpleNotificationBuilder(){
-        this.contentText = notificationConfig.getMessage();
-        this.createNotificationChannelUploadService();
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-            this.notification = new Notification.Builder(this, UPLOAD_CHANNEL_ID)
-                    .setSmallIcon(notificationConfig.getIconResourceID())
-                    .setChannelId(UPLOAD_CHANNEL_ID)
-                    .setWhen(System.currentTimeMillis())
-                    .setContentIntent(notificationConfig.getPendingIntent(this))
-                    .setContentTitle(notificationConfig.getTitle())
-                    .setContentText(this.contentText)
-                    .setPriority(Notification.PRIORITY_DEFAULT)
-                    .setAutoCancel(true)
-                    .setDefaults(0)
-                    .setOngoing(true)
-                    .setColor(Color.rgb(100,17,69));
+        observers.dispatchCancelled(uploadId);
+
+        if (!broadcastsEnabled) {
+            return;
         }
-    }
 
-    private void createNotification() {
-        this.setSimpleNotificationBuilder();
-        startForeground(UPLOAD_NOTIFICATION_ID, this.notification.build());
+        final Intent intent = new Intent(getActionBroadcast());
+        intent.putExtra(UPLOAD_ID, uploadId);
+        intent.putExtra(STATUS, STATUS_CANCELLED);
+        sendBroadcast(intent);
     }
 
-    private void updateNotificationProgress(int uploadedBytes, int totalBytes, int percentsProgress,
-                                            String totalMB, String uploadedMB) {
+    void broadcastPaused(final String uploadId) {
 
-        this.notification.setProgress(totalBytes, uploadedBytes, false);
-        this.notification.setContentText(this.contentText + " "+ uploadedMB + "/" + totalMB);
-        startForeground(UPLOAD_NOTIFICATION_ID, this.notification.build());
-    }
+        // no more progress has to be reported for this upload
+        progressAggregator.remove(uploadId);
 
-    private void updateNotificationCompleted() {
-        stopForeground(notificationConfig.isAutoClearOnSuccess());
+        journalExecutor.execute(new JournalOperation() {
+            @Override
+            void run(UploadJournal currentJournal) {
+                currentJournal.paused(uploadId);
+            }
+        });
 
-        if (!notificationConfig.isAutoClearOnSuccess()) {
-            this.notification.setProgress(0,0, false);
-            this.notification.setOngoing(false);
-            this.setRingtone();
-            this.notificationManager.notify(UPLOAD_NOTIFICATION_ID_DONE, notification.build());
-        }
-    }
+        observers.dispatchPaused(uploadId);
 
-    private void updateNotificationError() {
-        stopForeground(false);
-        this.notification.setProgress(0,0,false);
-        this.notification.setOngoing(false);
-        this.notification.setColor(Color.rgb(106,33,100));
+        if (!broadcastsEnabled) {
+            return;
+        }
 
-        this.setRingtone();
-        notificationManager.notify(UPLOAD_NOTIFICATION_ID_DONE, notification.build());
+        final Intent intent = new Intent(getActionBroadcast());
+        intent.putExtra(UPLOAD_ID, uploadId);
+        intent.putExtra(STATUS, STATUS_PAUSED);
+        sendBroadcast(intent);
     }
 
-    private void setRingtone() {
+    private void createNotificationChannelUploadService(){
+        if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.O) {
+            NotificationChannel androidChannel = new NotificationChannel(
+                    UPLOAD_CHANNEL_ID,
+                    UPLOAD_CHANNEL_NAME,
+                    NotificationManager.IMPORTANCE_LOW);
+            androidChannel.enableLights(true);
+            androidChannel.enableVibration(false);
+            androidChannel.setLightColor(Color.MAGENTA);
+            androidChannel.setLockscreenVisibility(Notification.VISIBILITY_PRIVATE);
+            androidChannel.setSound(null, null);
 
-        if(notificationConfig.isRingTone() && Build.VERSION.SDK_INT < Build.VERSION_CODES.O) {
-            notification.setSound(RingtoneManager.getActualDefaultRingtoneUri(this, RingtoneManager.TYPE_NOTIFICATION));
-            notification.setOnlyAlertOnce(true);
+            notificationManager.createNotificationChannel(androidChannel);
         }
+
     }
-}
\ No newline at end of file
+}
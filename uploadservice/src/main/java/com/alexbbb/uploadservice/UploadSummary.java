@@ -0,0 +1,143 @@
+package com.alexbbb.uploadservice;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Aggregate progress of all the active uploads, shown in the summary notification.
+ *
+ * The throughput is measured on the bytes transferred by all the uploads, so it isn't
+ * affected by uploads which start or finish, and it's smoothed with an exponentially
+ * weighted moving average to give a stable estimate of the remaining time.
+ *
+ * Not thread safe.
+ *
+ * @author alexbbb (Aleksandar Gotev)
+ */
+final class UploadSummary {
+
+    private static final double SMOOTHING_FACTOR = 0.3;
+
+    private static final class Upload {
+        long uploadedBytes;
+        long maxUploadedBytes;
+        long totalBytes = -1;
+    }
+
+    private final Map<String, Upload> uploads = new LinkedHashMap<String, Upload>();
+
+    private long transferredBytes;
+    private long lastSampleTime = -1;
+    private long lastSampleBytes;
+    private double bytesPerMilli = -1;
+
+    /**
+     * Adds an upload, if it's not there yet.
+     *
+     * @param uploadId ID of the upload
+     * @return true if the upload has been added
+     */
+    boolean add(String uploadId) {
+        if (uploads.containsKey(uploadId)) {
+            return false;
+        }
+        uploads.put(uploadId, new Upload());
+        return true;
+    }
+
+    /**
+     * Updates the progress of an upload which has been added.
+     *
+     * @param uploadId ID of the upload
+     * @param uploadedBytes bytes uploaded so far
+     * @param totalBytes total bytes, or -1 if unknown
+     */
+    void update(String uploadId, long uploadedBytes, long totalBytes) {
+        final Upload upload = uploads.get(uploadId);
+        if (upload == null) {
+            return;
+        }
+
+        // a retry starts again from zero: the bytes sent again are transferred anyway,
+        // but they're counted only when they exceed the previous progress
+        if (uploadedBytes > upload.maxUploadedBytes) {
+            transferredBytes += uploadedBytes - upload.maxUploadedBytes;
+            upload.maxUploadedBytes = uploadedBytes;
+        }
+
+        upload.uploadedBytes = uploadedBytes;
+        upload.totalBytes = totalBytes;
+    }
+
+    /**
+     * Removes an upload.
+     *
+     * @param uploadId ID of the upload
+     * @return true if the upload was there
+     */
+    boolean remove(String uploadId) {
+        return uploads.remove(uploadId) != null;
+    }
+
+    int getCount() {
+        return uploads.size();
+    }
+
+    /**
+     * @return the ID of the first upload still active, or null if there are none
+     */
+    String getFirstUploadId() {
+        return uploads.isEmpty() ? null : uploads.keySet().iterator().next();
+    }
+
+    long getUploadedBytes() {
+        long total = 0;
+        for (Upload upload : uploads.values()) {
+            total += upload.uploadedBytes;
+        }
+        return total;
+    }
+
+    /**
+     * @return total bytes of all the uploads, or -1 if the size of one of them is unknown
+     */
+    long getTotalBytes() {
+        long total = 0;
+        for (Upload upload : uploads.values()) {
+            if (upload.totalBytes < 0) {
+                return -1;
+            }
+            total += upload.totalBytes;
+        }
+        return total;
+    }
+
+    /**
+     * Measures the throughput since the previous sample.
+     *
+     * @param nowMillis current time in milliseconds
+     */
+    void sample(long nowMillis) {
+        if (lastSampleTime >= 0 && nowMillis > lastSampleTime) {
+            final double rate = (double) (transferredBytes - lastSampleBytes) / (nowMillis - lastSampleTime);
+            bytesPerMilli = bytesPerMilli < 0 ? rate : bytesPerMilli + SMOOTHING_FACTOR * (rate - bytesPerMilli);
+        }
+
+        lastSampleTime = nowMillis;
+        lastSampleBytes = transferredBytes;
+    }
+
+    /**
+     * Estimates the time needed to complete all the uploads at the measured throughput.
+     *
+     * @return remaining time in milliseconds, or -1 if it can't be estimated yet
+     */
+    long getRemainingMillis() {
+        final long totalBytes = getTotalBytes();
+        if (totalBytes < 0 || bytesPerMilli <= 0) {
+            return -1;
+        }
+
+        return (long) (Math.max(0, totalBytes - getUploadedBytes()) / bytesPerMilli);
+    }
+}
@@ -0,0 +1,146 @@
+package com.alexbbb.uploadservice;
+
+import android.os.Build;
+import android.os.SystemClock;
+import android.os.Trace;
+
+/**
+ * Instrumentation of the uploads. When tracing is enabled, the phases of the uploads are
+ * marked with {@link Trace} sections, which show up in Perfetto and systrace next to the
+ * frames of the app. Each attempt is also marked by an async slice named after the upload ID,
+ * from Android 10. The main events are always recorded in a small {@link UploadEventLog}.
+ *
+ * Sections must be closed with the value returned when they have been opened, because
+ * tracing may be enabled or disabled in the meantime:
+ * <pre>
+ * final boolean traced = UploadTrace.beginSection("name");
+ * try {
+ *     ...
+ * } finally {
+ *     UploadTrace.endSection(traced);
+ * }
+ * </pre>
+ *
+ * @author alexbbb (Aleksandar Gotev)
+ */
+final class UploadTrace {
+
+    // the events of the attempts are defined by UploadTracer
+    static final String EVENT_QUEUED = "queued";
+    static final String EVENT_WAITING_CONSTRAINTS = "waiting-constraints";
+    static final String EVENT_NOTIFICATION = "notification";
+    static final String EVENT_FINISHED = "finished";
+
+    static final int DEFAULT_EVENT_LOG_SIZE = 256;
+
+    private static final int MAX_SECTION_NAME_LENGTH = 127;
+
+    private static volatile boolean tracingEnabled = false;
+    private static final UploadEventLog eventLog = new UploadEventLog(DEFAULT_EVENT_LOG_SIZE);
+
+    /**
+     * Lets the {@link UploadEngine} record the attempts in the trace and in the event log.
+     */
+    static final UploadTracer TRACER = new UploadTracer() {
+        @Override
+        public boolean beginSection(String name) {
+            return UploadTrace.beginSection(name);
+        }
+
+        @Override
+        public void endSection(boolean began) {
+            UploadTrace.endSection(began);
+        }
+
+        @Override
+        public boolean beginAttempt(String uploadId, int attempt) {
+            return beginAsyncSection("upload", uploadId, attempt);
+        }
+
+        @Override
+        public void endAttempt(String uploadId, int attempt, boolean began) {
+            endAsyncSection("upload", uploadId, attempt, began);
+        }
+
+        @Override
+        public void event(String uploadId, String event, long value) {
+            UploadTrace.event(uploadId, event, value);
+        }
+    };
+
+    private UploadTrace() {
+    }
+
+    static void setTracingEnabled(boolean enabled) {
+        tracingEnabled = enabled;
+    }
+
+    static UploadEventLog getEventLog() {
+        return eventLog;
+    }
+
+    /**
+     * @return true if the sections are being recorded. Checked before building their names,
+     * so that nothing is allocated when nobody is tracing
+     */
+    static boolean isTracing() {
+        if (!tracingEnabled || Build.VERSION.SDK_INT < 18) {
+            return false;
+        }
+        return Build.VERSION.SDK_INT < Build.VERSION_CODES.Q || Trace.isEnabled();
+    }
+
+    /**
+     * Opens a section on the current thread.
+     *
+     * @param name name of the section
+     * @return true if the section has been opened
+     */
+    static boolean beginSection(String name) {
+        if (!isTracing()) {
+            return false;
+        }
+        Trace.beginSection(truncate(name));
+        return true;
+    }
+
+    static void endSection(boolean began) {
+        if (began) {
+            Trace.endSection();
+        }
+    }
+
+    /**
+     * Opens an async slice, which can be closed from another thread.
+     *
+     * @param name name of the slice
+     * @param uploadId ID of the upload, appended to the name
+     * @param cookie distinguishes the slices with the same name which overlap
+     * @return true if the slice has been opened
+     */
+    static boolean beginAsyncSection(String name, String uploadId, int cookie) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.Q || !isTracing()) {
+            return false;
+        }
+        Trace.beginAsyncSection(truncate(name + " " + uploadId), cookie);
+        return true;
+    }
+
+    static void endAsyncSection(String name, String uploadId, int cookie, boolean began) {
+        if (began) {
+            Trace.endAsyncSection(truncate(name + " " + uploadId), cookie);
+        }
+    }
+
+    static void event(String uploadId, String event) {
+        event(uploadId, event, UploadEventLog.NO_VALUE);
+    }
+
+    static void event(String uploadId, String event, long value) {
+        eventLog.log(SystemClock.elapsedRealtime(), uploadId, event, value);
+    }
+
+    private static String truncate(String name) {
+        return name.length() <= MAX_SECTION_NAME_LENGTH ? name : name.substring(0, MAX_SECTION_NAME_LENGTH);
+    }
+}
@@ -0,0 +1,75 @@
+package com.alexbbb.uploadservice;
+
+import org.junit.Test;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class RetryPolicyTest {
+
+    @Test
+    public void classifiesStatusCodes() {
+        RetryPolicy policy = new RetryPolicy();
+
+        assertTrue(policy.isRetryable(500));
+        assertTrue(policy.isRetryable(503));
+        assertTrue(policy.isRetryable(408));
+        assertTrue(policy.isRetryable(429));
+        assertFalse(policy.isRetryable(501));
+        assertFalse(policy.isRetryable(400));
+        assertFalse(policy.isRetryable(404));
+        assertFalse(policy.isRetryable(200));
+
+        policy.setRetryServerErrors(false);
+        policy.setRetryableStatusCodes(503);
+        assertFalse(policy.isRetryable(500));
+        assertTrue(policy.isRetryable(503));
+        assertFalse(policy.isRetryable(429));
+    }
+
+    @Test
+    public void classifiesExceptions() {
+        RetryPolicy policy = new RetryPolicy();
+
+        assertTrue(policy.isRetryable(new SocketTimeoutException()));
+        assertTrue(policy.isRetryable(new UploadStatusException(502, "", -1)));
+        assertFalse(policy.isRetryable(new UploadStatusException(403, "", -1)));
+        assertFalse(policy.isRetryable(new FileNotFoundException()));
+        assertFalse(policy.isRetryable(new IllegalStateException()));
+        assertTrue(policy.isRetryable(new IOException()));
+    }
+
+    @Test
+    public void jittersDelaysWithinBounds() {
+        RetryPolicy policy = new RetryPolicy(1000, 60000);
+        Random random = new Random(42);
+
+        long delay = 0;
+        boolean different = false;
+        for (int i = 0; i < 100; i++) {
+            long next = policy.getNextDelay(delay, random);
+            assertTrue(next >= 1000);
+            assertTrue(next <= Math.max(1000, Math.min(60000, delay * 3)));
+            different |= next != delay;
+            delay = next;
+        }
+        assertTrue(different);
+    }
+
+    @Test
+    public void parsesRetryAfter() {
+        assertEquals(120000, RetryPolicy.parseRetryAfter("120", 0));
+        assertEquals(-1, RetryPolicy.parseRetryAfter(null, 0));
+        assertEquals(-1, RetryPolicy.parseRetryAfter("soon", 0));
+        assertEquals(RetryPolicy.MAX_RETRY_AFTER, RetryPolicy.parseRetryAfter("86400", 0));
+
+        // Sun, 06 Nov 1994 08:49:37 GMT
+        long date = 784111777000L;
+        assertEquals(30000, RetryPolicy.parseRetryAfter("Sun, 06 Nov 1994 08:49:37 GMT", date - 30000));
+        assertEquals(0, RetryPolicy.parseRetryAfter("Sun, 06 Nov 1994 08:49:37 GMT", date + 30000));
+    }
+}
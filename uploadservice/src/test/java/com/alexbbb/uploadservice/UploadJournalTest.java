@@ -0,0 +1,145 @@
+package com.alexbbb.uploadservice;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class UploadJournalTest {
+
+    private File directory;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = File.createTempFile("journal", "");
+        assertTrue(directory.delete());
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void replaysOnlyUnfinishedUploads() throws Exception {
+        UploadJournal journal = new UploadJournal(directory);
+        journal.submitted("completed", new byte[] {1});
+        journal.submitted("pending", new byte[] {2, 3});
+        journal.submitted("cancelled", new byte[] {4});
+        journal.progress("pending", 100, 1000);
+        journal.completed("completed");
+        journal.cancelled("cancelled");
+        journal.close();
+
+        List<UploadJournal.Entry> entries = new UploadJournal(directory).getPendingEntries();
+
+        assertEquals(1, entries.size());
+        assertEquals("pending", entries.get(0).uploadId);
+        assertArrayEquals(new byte[] {2, 3}, entries.get(0).request);
+        assertEquals(100, entries.get(0).uploadedBytes);
+        assertEquals(1000, entries.get(0).totalBytes);
+    }
+
+    @Test
+    public void keepsPausedState() throws Exception {
+        UploadJournal journal = new UploadJournal(directory);
+        journal.submitted("paused", new byte[] {1});
+        journal.submitted("resumed", new byte[] {2});
+        journal.paused("paused");
+        journal.paused("resumed");
+        journal.resumed("resumed");
+        journal.close();
+
+        journal = new UploadJournal(directory);
+        assertTrue(journal.getEntry("paused").paused);
+        assertFalse(journal.getEntry("resumed").paused);
+    }
+
+    @Test
+    public void discardsTornRecord() throws Exception {
+        UploadJournal journal = new UploadJournal(directory);
+        journal.submitted("first", new byte[] {1});
+        journal.submitted("second", new byte[] {2});
+        journal.close();
+
+        File file = new File(directory, UploadJournal.FILE_NAME);
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(file.length() - 3);
+        raf.close();
+
+        journal = new UploadJournal(directory);
+        assertEquals(1, journal.getPendingEntries().size());
+        assertTrue(journal.isPending("first"));
+
+        // the journal has been repaired and can be appended to
+        journal.submitted("third", new byte[] {3});
+        journal.close();
+        assertEquals(2, new UploadJournal(directory).getPendingEntries().size());
+    }
+
+    @Test
+    public void discardsRecordWithWrongChecksum() throws Exception {
+        UploadJournal journal = new UploadJournal(directory);
+        journal.submitted("first", new byte[] {1});
+        journal.submitted("second", new byte[] {2});
+        journal.close();
+
+        // flips the last byte of the checksum of the second record
+        File file = new File(directory, UploadJournal.FILE_NAME);
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.seek(file.length() - 1);
+        int last = raf.read();
+        raf.seek(file.length() - 1);
+        raf.write(last ^ 0xff);
+        raf.close();
+
+        journal = new UploadJournal(directory);
+        assertEquals(1, journal.getPendingEntries().size());
+        assertTrue(journal.isPending("first"));
+        journal.close();
+    }
+
+    @Test
+    public void discardsJournalWithUnknownFormat() throws Exception {
+        assertTrue(directory.mkdirs());
+        RandomAccessFile raf = new RandomAccessFile(new File(directory, UploadJournal.FILE_NAME), "rw");
+        raf.writeInt(0x12345678);
+        raf.close();
+
+        UploadJournal journal = new UploadJournal(directory);
+        assertTrue(journal.getPendingEntries().isEmpty());
+
+        journal.submitted("first", new byte[] {1});
+        journal.close();
+        assertTrue(new UploadJournal(directory).isPending("first"));
+    }
+
+    @Test
+    public void compactsFinishedUploads() throws Exception {
+        UploadJournal journal = new UploadJournal(directory);
+        journal.submitted("pending", new byte[] {1});
+
+        int uploads = UploadJournal.COMPACTION_THRESHOLD * 4;
+        for (int i = 0; i < uploads; i++) {
+            journal.submitted("upload" + i, new byte[64]);
+            journal.completed("upload" + i);
+        }
+        journal.close();
+
+        // without compaction the journal would hold every submission
+        long journalSize = new File(directory, UploadJournal.FILE_NAME).length();
+        assertTrue(journalSize < UploadJournal.COMPACTION_THRESHOLD * 64);
+        assertTrue(new UploadJournal(directory).isPending("pending"));
+    }
+}
@@ -0,0 +1,95 @@
+package com.alexbbb.uploadservice;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+public class UploadObserverRegistryTest {
+
+    private final List<String> events = new ArrayList<String>();
+
+    private final Executor directExecutor = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private UploadObserver observer(final String name) {
+        return new UploadObserver() {
+            @Override
+            public void onProgress(String uploadId, long uploadedBytes, long totalBytes) {
+                events.add(name + ":" + uploadId + ":progress:" + uploadedBytes);
+            }
+
+            @Override
+            public void onCompleted(String uploadId, int serverResponseCode, String serverResponseMessage) {
+                events.add(name + ":" + uploadId + ":completed:" + serverResponseCode);
+            }
+
+            @Override
+            public void onPaused(String uploadId) {
+                events.add(name + ":" + uploadId + ":paused");
+            }
+        };
+    }
+
+    @Test
+    public void dispatchesToObserversOfTheUploadAndOfAllUploads() {
+        UploadObserverRegistry registry = new UploadObserverRegistry();
+        registry.add(null, observer("all"), directExecutor);
+        registry.add("a", observer("onlyA"), directExecutor);
+
+        registry.dispatchProgress("a", 10, 100);
+        registry.dispatchProgress("b", 20, 100);
+
+        assertEquals("[all:a:progress:10, onlyA:a:progress:10, all:b:progress:20]", events.toString());
+    }
+
+    @Test
+    public void dropsObserversOfFinishedUploadsButNotOfPausedOnes() {
+        UploadObserverRegistry registry = new UploadObserverRegistry();
+        registry.add("a", observer("onlyA"), directExecutor);
+
+        registry.dispatchPaused("a");
+        registry.dispatchCompleted("a", 200, "");
+        registry.dispatchCompleted("a", 200, "");
+
+        assertEquals("[onlyA:a:paused, onlyA:a:completed:200]", events.toString());
+    }
+
+    @Test
+    public void removesObserverEverywhere() {
+        UploadObserverRegistry registry = new UploadObserverRegistry();
+        UploadObserver observer = observer("x");
+        registry.add(null, observer, directExecutor);
+        registry.add("a", observer, directExecutor);
+
+        registry.remove(observer);
+        registry.dispatchProgress("a", 1, 2);
+
+        assertTrue(events.isEmpty());
+    }
+
+    @Test
+    public void usesTheExecutorOfTheRegistration() {
+        final List<Runnable> queued = new ArrayList<Runnable>();
+        UploadObserverRegistry registry = new UploadObserverRegistry();
+        registry.add(null, observer("queued"), new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                queued.add(command);
+            }
+        });
+
+        registry.dispatchProgress("a", 1, 2);
+        assertTrue(events.isEmpty());
+
+        queued.get(0).run();
+        assertEquals("[queued:a:progress:1]", events.toString());
+    }
+}
@@ -0,0 +1,250 @@
+package com.alexbbb.uploadservice;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+public class UploadSchedulerTest {
+
+    private static final String SLOW_HOST = "slow.example.com:443";
+    private static final String FAST_HOST = "cdn.example.com:443";
+
+    private final List<Runnable> started = new ArrayList<Runnable>();
+    private final List<String> executionOrder = new ArrayList<String>();
+    private final Map<String, Integer> hostLimits = new HashMap<String, Integer>();
+
+    private final Executor capturingExecutor = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            started.add(command);
+        }
+    };
+
+    @Before
+    public void setUp() {
+        started.clear();
+        executionOrder.clear();
+        hostLimits.clear();
+    }
+
+    private Runnable upload(final String name) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                executionOrder.add(name);
+            }
+        };
+    }
+
+    private void finishFirstStarted() {
+        started.remove(0).run();
+    }
+
+    @Test
+    public void hostKeyIncludesDefaultPort() throws Exception {
+        assertEquals("example.com:443", UploadEngine.getHostKey("https://Example.com/upload"));
+        assertEquals("example.com:8080", UploadEngine.getHostKey("http://example.com:8080/upload"));
+    }
+
+    @Test
+    public void limitsRunningUploadsPerHost() throws Exception {
+        UploadScheduler scheduler = new UploadScheduler(capturingExecutor, 6, 2, hostLimits,
+                UploadSchedulingPolicy.FIFO);
+
+        for (int i = 0; i < 5; i++) {
+            scheduler.schedule("slow" + i, SLOW_HOST, 0, -1, upload("slow" + i));
+        }
+
+        assertEquals(2, started.size());
+        UploadHostStats stats = scheduler.getHostStats().get(0);
+        assertEquals(3, stats.getQueuedUploads());
+        assertEquals(2, stats.getRunningUploads());
+
+        finishFirstStarted();
+        assertEquals(2, started.size());
+        assertEquals(2, scheduler.getHostStats().get(0).getQueuedUploads());
+    }
+
+    @Test
+    public void alternatesBetweenHosts() throws Exception {
+        UploadScheduler scheduler = new UploadScheduler(capturingExecutor, 1, 4, hostLimits,
+                UploadSchedulingPolicy.FIFO);
+
+        scheduler.schedule("slow0", SLOW_HOST, 0, -1, upload("slow0"));
+        scheduler.schedule("slow1", SLOW_HOST, 0, -1, upload("slow1"));
+        scheduler.schedule("slow2", SLOW_HOST, 0, -1, upload("slow2"));
+        scheduler.schedule("fast0", FAST_HOST, 0, -1, upload("fast0"));
+        scheduler.schedule("fast1", FAST_HOST, 0, -1, upload("fast1"));
+
+        while (!started.isEmpty()) {
+            finishFirstStarted();
+        }
+
+        assertEquals("[slow0, fast0, slow1, fast1, slow2]", executionOrder.toString());
+    }
+
+    @Test
+    public void perHostOverrideIsAppliedAtRuntime() throws Exception {
+        UploadScheduler scheduler = new UploadScheduler(capturingExecutor, 6, 4, hostLimits,
+                UploadSchedulingPolicy.FIFO);
+        hostLimits.put(SLOW_HOST, 1);
+
+        scheduler.schedule("slow0", SLOW_HOST, 0, -1, upload("slow0"));
+        scheduler.schedule("slow1", SLOW_HOST, 0, -1, upload("slow1"));
+        assertEquals(1, started.size());
+
+        hostLimits.remove(SLOW_HOST);
+        scheduler.schedule("slow2", SLOW_HOST, 0, -1, upload("slow2"));
+        assertEquals(3, started.size());
+    }
+
+    @Test
+    public void removesQueuedUpload() throws Exception {
+        UploadScheduler scheduler = new UploadScheduler(capturingExecutor, 1, 1, hostLimits,
+                UploadSchedulingPolicy.FIFO);
+
+        scheduler.schedule("first", SLOW_HOST, 0, -1, upload("first"));
+        scheduler.schedule("second", SLOW_HOST, 0, -1, upload("second"));
+
+        assertTrue(scheduler.remove("second"));
+        assertFalse(scheduler.remove("first"));
+
+        finishFirstStarted();
+        assertTrue(started.isEmpty());
+        assertEquals("[first]", executionOrder.toString());
+    }
+
+    @Test
+    public void startsHigherPriorityFirst() throws Exception {
+        UploadScheduler scheduler = new UploadScheduler(capturingExecutor, 1, 1, hostLimits,
+                UploadSchedulingPolicy.PRIORITY);
+
+        scheduler.schedule("running", SLOW_HOST, 0, -1, upload("running"));
+        scheduler.schedule("logs", SLOW_HOST, 0, -1, upload("logs"));
+        scheduler.schedule("form", SLOW_HOST, 10, -1, upload("form"));
+        scheduler.schedule("archive", SLOW_HOST, 0, -1, upload("archive"));
+
+        while (!started.isEmpty()) {
+            finishFirstStarted();
+        }
+
+        assertEquals("[running, form, logs, archive]", executionOrder.toString());
+    }
+
+    @Test
+    public void startsShortestJobFirst() throws Exception {
+        UploadScheduler scheduler = new UploadScheduler(capturingExecutor, 1, 1, hostLimits,
+                UploadSchedulingPolicy.FIFO);
+
+        scheduler.schedule("running", SLOW_HOST, 0, 100, upload("running"));
+        scheduler.schedule("unknown", SLOW_HOST, 0, -1, upload("unknown"));
+        scheduler.schedule("archive", SLOW_HOST, 0, 50000000, upload("archive"));
+        scheduler.schedule("form", SLOW_HOST, 0, 50000, upload("form"));
+        scheduler.setPolicy(UploadSchedulingPolicy.SHORTEST_JOB_FIRST);
+
+        while (!started.isEmpty()) {
+            finishFirstStarted();
+        }
+
+        assertEquals("[running, form, archive, unknown]", executionOrder.toString());
+    }
+
+    /**
+     * Device state which the tests change by hand.
+     */
+    private static final class FakeDeviceStateProvider implements DeviceStateProvider {
+        private Listener listener;
+        private DeviceState state = DeviceState.UNCONSTRAINED;
+
+        @Override
+        public void start(Listener listener) {
+            this.listener = listener;
+        }
+
+        @Override
+        public void stop() {
+            listener = null;
+        }
+
+        @Override
+        public DeviceState getDeviceState() {
+            return state;
+        }
+
+        void setDeviceState(DeviceState state) {
+            this.state = state;
+            listener.onDeviceStateChanged(state);
+        }
+    }
+
+    private static final DeviceState WIFI = new DeviceState(true, true, false, false, 80);
+    private static final DeviceState CELLULAR = new DeviceState(true, false, false, false, 80);
+    private static final DeviceState OFFLINE = new DeviceState(false, false, false, false, 80);
+
+    @Test
+    public void holdsUploadsUntilConstraintsHold() throws Exception {
+        final UploadScheduler scheduler = new UploadScheduler(capturingExecutor, 2, 2, hostLimits,
+                UploadSchedulingPolicy.FIFO);
+        final FakeDeviceStateProvider device = new FakeDeviceStateProvider();
+        device.start(new DeviceStateProvider.Listener() {
+            @Override
+            public void onDeviceStateChanged(DeviceState state) {
+                scheduler.setDeviceState(state);
+            }
+        });
+        device.setDeviceState(CELLULAR);
+
+        UploadConstraints wifiOnly = new UploadConstraints(true, false, 0, true);
+        scheduler.schedule("video", SLOW_HOST, 0, -1, wifiOnly, upload("video"));
+        scheduler.schedule("form", SLOW_HOST, 0, -1, UploadConstraints.NONE, upload("form"));
+
+        // the held upload doesn't block the other one
+        assertEquals(1, started.size());
+        assertEquals(1, scheduler.getHeldCount());
+        finishFirstStarted();
+
+        device.setDeviceState(OFFLINE);
+        scheduler.schedule("log", SLOW_HOST, 0, -1, UploadConstraints.NONE, upload("log"));
+        assertTrue(started.isEmpty());
+        assertEquals(2, scheduler.getHeldCount());
+
+        device.setDeviceState(WIFI);
+        assertEquals(2, started.size());
+        assertEquals(0, scheduler.getHeldCount());
+    }
+
+    @Test
+    public void reportsRunningUploadsWhoseConstraintsStopHolding() throws Exception {
+        UploadScheduler scheduler = new UploadScheduler(capturingExecutor, 2, 2, hostLimits,
+                UploadSchedulingPolicy.FIFO);
+        scheduler.setDeviceState(WIFI);
+
+        scheduler.schedule("video", SLOW_HOST, 0, -1, new UploadConstraints(true, false, 0, true),
+                upload("video"));
+        scheduler.schedule("form", SLOW_HOST, 0, -1, UploadConstraints.NONE, upload("form"));
+        assertEquals(2, started.size());
+
+        assertEquals(Arrays.asList("video"), scheduler.setDeviceState(CELLULAR));
+        assertEquals(Arrays.asList("video", "form"), scheduler.setDeviceState(OFFLINE));
+    }
+
+    @Test
+    public void checksBatteryAndRoaming() throws Exception {
+        UploadConstraints constraints = new UploadConstraints(false, false, 30, false);
+
+        assertTrue(constraints.isSatisfiedBy(new DeviceState(true, false, false, false, 50)));
+        assertFalse(constraints.isSatisfiedBy(new DeviceState(true, false, false, false, 20)));
+        assertTrue(constraints.isSatisfiedBy(new DeviceState(true, false, false, true, 20)));
+        assertFalse(constraints.isSatisfiedBy(new DeviceState(true, false, true, true, 50)));
+        assertFalse(new UploadConstraints(false, true, 0, true)
+                .isSatisfiedBy(new DeviceState(true, true, false, false, 100)));
+    }
+}
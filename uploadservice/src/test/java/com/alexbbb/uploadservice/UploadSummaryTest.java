@@ -0,0 +1,73 @@
+package com.alexbbb.uploadservice;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class UploadSummaryTest {
+
+    @Test
+    public void aggregatesAllUploads() {
+        UploadSummary summary = new UploadSummary();
+        assertTrue(summary.add("a"));
+        assertTrue(summary.add("b"));
+        assertFalse(summary.add("a"));
+
+        summary.update("a", 100, 1000);
+        summary.update("b", 300, 500);
+
+        assertEquals(2, summary.getCount());
+        assertEquals("a", summary.getFirstUploadId());
+        assertEquals(400, summary.getUploadedBytes());
+        assertEquals(1500, summary.getTotalBytes());
+
+        assertTrue(summary.remove("a"));
+        assertFalse(summary.remove("a"));
+        assertEquals("b", summary.getFirstUploadId());
+        assertEquals(500, summary.getTotalBytes());
+    }
+
+    @Test
+    public void unknownTotalHasNoEstimate() {
+        UploadSummary summary = new UploadSummary();
+        summary.add("a");
+        summary.add("b");
+        summary.update("a", 100, 1000);
+        summary.update("b", 100, -1);
+
+        summary.sample(0);
+        summary.update("a", 200, 1000);
+        summary.sample(100);
+
+        assertEquals(-1, summary.getTotalBytes());
+        assertEquals(-1, summary.getRemainingMillis());
+    }
+
+    @Test
+    public void estimatesRemainingTime() {
+        UploadSummary summary = new UploadSummary();
+        summary.add("a");
+        assertEquals(-1, summary.getRemainingMillis());
+
+        summary.sample(0);
+        summary.update("a", 1000, 11000);
+        summary.sample(1000);
+
+        // 1000 bytes per second, 10000 bytes left
+        assertEquals(10000, summary.getRemainingMillis());
+    }
+
+    @Test
+    public void retryDoesNotInflateThroughput() {
+        UploadSummary summary = new UploadSummary();
+        summary.add("a");
+
+        summary.sample(0);
+        summary.update("a", 1000, 11000);
+        summary.update("a", 0, 11000);
+        summary.update("a", 1000, 11000);
+        summary.sample(1000);
+
+        assertEquals(10000, summary.getRemainingMillis());
+    }
+}